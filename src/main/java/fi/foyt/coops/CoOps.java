@@ -1,31 +1,71 @@
 package fi.foyt.coops;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.joda.time.DateTime;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
 
+import fi.foyt.coops.cache.RevisionCache;
+import fi.foyt.coops.io.ByteIOHandler;
+import fi.foyt.coops.io.ConditionalIOHandler;
+import fi.foyt.coops.io.ConditionalResponse;
 import fi.foyt.coops.io.DefaultIOHandler;
 import fi.foyt.coops.io.IOHandler;
+import fi.foyt.coops.io.RequestBodyWriter;
+import fi.foyt.coops.io.StreamingIOHandler;
+import fi.foyt.coops.io.StreamingUploadIOHandler;
+import fi.foyt.coops.json.JsonStringWriter;
+import fi.foyt.coops.json.ModelTypeAdapterFactory;
 import fi.foyt.coops.model.File;
 import fi.foyt.coops.model.FileJoin;
 import fi.foyt.coops.model.Patch;
+import fi.foyt.coops.patch.PatchEngine;
 
-public class CoOps {
+public class CoOps implements Closeable {
   
   public static final String PROTOCOL_VERSION = "1.0.0draft2";
   
   protected static final String CONTENT_TYPE_JSON = "application/json";
   
+  /**
+   * Creates client using a {@link DefaultIOHandler} owned by this instance. Handler is released when client is closed.
+   */
   public CoOps(String protocol, String host, int port, String basePath) {
     this(new DefaultIOHandler(), protocol, host, port, basePath);
+    this.ownsIOHandler = true;
   }
   
   public CoOps(IOHandler ioHandler, String protocol, String host, int port, String basePath) {
@@ -70,6 +110,23 @@ public class CoOps {
     return doGet(FileJoin.class, pathBuilder.toString(), auth);
   }
   
+  /**
+   * Joins collaboration session offering the algorithms registered into patch engine ordered by their estimated cost
+   * 
+   * @param patchEngine patch engine holding the supported algorithms
+   * @param documentSize expected document size in bytes, e.g. size of a local snapshot
+   * @param contentType expected document content type, may be null
+   * @param auth authentication used for this request
+   * @return file join result
+   * @throws ServerException ServerException is thrown when server returns does not return a successful result
+   * @throws IOException IOException is thrown when error occurs in server communication
+   * @throws UsageException UsageException is thrown when method is called incorrectly
+   * @see PatchEngine#getAlgorithmPreference(long, String)
+   */
+  public FileJoin joinFile(PatchEngine patchEngine, long documentSize, String contentType, Auth auth) throws UsageException, ServerException, IOException {
+    return joinFile(patchEngine.getAlgorithmPreference(documentSize, contentType), auth);
+  }
+  
   /**
    * Returns a file
    * 
@@ -79,8 +136,17 @@ public class CoOps {
    * @throws IOException IOException is thrown when error occurs in server communication
    * @throws UsageException UsageException is thrown when method is called incorrectly
    */
-  public File getFile(Auth auth) throws UsageException, ServerException, IOException {
-    return doGet(File.class, basePath, auth);
+  public File getFile(final Auth auth) throws UsageException, ServerException, IOException {
+    if (requestCoalescingEnabled) {
+      return copyOf(requestCoalescer.execute(getURI(basePath).toString(), auth, new Callable<File>() {
+        @Override
+        public File call() throws Exception {
+          return doGetFile(auth);
+        }
+      }));
+    }
+    
+    return doGetFile(auth);
   }
   
   /**
@@ -98,7 +164,45 @@ public class CoOps {
       throw new UsageException("revisionNumber is required");
     }
     
-    return doGet(File.class, basePath + "?revisionNumber=" + revisionNumber, auth);
+    if (revisionCache != null) {
+      String fileUri = getAuthScopedUri(auth);
+      File cached = revisionCache.get(fileUri, revisionNumber);
+      if (cached != null) {
+        return cached;
+      }
+      
+      File file = doGetFileRevision(revisionNumber, auth);
+      if (file != null) {
+        revisionCache.put(fileUri, revisionNumber, file);
+      }
+      
+      return file;
+    }
+    
+    return doGetFileRevision(revisionNumber, auth);
+  }
+  
+  /**
+   * Returns patches that have been applied into the file after specified revision
+   * 
+   * @param revisionNumber revision number known by the client
+   * @param auth authentication used for this request
+   * @return patches applied after specified revision in revision order or an empty array when file is up to date 
+   * @throws ServerException ServerException is thrown when server returns does not return a successful result
+   * @throws IOException IOException is thrown when error occurs in server communication
+   * @throws UsageException UsageException is thrown when method is called incorrectly
+   */
+  public Patch[] getFileUpdates(Long revisionNumber, Auth auth) throws UsageException, ServerException, IOException {
+    if (revisionNumber == null) {
+      throw new UsageException("revisionNumber is required");
+    }
+    
+    Patch[] patches = doGet(Patch[].class, basePath + "/update?revisionNumber=" + revisionNumber, auth);
+    if (patches == null) {
+      return new Patch[0];
+    }
+    
+    return patches;
   }
   
   /**
@@ -114,6 +218,55 @@ public class CoOps {
     doPut(file, null, basePath, CONTENT_TYPE_JSON, auth);
   }
   
+  /**
+   * Saves a file streaming its content from a reader. 
+   * 
+   * When the IO handler supports streamed uploads the content is written into the request as it is read, 
+   * so memory use does not depend on the size of the content. Content of the given file is ignored.
+   * 
+   * @param file a file
+   * @param content reader for the file content. Reader is not closed
+   * @param auth authentication used for this request
+   * @throws ServerException ServerException is thrown when server returns does not return a successful result
+   * @throws IOException IOException is thrown when error occurs in server communication
+   * @throws UsageException UsageException is thrown when method is called incorrectly
+   */
+  public void saveFile(File file, final Reader content, Auth auth) throws UsageException, ServerException, IOException {
+    final File envelope = file.copy();
+    envelope.setContent(null);
+    
+    if (ioHandler instanceof StreamingUploadIOHandler) {
+      RequestBodyWriter body = new RequestBodyWriter() {
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+          writeFileJson(envelope, content, out);
+        }
+      };
+      
+      ((StreamingUploadIOHandler) ioHandler).doStreamingPutRequest(getURI(basePath), body, CONTENT_TYPE_JSON, auth);
+    } else {
+      envelope.setContent(IOUtils.toString(content));
+      saveFile(envelope, auth);
+    }
+  }
+  
+  /**
+   * Saves a file streaming its content from an UTF-8 encoded file. 
+   * 
+   * @param file a file
+   * @param content path of the file containing the content
+   * @param auth authentication used for this request
+   * @throws ServerException ServerException is thrown when server returns does not return a successful result
+   * @throws IOException IOException is thrown when error occurs in server communication
+   * @throws UsageException UsageException is thrown when method is called incorrectly
+   * @see #saveFile(File, Reader, Auth)
+   */
+  public void saveFile(File file, Path content, Auth auth) throws UsageException, ServerException, IOException {
+    try (Reader reader = Files.newBufferedReader(content, UTF8)) {
+      saveFile(file, reader, auth);
+    }
+  }
+  
   /**
    * Patches a file
    * 
@@ -135,6 +288,47 @@ public class CoOps {
     doPatch(patch, null, basePath, CONTENT_TYPE_JSON, auth);
   }
 
+  /**
+   * Returns whether concurrent identical {@link #getFile(Auth)} and {@link #getFileRevision(Long, Auth)} calls 
+   * share a single request
+   * 
+   * @return whether request coalescing is enabled
+   */
+  public boolean isRequestCoalescingEnabled() {
+    return requestCoalescingEnabled;
+  }
+  
+  /**
+   * Sets whether concurrent identical {@link #getFile(Auth)} and {@link #getFileRevision(Long, Auth)} calls 
+   * share a single request. 
+   * 
+   * Calls are identical when they request the same uri with the same authentication headers. Callers that 
+   * arrive while a request is in flight wait for it and receive a copy of its result or its failure.
+   * 
+   * @param requestCoalescingEnabled whether request coalescing is enabled
+   */
+  public void setRequestCoalescingEnabled(boolean requestCoalescingEnabled) {
+    this.requestCoalescingEnabled = requestCoalescingEnabled;
+  }
+  
+  /**
+   * Returns number of requests performed by coalescing calls
+   * 
+   * @return number of coalesced requests performed
+   */
+  public long getCoalescedRequestCount() {
+    return requestCoalescer.getRequestCount();
+  }
+  
+  /**
+   * Returns number of calls that were served with the result of another in-flight request
+   * 
+   * @return number of collapsed calls
+   */
+  public long getCollapsedRequestCount() {
+    return requestCoalescer.getCollapsedCount();
+  }
+  
   /**
    * Returns used IO handler
    * 
@@ -144,6 +338,16 @@ public class CoOps {
     return ioHandler;
   }
   
+  /**
+   * Returns URI of the file this client operates on
+   * 
+   * @return file URI
+   * @throws IOException IOException is thrown when URI could not be constructed
+   */
+  public URI getFileURI() throws IOException {
+    return getURI(basePath);
+  }
+  
   /**
    * Returns used Gson instance
    * 
@@ -153,12 +357,155 @@ public class CoOps {
     return gson;
   }
   
+  /**
+   * Returns revision cache consulted by {@link #getFileRevision(Long, Auth)}
+   * 
+   * @return revision cache or null if revisions are not cached
+   */
+  public RevisionCache getRevisionCache() {
+    return revisionCache;
+  }
+  
+  /**
+   * Sets revision cache consulted by {@link #getFileRevision(Long, Auth)}. Same cache may be shared between instances. 
+   * 
+   * Revisions are cached separately for each set of authentication headers, so a cached revision is only returned 
+   * to callers using the same authentication as the caller that fetched it.
+   * 
+   * @param revisionCache revision cache or null to disable caching
+   */
+  public void setRevisionCache(RevisionCache revisionCache) {
+    this.revisionCache = revisionCache;
+  }
+  
+  /**
+   * Returns whether {@link #getFile(Auth)} uses conditional requests when IO handler supports them
+   * 
+   * @return whether conditional requests are enabled
+   */
+  public boolean isConditionalGetEnabled() {
+    return conditionalGetEnabled;
+  }
+  
+  /**
+   * Sets whether {@link #getFile(Auth)} uses conditional requests when IO handler supports them. 
+   * 
+   * When enabled, last retrieved file is kept in memory and returned when server reports that file has not been modified. 
+   * Kept file is only returned to callers using the same authentication as the caller that retrieved it.
+   * 
+   * @param conditionalGetEnabled whether conditional requests are enabled
+   */
+  public void setConditionalGetEnabled(boolean conditionalGetEnabled) {
+    this.conditionalGetEnabled = conditionalGetEnabled;
+    if (!conditionalGetEnabled) {
+      lastFile = null;
+    }
+  }
+  
+  /**
+   * Releases IO handler created by this client. IO handlers passed in by the caller are left open.
+   */
+  @Override
+  public void close() throws IOException {
+    if (ownsIOHandler && (ioHandler instanceof Closeable)) {
+      ((Closeable) ioHandler).close();
+    }
+  }
+  
+  protected File doGetFile(Auth auth) throws ServerException, IOException {
+    if (conditionalGetEnabled && (ioHandler instanceof ConditionalIOHandler)) {
+      return doConditionalGetFile((ConditionalIOHandler) ioHandler, auth);
+    }
+    
+    return doGet(File.class, basePath, auth);
+  }
+  
+  protected File doGetFileRevision(Long revisionNumber, final Auth auth) throws ServerException, IOException, UsageException {
+    final String path = basePath + "?revisionNumber=" + revisionNumber;
+    if (requestCoalescingEnabled) {
+      return copyOf(requestCoalescer.execute(getURI(path).toString(), auth, new Callable<File>() {
+        @Override
+        public File call() throws Exception {
+          return doGet(File.class, path, auth);
+        }
+      }));
+    }
+    
+    return doGet(File.class, path, auth);
+  }
+  
+  protected File doConditionalGetFile(ConditionalIOHandler conditionalIOHandler, Auth auth) throws ServerException, IOException {
+    String scope = getAuthScopedUri(auth);
+    ValidatedFile previous = lastFile;
+    if ((previous != null) && !previous.scope.equals(scope)) {
+      // File retrieved by another user may contain user specific data, e.g. the role
+      previous = null;
+    }
+    
+    String eTag = null;
+    Date ifModifiedSince = null;
+    
+    if (previous != null) {
+      eTag = previous.eTag;
+      ifModifiedSince = previous.lastModified;
+    }
+    
+    ConditionalResponse response = conditionalIOHandler.doConditionalGetRequest(getURI(basePath), eTag, ifModifiedSince, auth);
+    try {
+      if (!response.isModified() && (previous != null)) {
+        return previous.file.copy();
+      }
+      
+      if (response.getContent() == null) {
+        return null;
+      }
+      
+      File file = objectFromJson(File.class, response.getContent());
+      if (file != null) {
+        Date lastModified = response.getLastModified();
+        if ((lastModified == null) && (file.getModified() != null)) {
+          lastModified = file.getModified().toDate();
+        }
+        
+        if ((response.getETag() != null) || (lastModified != null)) {
+          lastFile = new ValidatedFile(scope, file.copy(), response.getETag(), lastModified);
+        }
+      }
+      
+      return file;
+    } finally {
+      response.close();
+    }
+  }
+  
   protected <T> T doGet(Class<T> resultClass, String path, Auth auth) throws ServerException, IOException {
+    if (ioHandler instanceof StreamingIOHandler) {
+      Reader reader = ((StreamingIOHandler) ioHandler).doStreamingGetRequest(getURI(path), auth);
+      if (reader == null) {
+        return null;
+      }
+      
+      try {
+        return objectFromJson(resultClass, reader);
+      } finally {
+        reader.close();
+      }
+    }
+    
     String response = ioHandler.doGetRequest(getURI(path), auth);
     return objectFromJson(resultClass, response);
   }
   
   protected <T> T doPost(Object entity, Class<T> resultClass, String path, String contentType, Auth auth) throws ServerException, IOException {
+    if (ioHandler instanceof ByteIOHandler) {
+      try {
+        ByteBuffer response = ((ByteIOHandler) ioHandler).doBytePostRequest(getURI(path), objectToJsonBytes(entity), contentType, auth);
+        return resultClass != null ? objectFromJson(resultClass, response) : null;
+      } finally {
+        releaseJsonBuffer();
+      }
+    }
+    
     String response = ioHandler.doPostRequest(getURI(path), objectToJson(entity), contentType, auth);
     if (resultClass != null) {
       return objectFromJson(resultClass, response);
@@ -168,6 +515,15 @@ public class CoOps {
   }
 
   protected <T> T doPut(Object entity, Class<T> resultClass, String path, String contentType, Auth auth) throws ServerException, IOException {
+    if (ioHandler instanceof ByteIOHandler) {
+      try {
+        ByteBuffer response = ((ByteIOHandler) ioHandler).doBytePutRequest(getURI(path), objectToJsonBytes(entity), contentType, auth);
+        return resultClass != null ? objectFromJson(resultClass, response) : null;
+      } finally {
+        releaseJsonBuffer();
+      }
+    }
+    
     String response = ioHandler.doPutRequest(getURI(path), objectToJson(entity), contentType, auth);
     if (resultClass != null) {
       return objectFromJson(resultClass, response);
@@ -177,6 +533,15 @@ public class CoOps {
   }
 
   protected <T> T doPatch(Object entity, Class<T> resultClass, String path, String contentType, Auth auth) throws ServerException, IOException {
+    if (ioHandler instanceof ByteIOHandler) {
+      try {
+        ByteBuffer response = ((ByteIOHandler) ioHandler).doBytePatchRequest(getURI(path), objectToJsonBytes(entity), contentType, auth);
+        return resultClass != null ? objectFromJson(resultClass, response) : null;
+      } finally {
+        releaseJsonBuffer();
+      }
+    }
+    
     String response = ioHandler.doPatchRequest(getURI(path), objectToJson(entity), contentType, auth);
     if (resultClass != null) {
       return objectFromJson(resultClass, response);
@@ -189,10 +554,141 @@ public class CoOps {
     return gson.fromJson(json, resultClass);
   }
   
+  protected <T> T objectFromJson(Class<T> resultClass, Reader reader) throws IOException {
+    try {
+      return gson.fromJson(new JsonReader(reader), resultClass);
+    } catch (JsonParseException e) {
+      // Gson reports stream failures as parse exceptions, communication errors are unwrapped back into IOExceptions
+      Throwable cause = e.getCause();
+      if ((cause instanceof IOException) && !(cause instanceof MalformedJsonException) && !(cause instanceof EOFException)) {
+        throw (IOException) cause;
+      }
+      
+      throw e;
+    }
+  }
+  
+  protected <T> T objectFromJson(Class<T> resultClass, ByteBuffer json) throws IOException {
+    if (json == null) {
+      return null;
+    }
+    
+    ByteArrayInputStream inputStream;
+    if (json.hasArray()) {
+      inputStream = new ByteArrayInputStream(json.array(), json.arrayOffset() + json.position(), json.remaining());
+    } else {
+      byte[] bytes = new byte[json.remaining()];
+      json.duplicate().get(bytes);
+      inputStream = new ByteArrayInputStream(bytes);
+    }
+    
+    return objectFromJson(resultClass, new InputStreamReader(inputStream, UTF8));
+  }
+  
   protected String objectToJson(Object object) {
     return gson.toJson(object);
   }
+  
+  /**
+   * Serializes object as UTF-8 encoded JSON into a buffer reused by the calling thread. 
+   * 
+   * Returned buffer is valid until the next call from the same thread or until {@link #releaseJsonBuffer()} is called.
+   * 
+   * @param object object to be serialized
+   * @return buffer containing serialized object
+   * @throws IOException when serialization fails
+   */
+  protected ByteBuffer objectToJsonBytes(Object object) throws IOException {
+    JsonBuffer buffer = JSON_BUFFER.get();
+    buffer.reset();
+    
+    Writer writer = new OutputStreamWriter(buffer, UTF8);
+    try {
+      gson.toJson(object, writer);
+    } catch (JsonIOException e) {
+      throw new IOException(e);
+    }
+    writer.flush();
+    
+    return buffer.toByteBuffer();
+  }
+  
+  /**
+   * Drops the buffer of the calling thread when it has grown past the retained size, so that a single 
+   * large request does not pin memory for the lifetime of the thread.
+   */
+  protected void releaseJsonBuffer() {
+    if (JSON_BUFFER.get().capacity() > MAX_RETAINED_JSON_BUFFER) {
+      JSON_BUFFER.remove();
+    }
+  }
+
+  /**
+   * Writes a file as JSON with content read from a reader. 
+   * 
+   * Content is written as the first member so that it can be escaped straight into the stream. 
+   * Rest of the members are serialized with Gson after it.
+   */
+  private void writeFileJson(File envelope, Reader content, OutputStream out) throws IOException {
+    JsonObject members = gson.toJsonTree(envelope).getAsJsonObject();
+    members.remove("content");
+    
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF8), STREAM_BUFFER);
+    writer.write("{\"content\":\"");
+    
+    Writer contentWriter = new JsonStringWriter(writer);
+    char[] buffer = new char[STREAM_BUFFER];
+    int read;
+    while ((read = content.read(buffer)) != -1) {
+      contentWriter.write(buffer, 0, read);
+    }
+    
+    writer.write('"');
+    for (Map.Entry<String, JsonElement> member : members.entrySet()) {
+      writer.write(',');
+      writer.write(gson.toJson(member.getKey()));
+      writer.write(':');
+      gson.toJson(member.getValue(), writer);
+    }
+    
+    writer.write('}');
+    writer.flush();
+  }
 
+  /**
+   * Returns uri under which content fetched with given authentication is cached, i.e. cached revisions and the 
+   * file kept for conditional requests. 
+   * 
+   * Authentication headers are included as a digest so that credentials are not kept in cache keys.
+   */
+  private String getAuthScopedUri(Auth auth) throws IOException {
+    String fileUri = getURI(basePath).toString();
+    
+    Map<String, String> headers = auth != null ? auth.getHeaders() : null;
+    if ((headers == null) || headers.isEmpty()) {
+      return fileUri;
+    }
+    
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] hash = digest.digest(new TreeMap<>(headers).toString().getBytes(UTF8));
+      
+      StringBuilder result = new StringBuilder(fileUri).append("#auth=");
+      for (byte b : hash) {
+        result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      
+      return result.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+  
+  private File copyOf(File file) {
+    // Coalesced results are shared between callers
+    return file != null ? file.copy() : null;
+  }
+  
   protected URI getURI(String path) throws IOException {
     try {
       return new URL(protocol, host, port, path).toURI();
@@ -201,16 +697,68 @@ public class CoOps {
     }
   }
   
-  private static Gson createGson() {
+  static Gson createGson() {
     return new GsonBuilder()
-      .registerTypeAdapter(DateTime.class, new JodaDateTimeTypeConverter())
+      .registerTypeAdapterFactory(new ModelTypeAdapterFactory())
       .create();
   }
   
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  
+  private static final int STREAM_BUFFER = 8 * 1024;
+  
+  private static final int INITIAL_JSON_BUFFER = 8 * 1024;
+  
+  private static final int MAX_RETAINED_JSON_BUFFER = 1024 * 1024;
+  
+  private static final ThreadLocal<JsonBuffer> JSON_BUFFER = new ThreadLocal<JsonBuffer>() {
+    @Override
+    protected JsonBuffer initialValue() {
+      return new JsonBuffer(INITIAL_JSON_BUFFER);
+    }
+  };
+  
   private String protocol;
   private String host;
   private int port;
   private String basePath;
   private Gson gson;
   private IOHandler ioHandler;
+  private boolean ownsIOHandler;
+  private RevisionCache revisionCache;
+  private boolean conditionalGetEnabled = true;
+  private volatile ValidatedFile lastFile;
+  private volatile boolean requestCoalescingEnabled;
+  private final RequestCoalescer requestCoalescer = new RequestCoalescer();
+  
+  private static class JsonBuffer extends ByteArrayOutputStream {
+    
+    public JsonBuffer(int size) {
+      super(size);
+    }
+    
+    public int capacity() {
+      return buf.length;
+    }
+    
+    public ByteBuffer toByteBuffer() {
+      // Wraps the internal array without copying
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+  
+  private static class ValidatedFile {
+    
+    public ValidatedFile(String scope, File file, String eTag, Date lastModified) {
+      this.scope = scope;
+      this.file = file;
+      this.eTag = eTag;
+      this.lastModified = lastModified;
+    }
+    
+    private String scope;
+    private File file;
+    private String eTag;
+    private Date lastModified;
+  }
 }
\ No newline at end of file
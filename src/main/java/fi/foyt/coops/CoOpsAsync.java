@@ -0,0 +1,226 @@
+package fi.foyt.coops;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import fi.foyt.coops.model.File;
+import fi.foyt.coops.model.FileJoin;
+import fi.foyt.coops.model.Patch;
+
+/**
+ * Asynchronous counterpart of {@link CoOps}. 
+ * 
+ * Calls are executed by the given executor and their results are delivered through returned futures 
+ * and optional callbacks. When call fails, the future throws an ExecutionException that has the exception 
+ * thrown by the synchronous call (e.g. UnauthorizedException, ForbiddenException or ServerException) as its cause. 
+ * 
+ * Futures complete with the outcome of the call only. Exceptions thrown by callbacks do not fail the future, they are 
+ * reported to the uncaught exception handler of the executing thread.
+ */
+public class CoOpsAsync {
+  
+  public CoOpsAsync(CoOps coOps, ExecutorService executor) {
+    this.coOps = coOps;
+    this.executor = executor;
+  }
+
+  /**
+   * Joins collaboration session asynchronously
+   * 
+   * @param algorithms algorithms supported by client in preference order
+   * @param auth authentication used for this request
+   * @return future for the file join result
+   */
+  public Future<FileJoin> joinFile(String[] algorithms, Auth auth) {
+    return joinFile(algorithms, auth, null);
+  }
+  
+  /**
+   * Joins collaboration session asynchronously
+   * 
+   * @param algorithms algorithms supported by client in preference order
+   * @param auth authentication used for this request
+   * @param callback callback notified when call completes or null
+   * @return future for the file join result
+   */
+  public Future<FileJoin> joinFile(final String[] algorithms, final Auth auth, CoOpsCallback<FileJoin> callback) {
+    return submit(new Callable<FileJoin>() {
+      @Override
+      public FileJoin call() throws Exception {
+        return coOps.joinFile(algorithms, auth);
+      }
+    }, callback);
+  }
+
+  /**
+   * Returns a file asynchronously
+   * 
+   * @param auth authentication used for this request
+   * @return future for the file
+   */
+  public Future<File> getFile(Auth auth) {
+    return getFile(auth, null);
+  }
+  
+  /**
+   * Returns a file asynchronously
+   * 
+   * @param auth authentication used for this request
+   * @param callback callback notified when call completes or null
+   * @return future for the file
+   */
+  public Future<File> getFile(final Auth auth, CoOpsCallback<File> callback) {
+    return submit(new Callable<File>() {
+      @Override
+      public File call() throws Exception {
+        return coOps.getFile(auth);
+      }
+    }, callback);
+  }
+
+  /**
+   * Returns specific version of a file asynchronously
+   * 
+   * @param revisionNumber revision number that will be returned
+   * @param auth authentication used for this request
+   * @return future for the file as it was in specified version
+   */
+  public Future<File> getFileRevision(Long revisionNumber, Auth auth) {
+    return getFileRevision(revisionNumber, auth, null);
+  }
+  
+  /**
+   * Returns specific version of a file asynchronously
+   * 
+   * @param revisionNumber revision number that will be returned
+   * @param auth authentication used for this request
+   * @param callback callback notified when call completes or null
+   * @return future for the file as it was in specified version
+   */
+  public Future<File> getFileRevision(final Long revisionNumber, final Auth auth, CoOpsCallback<File> callback) {
+    return submit(new Callable<File>() {
+      @Override
+      public File call() throws Exception {
+        return coOps.getFileRevision(revisionNumber, auth);
+      }
+    }, callback);
+  }
+
+  /**
+   * Saves a file asynchronously
+   * 
+   * @param file a file
+   * @param auth authentication used for this request
+   * @return future that completes when file has been saved
+   */
+  public Future<Void> saveFile(File file, Auth auth) {
+    return saveFile(file, auth, null);
+  }
+  
+  /**
+   * Saves a file asynchronously
+   * 
+   * @param file a file
+   * @param auth authentication used for this request
+   * @param callback callback notified when call completes or null
+   * @return future that completes when file has been saved
+   */
+  public Future<Void> saveFile(final File file, final Auth auth, CoOpsCallback<Void> callback) {
+    return submit(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        coOps.saveFile(file, auth);
+        return null;
+      }
+    }, callback);
+  }
+
+  /**
+   * Patches a file asynchronously
+   * 
+   * @param patch patch
+   * @param auth authentication used for this request
+   * @return future that completes when patch has been sent
+   */
+  public Future<Void> patchFile(Patch patch, Auth auth) {
+    return patchFile(patch, auth, null);
+  }
+  
+  /**
+   * Patches a file asynchronously
+   * 
+   * @param patch patch
+   * @param auth authentication used for this request
+   * @param callback callback notified when call completes or null
+   * @return future that completes when patch has been sent
+   */
+  public Future<Void> patchFile(final Patch patch, final Auth auth, CoOpsCallback<Void> callback) {
+    return submit(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        coOps.patchFile(patch, auth);
+        return null;
+      }
+    }, callback);
+  }
+  
+  /**
+   * Returns synchronous client used by this instance
+   * 
+   * @return synchronous client
+   */
+  public CoOps getCoOps() {
+    return coOps;
+  }
+  
+  /**
+   * Returns executor used by this instance
+   * 
+   * @return executor
+   */
+  public ExecutorService getExecutor() {
+    return executor;
+  }
+  
+  private <T> Future<T> submit(final Callable<T> call, final CoOpsCallback<T> callback) {
+    return executor.submit(new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        T result;
+        try {
+          result = call.call();
+        } catch (Exception e) {
+          if (callback != null) {
+            try {
+              callback.onFailure(e);
+            } catch (RuntimeException callbackException) {
+              reportCallbackException(callbackException);
+            }
+          }
+          
+          throw e;
+        }
+        
+        if (callback != null) {
+          try {
+            callback.onSuccess(result);
+          } catch (RuntimeException callbackException) {
+            // Call itself succeeded, failing the future would make callers retry e.g. an already applied patch
+            reportCallbackException(callbackException);
+          }
+        }
+        
+        return result;
+      }
+    });
+  }
+  
+  private void reportCallbackException(RuntimeException exception) {
+    Thread thread = Thread.currentThread();
+    thread.getUncaughtExceptionHandler().uncaughtException(thread, exception);
+  }
+  
+  private CoOps coOps;
+  private ExecutorService executor;
+}
@@ -0,0 +1,335 @@
+package fi.foyt.coops;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import fi.foyt.coops.model.File;
+
+/**
+ * Bulk operations that fetch many files or a revision range of a file concurrently. 
+ * 
+ * At most the configured number of requests of a single bulk operation are in progress at a time, regardless of the 
+ * size of the executor. 
+ * 
+ * Cancelling an asynchronous operation, or interrupting a synchronous one, stops it from starting new requests. 
+ * Requests already in progress are not interrupted, they run to completion and their results are discarded.
+ */
+public class CoOpsBulk {
+  
+  public static final int DEFAULT_MAX_PARALLELISM = 8;
+  
+  public CoOpsBulk(ExecutorService executor) {
+    this(executor, DEFAULT_MAX_PARALLELISM);
+  }
+  
+  /**
+   * Creates bulk operations
+   * 
+   * @param executor executor that executes the requests
+   * @param maxParallelism maximum number of concurrent requests per bulk operation
+   */
+  public CoOpsBulk(ExecutorService executor, int maxParallelism) {
+    this.executor = executor;
+    this.maxParallelism = maxParallelism;
+  }
+  
+  /**
+   * Returns current versions of many files. 
+   * 
+   * @param files clients of the files
+   * @param auth authentication used for the requests
+   * @return files in the same order as the clients
+   * @throws ServerException ServerException is thrown when server does not return a successful result for any of the files
+   * @throws IOException IOException is thrown when error occurs in server communication
+   * @throws UsageException UsageException is thrown when method is called incorrectly
+   */
+  public List<File> getFiles(List<CoOps> files, Auth auth) throws UsageException, ServerException, IOException {
+    return fetchAll(createGetFileCalls(files, auth));
+  }
+  
+  /**
+   * Returns current versions of many files asynchronously. Callback is notified of each file as it arrives.
+   * 
+   * @param files clients of the files
+   * @param auth authentication used for the requests
+   * @param callback callback notified of each file and each failure
+   * @return future that completes when all files have been fetched. Future fails with the first failure if any of the files could not be fetched
+   */
+  public Future<Void> getFiles(List<CoOps> files, Auth auth, CoOpsCallback<File> callback) {
+    return start(createGetFileCalls(files, auth), callback, false);
+  }
+  
+  /**
+   * Returns a range of revisions of a file
+   * 
+   * @param coOps client of the file
+   * @param fromRevision first revision (inclusive)
+   * @param toRevision last revision (inclusive)
+   * @param auth authentication used for the requests
+   * @return revisions in revision order
+   * @throws ServerException ServerException is thrown when server does not return a successful result for any of the revisions
+   * @throws IOException IOException is thrown when error occurs in server communication
+   * @throws UsageException UsageException is thrown when method is called incorrectly
+   */
+  public List<File> getFileRevisions(CoOps coOps, long fromRevision, long toRevision, Auth auth) throws UsageException, ServerException, IOException {
+    return fetchAll(createGetFileRevisionCalls(coOps, fromRevision, toRevision, auth));
+  }
+  
+  /**
+   * Returns a range of revisions of a file asynchronously. Callback is notified of each revision as it arrives.
+   * 
+   * @param coOps client of the file
+   * @param fromRevision first revision (inclusive)
+   * @param toRevision last revision (inclusive)
+   * @param auth authentication used for the requests
+   * @param callback callback notified of each revision and each failure
+   * @return future that completes when all revisions have been fetched. Future fails with the first failure if any of the revisions could not be fetched
+   */
+  public Future<Void> getFileRevisions(CoOps coOps, long fromRevision, long toRevision, Auth auth, CoOpsCallback<File> callback) {
+    return start(createGetFileRevisionCalls(coOps, fromRevision, toRevision, auth), callback, false);
+  }
+  
+  /**
+   * Returns an iterator over a range of revisions of a file. Iterator keeps fetching revisions ahead of the 
+   * revision being read, so scrolling through the history waits for the network only when reading faster than 
+   * the revisions arrive.
+   * 
+   * @param coOps client of the file
+   * @param fromRevision first revision (inclusive)
+   * @param toRevision last revision (inclusive)
+   * @param auth authentication used for the requests
+   * @param readAhead number of revisions fetched ahead
+   * @return revision iterator
+   */
+  public RevisionIterator iterateFileRevisions(CoOps coOps, long fromRevision, long toRevision, Auth auth, int readAhead) {
+    return new RevisionIterator(executor, coOps, fromRevision, toRevision, auth, readAhead);
+  }
+  
+  public ExecutorService getExecutor() {
+    return executor;
+  }
+  
+  public int getMaxParallelism() {
+    return maxParallelism;
+  }
+  
+  static void rethrow(Throwable e) throws UsageException, ServerException, IOException {
+    if (e instanceof UsageException) {
+      throw (UsageException) e;
+    }
+    
+    if (e instanceof ServerException) {
+      throw (ServerException) e;
+    }
+    
+    if (e instanceof IOException) {
+      throw (IOException) e;
+    }
+    
+    if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    }
+    
+    if (e instanceof Error) {
+      throw (Error) e;
+    }
+    
+    throw new IOException(e);
+  }
+  
+  private List<Callable<File>> createGetFileCalls(List<CoOps> files, final Auth auth) {
+    List<Callable<File>> result = new ArrayList<>(files.size());
+    for (final CoOps coOps : files) {
+      result.add(new Callable<File>() {
+        @Override
+        public File call() throws Exception {
+          return coOps.getFile(auth);
+        }
+      });
+    }
+    
+    return result;
+  }
+  
+  private List<Callable<File>> createGetFileRevisionCalls(final CoOps coOps, long fromRevision, long toRevision, final Auth auth) {
+    List<Callable<File>> result = new ArrayList<>();
+    for (long revision = fromRevision; revision <= toRevision; revision++) {
+      final Long revisionNumber = revision;
+      result.add(new Callable<File>() {
+        @Override
+        public File call() throws Exception {
+          return coOps.getFileRevision(revisionNumber, auth);
+        }
+      });
+    }
+    
+    return result;
+  }
+  
+  private <T> List<T> fetchAll(List<Callable<T>> calls) throws UsageException, ServerException, IOException {
+    BulkFetch<T> fetch = start(calls, null, true);
+    try {
+      fetch.await();
+    } catch (InterruptedException e) {
+      fetch.cancel(false);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for bulk fetch");
+    }
+    
+    if (fetch.failure != null) {
+      rethrow(fetch.failure);
+    }
+    
+    List<T> result = new ArrayList<>(calls.size());
+    for (int i = 0, l = fetch.results.length(); i < l; i++) {
+      result.add(fetch.results.get(i));
+    }
+    
+    return result;
+  }
+  
+  private <T> BulkFetch<T> start(List<Callable<T>> calls, CoOpsCallback<T> callback, boolean failFast) {
+    int workers = Math.max(0, Math.min(maxParallelism, calls.size()));
+    BulkFetch<T> fetch = new BulkFetch<>(calls, callback, failFast, workers);
+    for (int i = 0; i < workers; i++) {
+      executor.execute(fetch.new Worker());
+    }
+    
+    return fetch;
+  }
+  
+  private ExecutorService executor;
+  private int maxParallelism;
+  
+  /**
+   * Bulk fetch in progress. Fixed number of workers pick calls in order until all calls have been made. 
+   * 
+   * Cancelling stops workers from picking new calls, calls already in progress are not interrupted.
+   */
+  private static class BulkFetch<T> implements Future<Void> {
+    
+    public BulkFetch(List<Callable<T>> calls, CoOpsCallback<T> callback, boolean failFast, int workers) {
+      this.calls = calls;
+      this.callback = callback;
+      this.failFast = failFast;
+      this.results = new AtomicReferenceArray<>(calls.size());
+      this.done = new CountDownLatch(workers);
+    }
+    
+    public void await() throws InterruptedException {
+      done.await();
+    }
+
+    @Override
+    public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+      if (isDone()) {
+        return false;
+      }
+      
+      cancelled = true;
+      return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+      return cancelled || (done.getCount() == 0);
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+      if (!cancelled) {
+        done.await();
+      }
+      
+      return getResult();
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+      if (!cancelled && !done.await(timeout, unit)) {
+        throw new TimeoutException();
+      }
+      
+      return getResult();
+    }
+    
+    private Void getResult() throws ExecutionException {
+      if (cancelled) {
+        throw new CancellationException();
+      }
+      
+      if (failure != null) {
+        throw new ExecutionException(failure);
+      }
+      
+      return null;
+    }
+    
+    private synchronized void fail(Exception e) {
+      if (failure == null) {
+        failure = e;
+      }
+    }
+    
+    private List<Callable<T>> calls;
+    private CoOpsCallback<T> callback;
+    private boolean failFast;
+    private AtomicReferenceArray<T> results;
+    private AtomicInteger next = new AtomicInteger();
+    private CountDownLatch done;
+    private volatile boolean cancelled;
+    private volatile Exception failure;
+    
+    private class Worker implements Runnable {
+      
+      @Override
+      public void run() {
+        try {
+          while (!cancelled && !(failFast && failure != null)) {
+            int index = next.getAndIncrement();
+            if (index >= calls.size()) {
+              break;
+            }
+            
+            T result;
+            try {
+              result = calls.get(index).call();
+            } catch (Exception e) {
+              fail(e);
+              if (callback != null) {
+                callback.onFailure(e);
+              }
+              
+              continue;
+            }
+            
+            results.set(index, result);
+            if (callback != null) {
+              callback.onSuccess(result);
+            }
+          }
+        } finally {
+          done.countDown();
+        }
+      }
+      
+    }
+  }
+}
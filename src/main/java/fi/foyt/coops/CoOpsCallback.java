@@ -0,0 +1,25 @@
+package fi.foyt.coops;
+
+/**
+ * Callback for receiving results of asynchronous Co-Ops calls
+ *
+ * @param <T> result type
+ */
+public interface CoOpsCallback<T> {
+
+  /**
+   * Called when call has completed successfully
+   * 
+   * @param result call result
+   */
+  public void onSuccess(T result);
+  
+  /**
+   * Called when call has failed. Exception is the same that the synchronous call would have thrown 
+   * (e.g. UnauthorizedException, ForbiddenException, ServerException, UsageException or IOException)
+   * 
+   * @param exception exception
+   */
+  public void onFailure(Exception exception);
+  
+}
@@ -0,0 +1,264 @@
+package fi.foyt.coops;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gson.Gson;
+
+import fi.foyt.coops.cache.LruRevisionCache;
+import fi.foyt.coops.cache.RevisionCache;
+import fi.foyt.coops.io.ConcurrencyLimitingIOHandler;
+import fi.foyt.coops.io.DefaultIOHandler;
+import fi.foyt.coops.io.IOHandler;
+
+/**
+ * Manager for clients of multiple files. 
+ * 
+ * Manager hands out lightweight per-file {@link CoOps} handles that share one IO handler (and thereby one connection pool), 
+ * one Gson instance, one executor and one revision cache. Requests made through the handles are limited per host. 
+ * Revisions are cached per authentication, so sharing the cache does not share content between users. Handles do not 
+ * use conditional requests, so they do not keep a copy of the last retrieved file. 
+ * 
+ * Handles that have not been requested from the manager within the idle timeout are evicted. Evicted handles remain 
+ * usable, the manager just stops holding on to them and hands out a new handle on the next request.
+ */
+public class CoOpsClientManager implements Closeable {
+  
+  public static final int DEFAULT_MAX_CONCURRENT_REQUESTS_PER_HOST = DefaultIOHandler.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+  
+  public static final long DEFAULT_IDLE_TIMEOUT = 600000l;
+  
+  public static final int DEFAULT_EXECUTOR_THREADS = 16;
+  
+  private static final long EXECUTOR_KEEP_ALIVE = 60000l;
+  
+  /**
+   * Creates client manager with a default IO handler and an executor of {@link #DEFAULT_EXECUTOR_THREADS} threads. 
+   * 
+   * IO handler and executor are closed when the manager is closed.
+   */
+  public CoOpsClientManager() {
+    this(new DefaultIOHandler(), createDefaultExecutor(), DEFAULT_MAX_CONCURRENT_REQUESTS_PER_HOST, DEFAULT_IDLE_TIMEOUT);
+    this.ownsIOHandler = true;
+    this.ownsExecutor = true;
+  }
+
+  /**
+   * Creates client manager
+   * 
+   * @param ioHandler IO handler shared by all handles
+   * @param executor executor shared by asynchronous handles
+   * @param maxConcurrentRequestsPerHost maximum number of concurrent requests per host
+   * @param idleTimeout time in milliseconds after which handles that have not been requested are evicted
+   */
+  public CoOpsClientManager(IOHandler ioHandler, ExecutorService executor, int maxConcurrentRequestsPerHost, long idleTimeout) {
+    this.ioHandler = new ConcurrencyLimitingIOHandler(ioHandler, maxConcurrentRequestsPerHost);
+    this.executor = executor;
+    this.idleTimeout = idleTimeout;
+    this.gson = CoOps.createGson();
+    this.revisionCache = new LruRevisionCache();
+    
+    long evictionInterval = Math.max(1, idleTimeout / 2);
+    this.evictionScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "coops-client-evictor");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    
+    this.evictionScheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        evictIdleClients();
+      }
+    }, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+  }
+  
+  /**
+   * Returns a handle for a file
+   * 
+   * @param protocol protocol (http or https)
+   * @param host server host
+   * @param port server port
+   * @param basePath base path of the file
+   * @return handle for the file
+   */
+  public CoOps getClient(String protocol, String host, int port, String basePath) {
+    return getManagedClient(protocol, host, port, basePath).coOps;
+  }
+  
+  /**
+   * Returns an asynchronous handle for a file. Handle executes its calls with the shared executor.
+   * 
+   * @param protocol protocol (http or https)
+   * @param host server host
+   * @param port server port
+   * @param basePath base path of the file
+   * @return asynchronous handle for the file
+   */
+  public CoOpsAsync getAsyncClient(String protocol, String host, int port, String basePath) {
+    return getManagedClient(protocol, host, port, basePath).coOpsAsync;
+  }
+  
+  /**
+   * Evicts handles that have not been requested within the idle timeout
+   * 
+   * @return number of evicted handles
+   */
+  public int evictIdleClients() {
+    long evictBefore = System.currentTimeMillis() - idleTimeout;
+    int evicted = 0;
+    
+    Iterator<Map.Entry<String, ManagedClient>> iterator = clients.entrySet().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().getValue().lastAccess < evictBefore) {
+        iterator.remove();
+        evicted++;
+      }
+    }
+    
+    return evicted;
+  }
+  
+  /**
+   * Returns number of handles held by the manager
+   * 
+   * @return number of handles
+   */
+  public int getClientCount() {
+    return clients.size();
+  }
+  
+  /**
+   * Returns IO handler shared by the handles
+   * 
+   * @return shared IO handler
+   */
+  public IOHandler getIoHandler() {
+    return ioHandler;
+  }
+  
+  /**
+   * Returns Gson instance shared by the handles
+   * 
+   * @return shared Gson instance
+   */
+  public Gson getGson() {
+    return gson;
+  }
+  
+  /**
+   * Returns executor shared by the asynchronous handles
+   * 
+   * @return shared executor
+   */
+  public ExecutorService getExecutor() {
+    return executor;
+  }
+  
+  /**
+   * Returns revision cache shared by the handles
+   * 
+   * @return shared revision cache
+   */
+  public RevisionCache getRevisionCache() {
+    return revisionCache;
+  }
+  
+  /**
+   * Stops idle handle eviction and releases all handles. 
+   * 
+   * Shared IO handler and executor are closed only when they were created by the manager.
+   */
+  @Override
+  public void close() throws IOException {
+    evictionScheduler.shutdownNow();
+    clients.clear();
+    
+    if (ownsExecutor) {
+      executor.shutdown();
+    }
+    
+    if (ownsIOHandler) {
+      ioHandler.close();
+    }
+  }
+  
+  private static ExecutorService createDefaultExecutor() {
+    // Thread count is bounded, excess calls queue up instead of spawning a thread per call
+    ThreadPoolExecutor result = new ThreadPoolExecutor(DEFAULT_EXECUTOR_THREADS, DEFAULT_EXECUTOR_THREADS, 
+        EXECUTOR_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      
+      private final AtomicInteger threadNumber = new AtomicInteger();
+      
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "coops-client-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    
+    result.allowCoreThreadTimeOut(true);
+    return result;
+  }
+  
+  private ManagedClient getManagedClient(String protocol, String host, int port, String basePath) {
+    String key = protocol + "://" + host + ":" + port + basePath;
+    
+    ManagedClient client = clients.get(key);
+    if (client == null) {
+      CoOps coOps = new CoOps(ioHandler, gson, protocol, host, port, basePath);
+      coOps.setRevisionCache(revisionCache);
+      // Handles are shared between users and kept lightweight, so they do not hold on to a copy of the file
+      coOps.setConditionalGetEnabled(false);
+      
+      ManagedClient created = new ManagedClient(coOps, new CoOpsAsync(coOps, executor));
+      client = clients.putIfAbsent(key, created);
+      if (client == null) {
+        client = created;
+      }
+    }
+    
+    client.lastAccess = System.currentTimeMillis();
+    
+    return client;
+  }
+  
+  private ConcurrencyLimitingIOHandler ioHandler;
+  private ExecutorService executor;
+  private boolean ownsIOHandler;
+  private boolean ownsExecutor;
+  private long idleTimeout;
+  private Gson gson;
+  private RevisionCache revisionCache;
+  private ScheduledExecutorService evictionScheduler;
+  private ConcurrentMap<String, ManagedClient> clients = new ConcurrentHashMap<>();
+  
+  private static class ManagedClient {
+    
+    public ManagedClient(CoOps coOps, CoOpsAsync coOpsAsync) {
+      this.coOps = coOps;
+      this.coOpsAsync = coOpsAsync;
+      this.lastAccess = System.currentTimeMillis();
+    }
+    
+    private CoOps coOps;
+    private CoOpsAsync coOpsAsync;
+    private volatile long lastAccess;
+  }
+}
@@ -0,0 +1,11 @@
+package fi.foyt.coops;
+
+public class ConflictException extends ServerException {
+
+  private static final long serialVersionUID = 2915340925170390482L;
+
+  public ConflictException(String message) {
+    super(message);
+  }
+
+}
@@ -1,7 +1,6 @@
 package fi.foyt.coops;
 
 import java.lang.reflect.Type;
-import java.util.Date;
 
 import org.joda.time.DateTime;
 
@@ -12,22 +11,26 @@ import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
+import com.google.gson.JsonSyntaxException;
+
+import fi.foyt.coops.json.DateTimeCodec;
 
 public class JodaDateTimeTypeConverter implements JsonSerializer<DateTime>, JsonDeserializer<DateTime> {
 
   @Override
   public JsonElement serialize(DateTime src, Type typeOfSrc, JsonSerializationContext context) {
-    return new JsonPrimitive(src.toString());
+    return new JsonPrimitive(DateTimeCodec.format(src));
   }
 
   @Override
   public DateTime deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-    try {
-      return new DateTime(json.getAsString());
-    } catch (IllegalArgumentException e) {
-      Date date = context.deserialize(json, Date.class);
-      return new DateTime(date);
+    String value = json.getAsString();
+    DateTime result = DateTimeCodec.parse(value);
+    if (result == null) {
+      throw new JsonSyntaxException("Unparseable date: \"" + value + "\"");
     }
+    
+    return result;
   }
   
-}
\ No newline at end of file
+}
@@ -0,0 +1,11 @@
+package fi.foyt.coops;
+
+public class PatchException extends CoOpsException {
+
+  private static final long serialVersionUID = -2740562519813493316L;
+
+  public PatchException(String message) {
+    super(message);
+  }
+
+}
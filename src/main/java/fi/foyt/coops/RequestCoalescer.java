@@ -0,0 +1,161 @@
+package fi.foyt.coops;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent identical requests so that only one of them is performed and its result is shared 
+ * with the callers that arrived while it was in flight. 
+ * 
+ * Requests are identical when they have the same uri and authentication headers. Results are shared as such, 
+ * so callers must not hand mutable results out without copying them. Failures are shared too, except when the 
+ * request failed because the calling thread was interrupted. Other callers then make the request again.
+ */
+class RequestCoalescer {
+  
+  public RequestCoalescer() {
+    this.flights = new ConcurrentHashMap<>();
+    this.requestCount = new AtomicLong();
+    this.collapsedCount = new AtomicLong();
+  }
+  
+  public <T> T execute(String uri, Auth auth, Callable<T> call) throws UsageException, ServerException, IOException {
+    Key key = new Key(uri, auth);
+    
+    Flight flight = new Flight();
+    while (true) {
+      Flight existing = flights.putIfAbsent(key, flight);
+      if (existing == null) {
+        break;
+      }
+      
+      collapsedCount.incrementAndGet();
+      existing.await();
+      if (!existing.isInterrupted()) {
+        return existing.get();
+      }
+      
+      // Leader was interrupted, which says nothing about this caller's request, so it is made again
+      collapsedCount.decrementAndGet();
+    }
+    
+    requestCount.incrementAndGet();
+    try {
+      flight.result = call.call();
+    } catch (Throwable e) {
+      flight.failure = e;
+      flight.interrupted = Thread.currentThread().isInterrupted() || isInterruption(e);
+    } finally {
+      // Callers arriving after this start a new request
+      flights.remove(key, flight);
+      flight.latch.countDown();
+    }
+    
+    return flight.get();
+  }
+  
+  /**
+   * Returns number of requests that were performed
+   * 
+   * @return number of requests that were performed
+   */
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+  
+  /**
+   * Returns number of calls that were served with the result of another in-flight request
+   * 
+   * @return number of collapsed calls
+   */
+  public long getCollapsedCount() {
+    return collapsedCount.get();
+  }
+  
+  private static boolean isInterruption(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if ((cause instanceof InterruptedException) || (cause instanceof CancellationException) || (cause instanceof ClosedByInterruptException)) {
+        return true;
+      }
+      
+      if ((cause instanceof InterruptedIOException) && !(cause instanceof SocketTimeoutException)) {
+        return true;
+      }
+    }
+    
+    return false;
+  }
+  
+  private ConcurrentMap<Key, Flight> flights;
+  private AtomicLong requestCount;
+  private AtomicLong collapsedCount;
+  
+  private static class Flight {
+    
+    public void await() throws InterruptedIOException {
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for a coalesced request");
+      }
+    }
+    
+    public boolean isInterrupted() {
+      return interrupted;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public <T> T get() throws UsageException, ServerException, IOException {
+      if (failure != null) {
+        CoOpsBulk.rethrow(failure);
+      }
+      
+      return (T) result;
+    }
+    
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private volatile Object result;
+    private volatile Throwable failure;
+    private volatile boolean interrupted;
+  }
+  
+  private static class Key {
+    
+    public Key(String uri, Auth auth) {
+      this.uri = uri;
+      
+      Map<String, String> headers = auth != null ? auth.getHeaders() : null;
+      this.headers = headers != null ? new HashMap<>(headers) : Collections.<String, String>emptyMap();
+    }
+    
+    @Override
+    public int hashCode() {
+      return 31 * uri.hashCode() + headers.hashCode();
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      
+      Key other = (Key) obj;
+      return uri.equals(other.uri) && headers.equals(other.headers);
+    }
+    
+    private String uri;
+    private Map<String, String> headers;
+  }
+}
@@ -0,0 +1,107 @@
+package fi.foyt.coops;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import fi.foyt.coops.model.File;
+
+/**
+ * Iterator over a range of file revisions that keeps a window of revisions being fetched ahead of the reader. 
+ * 
+ * Iterator should be closed when it is abandoned before the end of the range, so that pending fetches are cancelled. 
+ * 
+ * @see CoOpsBulk#iterateFileRevisions(CoOps, long, long, Auth, int)
+ */
+public class RevisionIterator implements Closeable {
+  
+  RevisionIterator(ExecutorService executor, CoOps coOps, long fromRevision, long toRevision, Auth auth, int readAhead) {
+    this.executor = executor;
+    this.coOps = coOps;
+    this.nextRevision = fromRevision;
+    this.nextFetchRevision = fromRevision;
+    this.toRevision = toRevision;
+    this.auth = auth;
+    this.readAhead = Math.max(1, readAhead);
+    fill();
+  }
+  
+  /**
+   * Returns whether there are revisions left
+   * 
+   * @return whether there are revisions left
+   */
+  public boolean hasNext() {
+    return nextRevision <= toRevision;
+  }
+  
+  /**
+   * Returns next revision, waiting for it to arrive if necessary
+   * 
+   * @return next revision
+   * @throws ServerException ServerException is thrown when server returns does not return a successful result
+   * @throws IOException IOException is thrown when error occurs in server communication
+   * @throws UsageException UsageException is thrown when method is called incorrectly
+   */
+  public File next() throws UsageException, ServerException, IOException {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    
+    Future<File> future = window.poll();
+    nextRevision++;
+    fill();
+    
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for revision");
+    } catch (ExecutionException e) {
+      CoOpsBulk.rethrow(e.getCause());
+      return null;
+    }
+  }
+  
+  /**
+   * Cancels fetches that have not been started yet
+   */
+  @Override
+  public void close() {
+    Future<File> future;
+    while ((future = window.poll()) != null) {
+      future.cancel(false);
+    }
+    
+    nextRevision = toRevision + 1;
+    nextFetchRevision = toRevision + 1;
+  }
+  
+  private void fill() {
+    while ((window.size() < readAhead) && (nextFetchRevision <= toRevision)) {
+      final Long revisionNumber = nextFetchRevision++;
+      window.add(executor.submit(new Callable<File>() {
+        @Override
+        public File call() throws Exception {
+          return coOps.getFileRevision(revisionNumber, auth);
+        }
+      }));
+    }
+  }
+  
+  private ExecutorService executor;
+  private CoOps coOps;
+  private long nextRevision;
+  private long nextFetchRevision;
+  private long toRevision;
+  private Auth auth;
+  private int readAhead;
+  private Deque<Future<File>> window = new ArrayDeque<>();
+}
@@ -0,0 +1,56 @@
+package fi.foyt.coops.cache;
+
+/**
+ * Snapshot of cache statistics
+ */
+public class CacheStatistics {
+  
+  public CacheStatistics(long hits, long misses, long evictions, int size, long weight) {
+    this.hits = hits;
+    this.misses = misses;
+    this.evictions = evictions;
+    this.size = size;
+    this.weight = weight;
+  }
+
+  public long getHits() {
+    return hits;
+  }
+  
+  public long getMisses() {
+    return misses;
+  }
+  
+  public long getEvictions() {
+    return evictions;
+  }
+  
+  public int getSize() {
+    return size;
+  }
+  
+  public long getWeight() {
+    return weight;
+  }
+  
+  /**
+   * Returns ratio of hits to all lookups
+   * 
+   * @return hit ratio or 0 when there has been no lookups
+   */
+  public double getHitRatio() {
+    long lookups = hits + misses;
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+  
+  @Override
+  public String toString() {
+    return "CacheStatistics [hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", size=" + size + ", weight=" + weight + "]";
+  }
+  
+  private long hits;
+  private long misses;
+  private long evictions;
+  private int size;
+  private long weight;
+}
@@ -0,0 +1,131 @@
+package fi.foyt.coops.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import fi.foyt.coops.model.File;
+
+/**
+ * Size bounded revision cache that evicts least recently used revisions first. 
+ * 
+ * Revisions are weighted by their content size, so the cache holds either many small or a few large revisions. 
+ * Cache stores and returns copies of the files, so callers may modify returned files freely.
+ */
+public class LruRevisionCache implements RevisionCache {
+  
+  public static final long DEFAULT_MAX_WEIGHT = 64l * 1024l * 1024l;
+  
+  private static final long ENTRY_OVERHEAD = 256l;
+  
+  public LruRevisionCache() {
+    this(DEFAULT_MAX_WEIGHT);
+  }
+  
+  /**
+   * Creates cache with given maximum weight
+   * 
+   * @param maxWeight maximum total weight (approximately bytes) of cached revisions
+   */
+  public LruRevisionCache(long maxWeight) {
+    this.maxWeight = maxWeight;
+  }
+
+  @Override
+  public synchronized File get(String fileUri, Long revisionNumber) {
+    Entry entry = entries.get(new Key(fileUri, revisionNumber));
+    if (entry == null) {
+      misses++;
+      return null;
+    }
+    
+    hits++;
+    return entry.file.copy();
+  }
+
+  @Override
+  public synchronized void put(String fileUri, Long revisionNumber, File file) {
+    long entryWeight = getWeight(file);
+    if (entryWeight > maxWeight) {
+      return;
+    }
+    
+    Entry previous = entries.put(new Key(fileUri, revisionNumber), new Entry(file.copy(), entryWeight));
+    if (previous != null) {
+      weight -= previous.weight;
+    }
+    
+    weight += entryWeight;
+    
+    Iterator<Entry> iterator = entries.values().iterator();
+    while ((weight > maxWeight) && iterator.hasNext()) {
+      weight -= iterator.next().weight;
+      iterator.remove();
+      evictions++;
+    }
+  }
+  
+  @Override
+  public synchronized void clear() {
+    entries.clear();
+    weight = 0;
+  }
+  
+  @Override
+  public synchronized CacheStatistics getStatistics() {
+    return new CacheStatistics(hits, misses, evictions, entries.size(), weight);
+  }
+  
+  private long getWeight(File file) {
+    long result = ENTRY_OVERHEAD;
+    if (file.getContent() != null) {
+      result += file.getContent().length() * 2l;
+    }
+    
+    return result;
+  }
+  
+  private long maxWeight;
+  private long weight;
+  private long hits;
+  private long misses;
+  private long evictions;
+  private LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  
+  private static class Key {
+    
+    public Key(String fileUri, Long revisionNumber) {
+      this.fileUri = fileUri;
+      this.revisionNumber = revisionNumber;
+    }
+    
+    @Override
+    public int hashCode() {
+      return (31 * fileUri.hashCode()) + revisionNumber.hashCode();
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      
+      Key other = (Key) obj;
+      return fileUri.equals(other.fileUri) && revisionNumber.equals(other.revisionNumber);
+    }
+    
+    private String fileUri;
+    private Long revisionNumber;
+  }
+  
+  private static class Entry {
+    
+    public Entry(File file, long weight) {
+      this.file = file;
+      this.weight = weight;
+    }
+    
+    private File file;
+    private long weight;
+  }
+}
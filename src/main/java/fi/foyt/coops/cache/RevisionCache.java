@@ -0,0 +1,44 @@
+package fi.foyt.coops.cache;
+
+import fi.foyt.coops.model.File;
+
+/**
+ * Cache for file revisions. 
+ * 
+ * Revision of a file never changes once it has been created, so cached revisions never need to be invalidated. 
+ * Uris passed by {@link fi.foyt.coops.CoOps} identify the authentication used in fetching the revision as well, 
+ * so revisions are never shared between callers using different authentication.
+ */
+public interface RevisionCache {
+
+  /**
+   * Returns cached revision
+   * 
+   * @param fileUri uri of the file
+   * @param revisionNumber revision number
+   * @return cached revision or null if revision is not cached
+   */
+  public File get(String fileUri, Long revisionNumber);
+  
+  /**
+   * Stores revision into the cache
+   * 
+   * @param fileUri uri of the file
+   * @param revisionNumber revision number
+   * @param file file as it was in the revision
+   */
+  public void put(String fileUri, Long revisionNumber, File file);
+  
+  /**
+   * Removes all cached revisions
+   */
+  public void clear();
+  
+  /**
+   * Returns cache statistics
+   * 
+   * @return cache statistics
+   */
+  public CacheStatistics getStatistics();
+  
+}
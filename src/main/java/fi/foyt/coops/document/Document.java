@@ -0,0 +1,210 @@
+package fi.foyt.coops.document;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import fi.foyt.coops.model.File;
+import fi.foyt.coops.model.FileJoin;
+
+/**
+ * Local, editable copy of a file's content. 
+ * 
+ * Content is stored in a {@link Rope}, so edits cost O(log n) regardless of the document size and 
+ * {@link #snapshot()} is free. Content is materialized into a String only when converting the 
+ * document back into model classes or when explicitly requested. 
+ * 
+ * Document also keeps the content confirmed at its revision number, so local edits that have not been 
+ * sent to the server can be told apart from the server state.
+ */
+public class Document {
+  
+  public Document(Rope content, String contentType, Long revisionNumber) {
+    this.content = content != null ? content : Rope.EMPTY;
+    this.confirmedContent = this.content;
+    this.contentType = contentType;
+    this.revisionNumber = revisionNumber;
+  }
+  
+  /**
+   * Creates a document from a file
+   * 
+   * @param file file
+   * @return document
+   */
+  public static Document fromFile(File file) {
+    return new Document(Rope.valueOf(file.getContent()), file.getContentType(), file.getRevisionNumber());
+  }
+  
+  /**
+   * Creates a document from a file join result
+   * 
+   * @param fileJoin file join result
+   * @return document
+   */
+  public static Document fromFileJoin(FileJoin fileJoin) {
+    return new Document(Rope.valueOf(fileJoin.getContent()), fileJoin.getContentType(), fileJoin.getRevisionNumber());
+  }
+  
+  /**
+   * Creates a document by reading the content from a reader. Reader is not closed.
+   * 
+   * @param reader reader
+   * @param contentType content type
+   * @param revisionNumber revision number
+   * @return document
+   * @throws IOException IOException is thrown when reading fails
+   */
+  public static Document read(Reader reader, String contentType, Long revisionNumber) throws IOException {
+    return new Document(Rope.read(reader), contentType, revisionNumber);
+  }
+  
+  /**
+   * Inserts text into the document
+   * 
+   * @param index insert index
+   * @param text inserted text
+   */
+  public synchronized void insert(int index, CharSequence text) {
+    content = content.insert(index, text);
+  }
+  
+  /**
+   * Deletes text from the document
+   * 
+   * @param start start index (inclusive)
+   * @param end end index (exclusive)
+   */
+  public synchronized void delete(int start, int end) {
+    content = content.delete(start, end);
+  }
+  
+  /**
+   * Replaces text in the document
+   * 
+   * @param start start index (inclusive)
+   * @param end end index (exclusive)
+   * @param text replacement text
+   */
+  public synchronized void replace(int start, int end, CharSequence text) {
+    content = content.replace(start, end, text);
+  }
+  
+  /**
+   * Returns an immutable snapshot of the document content. Later edits do not affect the snapshot.
+   * 
+   * @return content snapshot
+   */
+  public synchronized Rope snapshot() {
+    return content;
+  }
+  
+  /**
+   * Replaces whole document content
+   * 
+   * @param content new content
+   */
+  public synchronized void setContent(Rope content) {
+    this.content = content != null ? content : Rope.EMPTY;
+  }
+  
+  /**
+   * Returns document length in characters
+   * 
+   * @return document length
+   */
+  public synchronized int length() {
+    return content.length();
+  }
+  
+  /**
+   * Writes document content into a writer without materializing it into a String
+   * 
+   * @param writer writer
+   * @throws IOException IOException is thrown when writing fails
+   */
+  public void writeTo(Writer writer) throws IOException {
+    snapshot().writeTo(writer);
+  }
+  
+  /**
+   * Returns a reader for current document content
+   * 
+   * @return reader
+   */
+  public Reader getReader() {
+    return snapshot().getReader();
+  }
+  
+  /**
+   * Returns document content as a String
+   * 
+   * @return content
+   */
+  public String getContentAsString() {
+    return snapshot().toString();
+  }
+  
+  public synchronized Long getRevisionNumber() {
+    return revisionNumber;
+  }
+  
+  /**
+   * Sets revision number and marks current content as the content confirmed at the revision
+   * 
+   * @param revisionNumber revision number
+   */
+  public synchronized void setRevisionNumber(Long revisionNumber) {
+    confirm(content, revisionNumber);
+  }
+  
+  /**
+   * Returns content confirmed at the current revision number, i.e. content without local changes
+   * 
+   * @return confirmed content
+   */
+  public synchronized Rope getConfirmedContent() {
+    return confirmedContent;
+  }
+  
+  /**
+   * Returns whether document has been edited since its content was last confirmed
+   * 
+   * @return whether document has local changes
+   */
+  public synchronized boolean hasLocalChanges() {
+    return content != confirmedContent;
+  }
+  
+  /**
+   * Sets content confirmed at a revision without touching the local content, e.g. when a remote patch has been 
+   * applied to both the local and the confirmed content.
+   * 
+   * @param confirmedContent content at the revision
+   * @param revisionNumber revision number
+   */
+  public synchronized void confirm(Rope confirmedContent, Long revisionNumber) {
+    this.confirmedContent = confirmedContent != null ? confirmedContent : Rope.EMPTY;
+    this.revisionNumber = revisionNumber;
+  }
+  
+  public String getContentType() {
+    return contentType;
+  }
+  
+  /**
+   * Copies document content, content type and revision number into a file
+   * 
+   * @param file file
+   */
+  public synchronized void toFile(File file) {
+    file.setContent(content.toString());
+    file.setContentType(contentType);
+    file.setRevisionNumber(revisionNumber);
+  }
+  
+  private Rope content;
+  private Rope confirmedContent;
+  private String contentType;
+  private Long revisionNumber;
+}
@@ -0,0 +1,418 @@
+package fi.foyt.coops.document;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Immutable rope of characters. 
+ * 
+ * Rope is a height balanced tree of bounded size text chunks, so inserts, deletes and substrings cost O(log n) 
+ * instead of copying the whole text. Because ropes are immutable, edited ropes share structure with the original 
+ * ones which makes snapshots free.
+ */
+public final class Rope implements CharSequence {
+  
+  public static final Rope EMPTY = new Rope(new Leaf(""));
+  
+  private static final int MAX_LEAF_LENGTH = 1024;
+  
+  private Rope(Node root) {
+    this.root = root;
+  }
+  
+  /**
+   * Creates a rope from characters
+   * 
+   * @param text characters
+   * @return rope
+   */
+  public static Rope valueOf(CharSequence text) {
+    if (text instanceof Rope) {
+      return (Rope) text;
+    }
+    
+    if ((text == null) || (text.length() == 0)) {
+      return EMPTY;
+    }
+    
+    return new Rope(build(text));
+  }
+  
+  /**
+   * Creates a rope by reading all characters from a reader. Reader is not closed.
+   * 
+   * @param reader reader
+   * @return rope
+   * @throws IOException IOException is thrown when reading fails
+   */
+  public static Rope read(Reader reader) throws IOException {
+    List<Node> leaves = new ArrayList<>();
+    char[] buffer = new char[MAX_LEAF_LENGTH];
+    int filled = 0;
+    int read;
+    
+    while ((read = reader.read(buffer, filled, buffer.length - filled)) != -1) {
+      filled += read;
+      if (filled == buffer.length) {
+        leaves.add(new Leaf(new String(buffer)));
+        filled = 0;
+      }
+    }
+    
+    if (filled > 0) {
+      leaves.add(new Leaf(new String(buffer, 0, filled)));
+    }
+    
+    if (leaves.isEmpty()) {
+      return EMPTY;
+    }
+    
+    return new Rope(merge(leaves, 0, leaves.size()));
+  }
+
+  @Override
+  public int length() {
+    return root.length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if ((index < 0) || (index >= root.length)) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", length: " + root.length);
+    }
+    
+    Node node = root;
+    while (node instanceof Concat) {
+      Concat concat = (Concat) node;
+      if (index < concat.left.length) {
+        node = concat.left;
+      } else {
+        index -= concat.left.length;
+        node = concat.right;
+      }
+    }
+    
+    return ((Leaf) node).text.charAt(index);
+  }
+
+  @Override
+  public Rope subSequence(int start, int end) {
+    checkRange(start, end);
+    
+    if ((start == 0) && (end == root.length)) {
+      return this;
+    }
+    
+    if (start == end) {
+      return EMPTY;
+    }
+    
+    return new Rope(split(split(root, end)[0], start)[1]);
+  }
+  
+  /**
+   * Returns a rope with text inserted at given index
+   * 
+   * @param index index
+   * @param text inserted text
+   * @return new rope
+   */
+  public Rope insert(int index, CharSequence text) {
+    checkRange(index, index);
+    
+    if ((text == null) || (text.length() == 0)) {
+      return this;
+    }
+    
+    Node inserted = text instanceof Rope ? ((Rope) text).root : build(text);
+    Node[] parts = split(root, index);
+    return new Rope(concat(concat(parts[0], inserted), parts[1]));
+  }
+  
+  /**
+   * Returns a rope with text appended to the end
+   * 
+   * @param text appended text
+   * @return new rope
+   */
+  public Rope append(CharSequence text) {
+    return insert(root.length, text);
+  }
+  
+  /**
+   * Returns a rope with characters between start (inclusive) and end (exclusive) removed
+   * 
+   * @param start start index
+   * @param end end index
+   * @return new rope
+   */
+  public Rope delete(int start, int end) {
+    checkRange(start, end);
+    
+    if (start == end) {
+      return this;
+    }
+    
+    Node[] tail = split(root, end);
+    Node[] head = split(tail[0], start);
+    return new Rope(concat(head[0], tail[1]));
+  }
+  
+  /**
+   * Returns a rope with characters between start (inclusive) and end (exclusive) replaced with text
+   * 
+   * @param start start index
+   * @param end end index
+   * @param text replacement text
+   * @return new rope
+   */
+  public Rope replace(int start, int end, CharSequence text) {
+    return delete(start, end).insert(start, text);
+  }
+  
+  /**
+   * Writes rope contents into a writer chunk by chunk without materializing the whole text
+   * 
+   * @param writer writer
+   * @throws IOException IOException is thrown when writing fails
+   */
+  public void writeTo(Writer writer) throws IOException {
+    Deque<Node> stack = new ArrayDeque<>();
+    stack.push(root);
+    
+    while (!stack.isEmpty()) {
+      Node node = stack.pop();
+      if (node instanceof Concat) {
+        stack.push(((Concat) node).right);
+        stack.push(((Concat) node).left);
+      } else {
+        writer.write(((Leaf) node).text);
+      }
+    }
+  }
+  
+  /**
+   * Returns a reader for rope contents
+   * 
+   * @return reader
+   */
+  public Reader getReader() {
+    return new RopeReader(root);
+  }
+  
+  /**
+   * Returns depth of the underlying tree
+   * 
+   * @return tree depth
+   */
+  public int getDepth() {
+    return root.depth;
+  }
+  
+  @Override
+  public String toString() {
+    if (root instanceof Leaf) {
+      return ((Leaf) root).text;
+    }
+    
+    StringBuilder result = new StringBuilder(root.length);
+    Deque<Node> stack = new ArrayDeque<>();
+    stack.push(root);
+    
+    while (!stack.isEmpty()) {
+      Node node = stack.pop();
+      if (node instanceof Concat) {
+        stack.push(((Concat) node).right);
+        stack.push(((Concat) node).left);
+      } else {
+        result.append(((Leaf) node).text);
+      }
+    }
+    
+    return result.toString();
+  }
+  
+  private void checkRange(int start, int end) {
+    if ((start < 0) || (end > root.length) || (start > end)) {
+      throw new IndexOutOfBoundsException("Range: " + start + " - " + end + ", length: " + root.length);
+    }
+  }
+  
+  private static Node build(CharSequence text) {
+    int length = text.length();
+    List<Node> leaves = new ArrayList<>((length / MAX_LEAF_LENGTH) + 1);
+    for (int start = 0; start < length; start += MAX_LEAF_LENGTH) {
+      leaves.add(new Leaf(text.subSequence(start, Math.min(length, start + MAX_LEAF_LENGTH)).toString()));
+    }
+    
+    return merge(leaves, 0, leaves.size());
+  }
+  
+  private static Node merge(List<Node> leaves, int start, int end) {
+    int count = end - start;
+    if (count == 1) {
+      return leaves.get(start);
+    }
+    
+    int middle = start + (count / 2);
+    return new Concat(merge(leaves, start, middle), merge(leaves, middle, end));
+  }
+  
+  private static Node concat(Node left, Node right) {
+    if (left.length == 0) {
+      return right;
+    }
+    
+    if (right.length == 0) {
+      return left;
+    }
+    
+    if ((left instanceof Leaf) && (right instanceof Leaf) && (left.length + right.length <= MAX_LEAF_LENGTH)) {
+      return new Leaf(((Leaf) left).text + ((Leaf) right).text);
+    }
+    
+    if (left.depth > right.depth + 1) {
+      Concat concat = (Concat) left;
+      return balance(concat.left, concat(concat.right, right));
+    }
+    
+    if (right.depth > left.depth + 1) {
+      Concat concat = (Concat) right;
+      return balance(concat(left, concat.left), concat.right);
+    }
+    
+    return new Concat(left, right);
+  }
+  
+  private static Node balance(Node left, Node right) {
+    if (left.depth > right.depth + 1) {
+      Concat concat = (Concat) left;
+      if (concat.left.depth >= concat.right.depth) {
+        return new Concat(concat.left, new Concat(concat.right, right));
+      }
+      
+      Concat inner = (Concat) concat.right;
+      return new Concat(new Concat(concat.left, inner.left), new Concat(inner.right, right));
+    }
+    
+    if (right.depth > left.depth + 1) {
+      Concat concat = (Concat) right;
+      if (concat.right.depth >= concat.left.depth) {
+        return new Concat(new Concat(left, concat.left), concat.right);
+      }
+      
+      Concat inner = (Concat) concat.left;
+      return new Concat(new Concat(left, inner.left), new Concat(inner.right, concat.right));
+    }
+    
+    return new Concat(left, right);
+  }
+  
+  private static Node[] split(Node node, int index) {
+    if (index == 0) {
+      return new Node[] { EMPTY.root, node };
+    }
+    
+    if (index == node.length) {
+      return new Node[] { node, EMPTY.root };
+    }
+    
+    if (node instanceof Leaf) {
+      String text = ((Leaf) node).text;
+      return new Node[] { new Leaf(text.substring(0, index)), new Leaf(text.substring(index)) };
+    }
+    
+    Concat concat = (Concat) node;
+    if (index <= concat.left.length) {
+      Node[] parts = split(concat.left, index);
+      return new Node[] { parts[0], concat(parts[1], concat.right) };
+    } else {
+      Node[] parts = split(concat.right, index - concat.left.length);
+      return new Node[] { concat(concat.left, parts[0]), parts[1] };
+    }
+  }
+  
+  private Node root;
+  
+  private static abstract class Node {
+    
+    public Node(int length, int depth) {
+      this.length = length;
+      this.depth = depth;
+    }
+    
+    protected final int length;
+    protected final int depth;
+  }
+  
+  private static final class Leaf extends Node {
+    
+    public Leaf(String text) {
+      super(text.length(), 0);
+      this.text = text;
+    }
+    
+    private final String text;
+  }
+  
+  private static final class Concat extends Node {
+    
+    public Concat(Node left, Node right) {
+      super(left.length + right.length, Math.max(left.depth, right.depth) + 1);
+      this.left = left;
+      this.right = right;
+    }
+    
+    private final Node left;
+    private final Node right;
+  }
+  
+  private static final class RopeReader extends Reader {
+    
+    public RopeReader(Node root) {
+      stack.push(root);
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      
+      while ((current == null) || (position == current.length())) {
+        if (stack.isEmpty()) {
+          return -1;
+        }
+        
+        Node node = stack.pop();
+        if (node instanceof Concat) {
+          stack.push(((Concat) node).right);
+          stack.push(((Concat) node).left);
+        } else {
+          current = ((Leaf) node).text;
+          position = 0;
+        }
+      }
+      
+      int count = Math.min(length, current.length() - position);
+      current.getChars(position, position + count, buffer, offset);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public void close() {
+      stack.clear();
+      current = null;
+    }
+    
+    private Deque<Node> stack = new ArrayDeque<>();
+    private String current;
+    private int position;
+  }
+}
@@ -0,0 +1,68 @@
+package fi.foyt.coops.io;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+import fi.foyt.coops.Auth;
+import fi.foyt.coops.ServerException;
+
+/**
+ * IO handler that is able to send and receive bodies as bytes. 
+ * 
+ * Request bodies are sent from the remaining bytes of the given buffer without copying when possible, so the buffer 
+ * must not be modified until the call returns. Bodies of JSON requests and responses are UTF-8 encoded.
+ */
+public interface ByteIOHandler extends IOHandler {
+
+  /**
+   * Performs a GET request into requested uri
+   * 
+   * @param uri requested uri
+   * @param auth request authentication
+   * @return result contents or null when server responded without content
+   * @throws IOException IOException is thrown when error occurs in server communication
+   * @throws ServerException ServerException is thrown when server responds with error code.
+   */
+  ByteBuffer doByteGetRequest(URI uri, Auth auth) throws IOException, ServerException;
+  
+  /**
+   * Performs a POST request into the server
+   * 
+   * @param uri requested uri
+   * @param body request body
+   * @param contentType request content type
+   * @param auth request authentication
+   * @return result contents or null when server responded without content
+   * @throws IOException IOException is thrown when error occurs in server communication
+   * @throws ServerException ServerException is thrown when server responds with error code.
+   */
+  ByteBuffer doBytePostRequest(URI uri, ByteBuffer body, String contentType, Auth auth) throws IOException, ServerException;
+  
+  /**
+   * Performs a PUT request into the server
+   * 
+   * @param uri requested uri
+   * @param body request body
+   * @param contentType request content type
+   * @param auth request authentication
+   * @return result contents or null when server responded without content
+   * @throws IOException IOException is thrown when error occurs in server communication
+   * @throws ServerException ServerException is thrown when server responds with error code.
+   */
+  ByteBuffer doBytePutRequest(URI uri, ByteBuffer body, String contentType, Auth auth) throws IOException, ServerException;
+  
+  /**
+   * Performs a PATCH request into the server
+   * 
+   * @param uri requested uri
+   * @param body request body
+   * @param contentType request content type
+   * @param auth request authentication
+   * @return result contents or null when server responded without content
+   * @throws IOException IOException is thrown when error occurs in server communication
+   * @throws ServerException ServerException is thrown when server responds with error code.
+   */
+  ByteBuffer doBytePatchRequest(URI uri, ByteBuffer body, String contentType, Auth auth) throws IOException, ServerException;
+  
+}
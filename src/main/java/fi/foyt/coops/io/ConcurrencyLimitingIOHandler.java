@@ -0,0 +1,141 @@
+package fi.foyt.coops.io;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import fi.foyt.coops.ServerException;
+
+/**
+ * IO handler that limits number of concurrent requests per host. 
+ * 
+ * Requests exceeding the limit wait until a slot is released and fail with IOException when no slot becomes available 
+ * within the acquire timeout. Slots of streaming responses are held until the response reader is closed.
+ */
+public class ConcurrencyLimitingIOHandler extends DelegatingIOHandler {
+  
+  public static final long DEFAULT_ACQUIRE_TIMEOUT = 30000l;
+  
+  public ConcurrencyLimitingIOHandler(IOHandler delegate, int maxConcurrentRequestsPerHost) {
+    this(delegate, maxConcurrentRequestsPerHost, DEFAULT_ACQUIRE_TIMEOUT);
+  }
+
+  /**
+   * Creates concurrency limiting IO handler
+   * 
+   * @param delegate IO handler that sends the requests
+   * @param maxConcurrentRequestsPerHost maximum number of concurrent requests per host
+   * @param acquireTimeout time in milliseconds a request waits for a free slot
+   */
+  public ConcurrencyLimitingIOHandler(IOHandler delegate, int maxConcurrentRequestsPerHost, long acquireTimeout) {
+    super(delegate);
+    this.maxConcurrentRequestsPerHost = maxConcurrentRequestsPerHost;
+    this.acquireTimeout = acquireTimeout;
+  }
+  
+  public int getMaxConcurrentRequestsPerHost() {
+    return maxConcurrentRequestsPerHost;
+  }
+  
+  /**
+   * Returns number of requests currently in progress to given host
+   * 
+   * @param uri uri of the host
+   * @return number of requests in progress
+   */
+  public int getActiveRequests(URI uri) {
+    Semaphore semaphore = semaphores.get(getHostKey(uri));
+    return semaphore != null ? maxConcurrentRequestsPerHost - semaphore.availablePermits() : 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  protected <T> T execute(IORequest request, IOCall<T> call) throws IOException, ServerException {
+    Semaphore semaphore = getSemaphore(request.getUri());
+    
+    try {
+      if (!semaphore.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS)) {
+        throw new IOException("Timed out waiting for a free request slot to " + getHostKey(request.getUri()));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a free request slot");
+    }
+    
+    T result;
+    try {
+      result = call.call();
+    } catch (IOException | ServerException | RuntimeException e) {
+      semaphore.release();
+      throw e;
+    }
+    
+    if (result instanceof Reader) {
+      return (T) new ReleasingReader((Reader) result, semaphore);
+    }
+    
+    if (result instanceof ConditionalResponse) {
+      ConditionalResponse response = (ConditionalResponse) result;
+      if (response.getContent() != null) {
+        Reader content = new ReleasingReader(response.getContent(), semaphore);
+        return (T) new ConditionalResponse(response.isModified(), response.getETag(), response.getLastModified(), content);
+      }
+    }
+    
+    semaphore.release();
+    
+    return result;
+  }
+  
+  private Semaphore getSemaphore(URI uri) {
+    String key = getHostKey(uri);
+    
+    Semaphore semaphore = semaphores.get(key);
+    if (semaphore == null) {
+      Semaphore created = new Semaphore(maxConcurrentRequestsPerHost);
+      semaphore = semaphores.putIfAbsent(key, created);
+      if (semaphore == null) {
+        semaphore = created;
+      }
+    }
+    
+    return semaphore;
+  }
+  
+  private String getHostKey(URI uri) {
+    return uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+  }
+  
+  private int maxConcurrentRequestsPerHost;
+  private long acquireTimeout;
+  private ConcurrentMap<String, Semaphore> semaphores = new ConcurrentHashMap<>();
+  
+  private static class ReleasingReader extends FilterReader {
+    
+    public ReleasingReader(Reader in, Semaphore semaphore) {
+      super(in);
+      this.semaphore = semaphore;
+    }
+    
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        if (!released) {
+          released = true;
+          semaphore.release();
+        }
+      }
+    }
+    
+    private Semaphore semaphore;
+    private boolean released;
+  }
+}
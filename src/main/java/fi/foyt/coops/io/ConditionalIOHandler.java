@@ -0,0 +1,31 @@
+package fi.foyt.coops.io;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Date;
+
+import fi.foyt.coops.Auth;
+import fi.foyt.coops.ServerException;
+
+/**
+ * IO handler that supports conditional GET requests using HTTP validators (ETag and Last-Modified)
+ */
+public interface ConditionalIOHandler extends IOHandler {
+
+  /**
+   * Performs a conditional GET request into requested uri. 
+   * 
+   * Request is sent with If-None-Match and If-Modified-Since headers when corresponding validators are given. 
+   * Caller is responsible for closing the returned response.
+   * 
+   * @param uri requested uri
+   * @param eTag entity tag of the previously received response or null
+   * @param ifModifiedSince modification time of the previously received response or null
+   * @param auth request authentication
+   * @return response
+   * @throws IOException IOException is thrown when error occurs in server communication
+   * @throws ServerException ServerException is thrown when server responds with error code.
+   */
+  ConditionalResponse doConditionalGetRequest(URI uri, String eTag, Date ifModifiedSince, Auth auth) throws IOException, ServerException;
+  
+}
@@ -0,0 +1,67 @@
+package fi.foyt.coops.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Date;
+
+/**
+ * Response of a conditional GET request
+ */
+public class ConditionalResponse implements Closeable {
+  
+  public ConditionalResponse(boolean modified, String eTag, Date lastModified, Reader content) {
+    this.modified = modified;
+    this.eTag = eTag;
+    this.lastModified = lastModified;
+    this.content = content;
+  }
+  
+  /**
+   * Returns whether resource has been modified since the given validators. 
+   * 
+   * @return false when server responded with 304 Not Modified
+   */
+  public boolean isModified() {
+    return modified;
+  }
+  
+  /**
+   * Returns entity tag of the response
+   * 
+   * @return entity tag or null if server did not send one
+   */
+  public String getETag() {
+    return eTag;
+  }
+  
+  /**
+   * Returns last modification time of the response
+   * 
+   * @return last modification time or null if server did not send one
+   */
+  public Date getLastModified() {
+    return lastModified;
+  }
+  
+  /**
+   * Returns response contents
+   * 
+   * @return reader for response contents or null when resource was not modified or response has no content
+   */
+  public Reader getContent() {
+    return content;
+  }
+  
+  @Override
+  public void close() throws IOException {
+    if (content != null) {
+      content.close();
+    }
+  }
+  
+  private boolean modified;
+  private String eTag;
+  private Date lastModified;
+  private Reader content;
+}
@@ -0,0 +1,69 @@
+package fi.foyt.coops.io;
+
+/**
+ * Point-in-time statistics of a connection pool
+ */
+public class ConnectionPoolStatistics {
+  
+  public ConnectionPoolStatistics(int leased, int pending, int available, int max) {
+    this.leased = leased;
+    this.pending = pending;
+    this.available = available;
+    this.max = max;
+  }
+  
+  /**
+   * Returns number of connections currently in use
+   * 
+   * @return number of leased connections
+   */
+  public int getLeased() {
+    return leased;
+  }
+  
+  /**
+   * Returns number of requests waiting for a connection
+   * 
+   * @return number of pending requests
+   */
+  public int getPending() {
+    return pending;
+  }
+  
+  /**
+   * Returns number of idle connections in the pool
+   * 
+   * @return number of available connections
+   */
+  public int getAvailable() {
+    return available;
+  }
+  
+  /**
+   * Returns maximum number of connections in the pool
+   * 
+   * @return maximum number of connections
+   */
+  public int getMax() {
+    return max;
+  }
+  
+  /**
+   * Returns ratio of leased connections to pool size
+   * 
+   * @return utilization between 0 and 1
+   */
+  public double getUtilization() {
+    return max > 0 ? (double) leased / max : 0d;
+  }
+  
+  @Override
+  public String toString() {
+    return "leased=" + leased + ", pending=" + pending + ", available=" + available + ", max=" + max;
+  }
+  
+  private int leased;
+  private int pending;
+  private int available;
+  private int max;
+}
@@ -1,33 +1,171 @@
 package fi.foyt.coops.io;
 
+import java.io.Closeable;
+import java.io.FilterReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPatch;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentProducer;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.EntityTemplate;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DecompressingHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 
 import fi.foyt.coops.Auth;
+import fi.foyt.coops.ConflictException;
 import fi.foyt.coops.ForbiddenException;
 import fi.foyt.coops.ServerException;
 import fi.foyt.coops.UnauthorizedException;
 
-public class DefaultIOHandler implements IOHandler {
+/**
+ * Default IO handler implementation. 
+ * 
+ * Handler keeps a pool of persistent (keep-alive) connections that is shared between all requests made 
+ * through the handler, so a single handler instance should be reused instead of creating new ones for each 
+ * request. Pooled connections are released by calling {@link #close()} when the handler is no longer needed.
+ * 
+ * Handler advertises gzip and deflate encodings and transparently decompresses compressed responses. 
+ * Compression of PUT request bodies can be enabled with {@link #setRequestCompressionThreshold(int)}.
+ */
+public class DefaultIOHandler implements StreamingIOHandler, StreamingUploadIOHandler, ConditionalIOHandler, ByteIOHandler, PooledIOHandler, Closeable {
+  
+  public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 20;
+  
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+  
+  public static final long DEFAULT_KEEP_ALIVE = 30000l;
+  
+  public static final long DEFAULT_IDLE_TIMEOUT = 30000l;
+  
+  public static final int REQUEST_COMPRESSION_DISABLED = -1;
+  
+  private static final long IDLE_EVICTION_INTERVAL = 5000l;
+  
+  private static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+  
+  public DefaultIOHandler() {
+    this(DEFAULT_MAX_TOTAL_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_KEEP_ALIVE, DEFAULT_IDLE_TIMEOUT);
+  }
+  
+  /**
+   * Creates IO handler with custom connection pool settings
+   * 
+   * @param maxTotalConnections maximum number of pooled connections
+   * @param maxConnectionsPerRoute maximum number of pooled connections per route (host)
+   * @param keepAlive time in milliseconds a connection is kept alive when server does not specify a keep-alive timeout
+   * @param idleTimeout time in milliseconds after which idle connections are evicted from the pool
+   */
+  public DefaultIOHandler(int maxTotalConnections, int maxConnectionsPerRoute, long keepAlive, long idleTimeout) {
+    this.connectionManager = new PoolingClientConnectionManager(SchemeRegistryFactory.createDefault());
+    this.connectionManager.setMaxTotal(maxTotalConnections);
+    this.connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+    
+    DefaultHttpClient defaultHttpClient = new DefaultHttpClient(connectionManager);
+    defaultHttpClient.setKeepAliveStrategy(new KeepAliveStrategy(keepAlive));
+    this.httpClient = new DecompressingHttpClient(defaultHttpClient);
+    
+    this.idleConnectionEvictor = new IdleConnectionEvictor(connectionManager, idleTimeout);
+    this.idleConnectionEvictor.start();
+  }
 
   @Override
   public String doGetRequest(URI uri, Auth auth) throws IOException, ServerException {
     return executeRequest(auth, new HttpGet(uri));
   }
 
+  @Override
+  public Reader doStreamingGetRequest(URI uri, Auth auth) throws IOException, ServerException {
+    return doConditionalGetRequest(uri, null, null, auth).getContent();
+  }
+  
+  @Override
+  public ConditionalResponse doConditionalGetRequest(URI uri, String eTag, Date ifModifiedSince, Auth auth) throws IOException, ServerException {
+    HttpGet request = new HttpGet(uri);
+    if (eTag != null) {
+      request.setHeader("If-None-Match", eTag);
+    }
+    
+    if (ifModifiedSince != null) {
+      request.setHeader("If-Modified-Since", DateUtils.formatDate(ifModifiedSince));
+    }
+    
+    HttpResponse response = sendRequest(auth, request);
+    
+    final HttpEntity entity = response.getEntity();
+    boolean streaming = false;
+    try {
+      String responseETag = getHeaderValue(response, "ETag");
+      Date lastModified = getDateHeaderValue(response, "Last-Modified");
+      
+      int status = response.getStatusLine().getStatusCode();
+      switch (status) {
+        case 204:
+          // No Content
+          return new ConditionalResponse(true, responseETag, lastModified, null);
+        case 304:
+          // Not Modified
+          return new ConditionalResponse(false, responseETag != null ? responseETag : eTag, lastModified, null);
+        case 200:
+        break;
+        default:
+          throwStatusException(status, EntityUtils.toString(entity, DEFAULT_CHARSET));
+      }
+      
+      Charset charset = ContentType.getOrDefault(entity).getCharset();
+      if (charset == null) {
+        charset = DEFAULT_CHARSET;
+      }
+      
+      Reader reader = new FilterReader(new InputStreamReader(entity.getContent(), charset)) {
+        @Override
+        public void close() throws IOException {
+          try {
+            // Consuming the entity releases the connection back to the pool
+            EntityUtils.consume(entity);
+          } finally {
+            super.close();
+          }
+        }
+      };
+      
+      streaming = true;
+      
+      return new ConditionalResponse(true, responseETag, lastModified, reader);
+    } finally {
+      if (!streaming) {
+        EntityUtils.consume(entity);
+      }
+    }
+  }
+
   @Override
   public String doPostRequest(URI uri, String body, String contentType, Auth auth) throws IOException, ServerException {
     return doEntityEnclosingRequest(new HttpPost(uri), body, contentType, auth);
@@ -35,13 +173,122 @@ public class DefaultIOHandler implements IOHandler {
 
   @Override
   public String doPutRequest(URI uri, String body, String contentType, Auth auth) throws IOException, ServerException {
-    return doEntityEnclosingRequest(new HttpPut(uri), body, contentType, auth);
+    HttpPut request = new HttpPut(uri);
+    if (contentType != null) {
+      request.setHeader("Content-type", contentType);
+    }
+    
+    if (body != null) {
+      request.setEntity(compressEntity(new StringEntity(body, DEFAULT_CHARSET)));
+    }
+    
+    return executeRequest(auth, request);
+  }
+
+  @Override
+  public String doStreamingPutRequest(URI uri, final RequestBodyWriter body, String contentType, Auth auth) throws IOException, ServerException {
+    HttpPut request = new HttpPut(uri);
+    if (contentType != null) {
+      request.setHeader("Content-type", contentType);
+    }
+    
+    EntityTemplate entity = new EntityTemplate(new ContentProducer() {
+      
+      @Override
+      public void writeTo(OutputStream outstream) throws IOException {
+        // Body is produced from a stream that can be consumed only once
+        if (written) {
+          throw new IOException("Streamed request body can only be written once");
+        }
+        
+        written = true;
+        body.writeTo(outstream);
+        outstream.flush();
+      }
+      
+      private boolean written;
+    }) {
+      
+      @Override
+      public boolean isRepeatable() {
+        // Lets HttpClient refuse retries and authentication resends instead of writing the body again
+        return false;
+      }
+    };
+    
+    entity.setChunked(true);
+    request.setEntity(compressEntity(entity));
+    
+    return executeRequest(auth, request);
   }
 
   @Override
   public String doPatchRequest(URI uri, String body, String contentType, Auth auth) throws IOException, ServerException {
     return doEntityEnclosingRequest(new HttpPatch(uri), body, contentType, auth);
   }
+  
+  @Override
+  public ByteBuffer doByteGetRequest(URI uri, Auth auth) throws IOException, ServerException {
+    return executeByteRequest(auth, new HttpGet(uri));
+  }
+  
+  @Override
+  public ByteBuffer doBytePostRequest(URI uri, ByteBuffer body, String contentType, Auth auth) throws IOException, ServerException {
+    HttpPost request = new HttpPost(uri);
+    setByteEntity(request, body, contentType, false);
+    return executeByteRequest(auth, request);
+  }
+  
+  @Override
+  public ByteBuffer doBytePutRequest(URI uri, ByteBuffer body, String contentType, Auth auth) throws IOException, ServerException {
+    HttpPut request = new HttpPut(uri);
+    setByteEntity(request, body, contentType, true);
+    return executeByteRequest(auth, request);
+  }
+  
+  @Override
+  public ByteBuffer doBytePatchRequest(URI uri, ByteBuffer body, String contentType, Auth auth) throws IOException, ServerException {
+    HttpPatch request = new HttpPatch(uri);
+    setByteEntity(request, body, contentType, false);
+    return executeByteRequest(auth, request);
+  }
+  
+  /**
+   * Returns minimum size in bytes of PUT request bodies that are sent gzip compressed
+   * 
+   * @return compression threshold in bytes or {@link #REQUEST_COMPRESSION_DISABLED}
+   */
+  public int getRequestCompressionThreshold() {
+    return requestCompressionThreshold;
+  }
+  
+  /**
+   * Sets minimum size in bytes of PUT request bodies that are sent gzip compressed. 
+   * 
+   * Request compression is disabled by default because server needs to support gzip encoded request bodies. 
+   * 
+   * @param requestCompressionThreshold compression threshold in bytes or {@link #REQUEST_COMPRESSION_DISABLED}
+   */
+  public void setRequestCompressionThreshold(int requestCompressionThreshold) {
+    this.requestCompressionThreshold = requestCompressionThreshold;
+  }
+  
+  @Override
+  public ConnectionPoolStatistics getPoolStatistics() {
+    PoolStats stats = connectionManager.getTotalStats();
+    return new ConnectionPoolStatistics(stats.getLeased(), stats.getPending(), stats.getAvailable(), stats.getMax());
+  }
+  
+  /**
+   * Stops idle connection eviction and closes all pooled connections. 
+   * 
+   * Handler can not be used after it has been closed.
+   */
+  @Override
+  public void close() {
+    idleConnectionEvictor.shutdown();
+    connectionManager.shutdown();
+  }
 
   private String doEntityEnclosingRequest(HttpEntityEnclosingRequestBase request, String body, String contentType, Auth auth) throws IOException, ServerException {
     if (contentType != null) {
@@ -49,18 +296,43 @@ public class DefaultIOHandler implements IOHandler {
     }
     
     if (body != null) {
-      request.setEntity(new StringEntity(body));
+      request.setEntity(new StringEntity(body, DEFAULT_CHARSET));
     }
     
     return executeRequest(auth, request);
   }
   
-  private String executeRequest(Auth auth, HttpRequestBase request) throws IllegalStateException, IOException, ServerException {
-    DefaultHttpClient httpclient = new DefaultHttpClient();
-
-    authenticateRequest(auth, request);
+  private void setByteEntity(HttpEntityEnclosingRequestBase request, ByteBuffer body, String contentType, boolean compress) {
+    if (contentType != null) {
+      request.setHeader("Content-type", contentType);
+    }
+    
+    if (body != null) {
+      HttpEntity entity;
+      if (body.hasArray()) {
+        // Heap buffers are sent straight from their backing array
+        entity = new ByteArrayEntity(body.array(), body.arrayOffset() + body.position(), body.remaining());
+      } else {
+        byte[] bytes = new byte[body.remaining()];
+        body.duplicate().get(bytes);
+        entity = new ByteArrayEntity(bytes);
+      }
+      
+      request.setEntity(compress ? compressEntity(entity) : entity);
+    }
+  }
+  
+  private HttpEntity compressEntity(HttpEntity entity) {
+    int threshold = requestCompressionThreshold;
+    if ((threshold < 0) || ((entity.getContentLength() >= 0) && (entity.getContentLength() < threshold))) {
+      return entity;
+    }
     
-    HttpResponse response = httpclient.execute(request);
+    return new GzipCompressingEntity(entity);
+  }
+  
+  private String executeRequest(Auth auth, HttpRequestBase request) throws IllegalStateException, IOException, ServerException {
+    HttpResponse response = sendRequest(auth, request);
 
     HttpEntity entity = response.getEntity();
     try {
@@ -70,26 +342,84 @@ public class DefaultIOHandler implements IOHandler {
         return null;
       }
       
-      String content = IOUtils.toString(entity.getContent());
+      String content = EntityUtils.toString(entity, DEFAULT_CHARSET);
       if (status == 200) {
         return content;
       }
       
-      switch (status) {
-        case 200:
-          return content;
-        case 401:
-          throw new UnauthorizedException(content);
-        case 403:
-          throw new ForbiddenException(content);
-      }
+      throwStatusException(status, content);
+      return null;
+    } finally {
+      // Consuming the entity releases the connection back to the pool
+      EntityUtils.consume(entity);
+    }
+  }
+  
+  private ByteBuffer executeByteRequest(Auth auth, HttpRequestBase request) throws IOException, ServerException {
+    HttpResponse response = sendRequest(auth, request);
 
-      throw new ServerException(content);
+    HttpEntity entity = response.getEntity();
+    try {
+      int status = response.getStatusLine().getStatusCode();
+      if (status == 204) {
+       // No Content
+        return null;
+      }
+      
+      if (status == 200) {
+        return ByteBuffer.wrap(EntityUtils.toByteArray(entity));
+      }
+      
+      throwStatusException(status, EntityUtils.toString(entity, DEFAULT_CHARSET));
+      return null;
     } finally {
+      // Consuming the entity releases the connection back to the pool
       EntityUtils.consume(entity);
     }
   }
   
+  private HttpResponse sendRequest(Auth auth, HttpRequestBase request) throws IOException {
+    authenticateRequest(auth, request);
+    
+    try {
+      return httpClient.execute(request);
+    } catch (IOException | RuntimeException e) {
+      request.abort();
+      throw e;
+    }
+  }
+  
+  private void throwStatusException(int status, String content) throws ServerException {
+    switch (status) {
+      case 401:
+        throw new UnauthorizedException(content);
+      case 403:
+        throw new ForbiddenException(content);
+      case 409:
+        throw new ConflictException(content);
+    }
+
+    throw new ServerException(content);
+  }
+  
+  private String getHeaderValue(HttpResponse response, String name) {
+    Header header = response.getFirstHeader(name);
+    return header != null ? header.getValue() : null;
+  }
+  
+  private Date getDateHeaderValue(HttpResponse response, String name) {
+    String value = getHeaderValue(response, name);
+    if (value != null) {
+      try {
+        return DateUtils.parseDate(value);
+      } catch (DateParseException e) {
+        // Invalid dates are ignored
+      }
+    }
+    
+    return null;
+  }
+  
   private void authenticateRequest(Auth auth, HttpRequestBase request) {
     if (auth != null) {
       if (auth.getHeaders() != null) {
@@ -100,4 +430,66 @@ public class DefaultIOHandler implements IOHandler {
       }
     }
   }
+  
+  private PoolingClientConnectionManager connectionManager;
+  private HttpClient httpClient;
+  private IdleConnectionEvictor idleConnectionEvictor;
+  private volatile int requestCompressionThreshold = REQUEST_COMPRESSION_DISABLED;
+  
+  private static class KeepAliveStrategy implements ConnectionKeepAliveStrategy {
+    
+    public KeepAliveStrategy(long defaultKeepAlive) {
+      this.defaultKeepAlive = defaultKeepAlive;
+    }
+    
+    @Override
+    public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+      long serverKeepAlive = serverStrategy.getKeepAliveDuration(response, context);
+      if (serverKeepAlive > 0) {
+        return serverKeepAlive;
+      }
+      
+      return defaultKeepAlive;
+    }
+    
+    private long defaultKeepAlive;
+    private ConnectionKeepAliveStrategy serverStrategy = new DefaultConnectionKeepAliveStrategy();
+  }
+  
+  private static class IdleConnectionEvictor extends Thread {
+    
+    public IdleConnectionEvictor(PoolingClientConnectionManager connectionManager, long idleTimeout) {
+      super("coops-idle-connection-evictor");
+      setDaemon(true);
+      this.connectionManager = connectionManager;
+      this.idleTimeout = idleTimeout;
+    }
+    
+    @Override
+    public void run() {
+      try {
+        while (!stopped) {
+          synchronized (this) {
+            wait(IDLE_EVICTION_INTERVAL);
+          }
+          
+          connectionManager.closeExpiredConnections();
+          connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+        }
+      } catch (InterruptedException e) {
+        // Evictor has been interrupted, exiting
+      }
+    }
+    
+    public void shutdown() {
+      stopped = true;
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+    
+    private PoolingClientConnectionManager connectionManager;
+    private long idleTimeout;
+    private volatile boolean stopped;
+  }
 }
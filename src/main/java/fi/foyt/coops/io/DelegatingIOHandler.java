@@ -0,0 +1,229 @@
+package fi.foyt.coops.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Date;
+
+import fi.foyt.coops.Auth;
+import fi.foyt.coops.ServerException;
+
+/**
+ * Base class for IO handlers that decorate another IO handler. 
+ * 
+ * All requests are routed through {@link #execute(IORequest, IOCall)}. Streaming and conditional requests are 
+ * passed to the delegate as such when the delegate supports them and are otherwise emulated with plain GET requests. 
+ * Byte requests are likewise passed as such or converted to string requests using UTF-8 and streamed uploads 
+ * are buffered into string requests.
+ */
+public abstract class DelegatingIOHandler implements StreamingIOHandler, StreamingUploadIOHandler, ConditionalIOHandler, ByteIOHandler, Closeable {
+  
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  
+  protected DelegatingIOHandler(IOHandler delegate) {
+    this.delegate = delegate;
+  }
+  
+  /**
+   * Returns the decorated IO handler
+   * 
+   * @return the decorated IO handler
+   */
+  public IOHandler getDelegate() {
+    return delegate;
+  }
+  
+  @Override
+  public String doGetRequest(final URI uri, final Auth auth) throws IOException, ServerException {
+    return execute(new IORequest(IORequest.Method.GET, uri, (String) null, null, auth), new IOCall<String>() {
+      @Override
+      public String call() throws IOException, ServerException {
+        return delegate.doGetRequest(uri, auth);
+      }
+    });
+  }
+  
+  @Override
+  public Reader doStreamingGetRequest(final URI uri, final Auth auth) throws IOException, ServerException {
+    return execute(new IORequest(IORequest.Method.GET, uri, (String) null, null, auth), new IOCall<Reader>() {
+      @Override
+      public Reader call() throws IOException, ServerException {
+        if (delegate instanceof StreamingIOHandler) {
+          return ((StreamingIOHandler) delegate).doStreamingGetRequest(uri, auth);
+        }
+        
+        String content = delegate.doGetRequest(uri, auth);
+        return content != null ? new StringReader(content) : null;
+      }
+    });
+  }
+  
+  @Override
+  public ConditionalResponse doConditionalGetRequest(final URI uri, final String eTag, final Date ifModifiedSince, final Auth auth) throws IOException, ServerException {
+    return execute(new IORequest(IORequest.Method.GET, uri, (String) null, null, auth), new IOCall<ConditionalResponse>() {
+      @Override
+      public ConditionalResponse call() throws IOException, ServerException {
+        if (delegate instanceof ConditionalIOHandler) {
+          return ((ConditionalIOHandler) delegate).doConditionalGetRequest(uri, eTag, ifModifiedSince, auth);
+        }
+        
+        String content = delegate.doGetRequest(uri, auth);
+        return new ConditionalResponse(true, null, null, content != null ? new StringReader(content) : null);
+      }
+    });
+  }
+  
+  @Override
+  public String doPostRequest(final URI uri, final String body, final String contentType, final Auth auth) throws IOException, ServerException {
+    return execute(new IORequest(IORequest.Method.POST, uri, body, contentType, auth), new IOCall<String>() {
+      @Override
+      public String call() throws IOException, ServerException {
+        return delegate.doPostRequest(uri, body, contentType, auth);
+      }
+    });
+  }
+  
+  @Override
+  public String doPutRequest(final URI uri, final String body, final String contentType, final Auth auth) throws IOException, ServerException {
+    return execute(new IORequest(IORequest.Method.PUT, uri, body, contentType, auth), new IOCall<String>() {
+      @Override
+      public String call() throws IOException, ServerException {
+        return delegate.doPutRequest(uri, body, contentType, auth);
+      }
+    });
+  }
+  
+  @Override
+  public String doStreamingPutRequest(final URI uri, final RequestBodyWriter body, final String contentType, final Auth auth) throws IOException, ServerException {
+    return execute(new IORequest(IORequest.Method.PUT, uri, body, contentType, auth), new IOCall<String>() {
+      @Override
+      public String call() throws IOException, ServerException {
+        if (delegate instanceof StreamingUploadIOHandler) {
+          return ((StreamingUploadIOHandler) delegate).doStreamingPutRequest(uri, body, contentType, auth);
+        }
+        
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        body.writeTo(buffer);
+        return delegate.doPutRequest(uri, new String(buffer.toByteArray(), UTF8), contentType, auth);
+      }
+    });
+  }
+  
+  @Override
+  public String doPatchRequest(final URI uri, final String body, final String contentType, final Auth auth) throws IOException, ServerException {
+    return execute(new IORequest(IORequest.Method.PATCH, uri, body, contentType, auth), new IOCall<String>() {
+      @Override
+      public String call() throws IOException, ServerException {
+        return delegate.doPatchRequest(uri, body, contentType, auth);
+      }
+    });
+  }
+  
+  @Override
+  public ByteBuffer doByteGetRequest(final URI uri, final Auth auth) throws IOException, ServerException {
+    return execute(new IORequest(IORequest.Method.GET, uri, (ByteBuffer) null, null, auth), new IOCall<ByteBuffer>() {
+      @Override
+      public ByteBuffer call() throws IOException, ServerException {
+        if (delegate instanceof ByteIOHandler) {
+          return ((ByteIOHandler) delegate).doByteGetRequest(uri, auth);
+        }
+        
+        return encode(delegate.doGetRequest(uri, auth));
+      }
+    });
+  }
+  
+  @Override
+  public ByteBuffer doBytePostRequest(final URI uri, final ByteBuffer body, final String contentType, final Auth auth) throws IOException, ServerException {
+    return execute(new IORequest(IORequest.Method.POST, uri, body, contentType, auth), new IOCall<ByteBuffer>() {
+      @Override
+      public ByteBuffer call() throws IOException, ServerException {
+        if (delegate instanceof ByteIOHandler) {
+          return ((ByteIOHandler) delegate).doBytePostRequest(uri, duplicate(body), contentType, auth);
+        }
+        
+        return encode(delegate.doPostRequest(uri, decode(body), contentType, auth));
+      }
+    });
+  }
+  
+  @Override
+  public ByteBuffer doBytePutRequest(final URI uri, final ByteBuffer body, final String contentType, final Auth auth) throws IOException, ServerException {
+    return execute(new IORequest(IORequest.Method.PUT, uri, body, contentType, auth), new IOCall<ByteBuffer>() {
+      @Override
+      public ByteBuffer call() throws IOException, ServerException {
+        if (delegate instanceof ByteIOHandler) {
+          return ((ByteIOHandler) delegate).doBytePutRequest(uri, duplicate(body), contentType, auth);
+        }
+        
+        return encode(delegate.doPutRequest(uri, decode(body), contentType, auth));
+      }
+    });
+  }
+  
+  @Override
+  public ByteBuffer doBytePatchRequest(final URI uri, final ByteBuffer body, final String contentType, final Auth auth) throws IOException, ServerException {
+    return execute(new IORequest(IORequest.Method.PATCH, uri, body, contentType, auth), new IOCall<ByteBuffer>() {
+      @Override
+      public ByteBuffer call() throws IOException, ServerException {
+        if (delegate instanceof ByteIOHandler) {
+          return ((ByteIOHandler) delegate).doBytePatchRequest(uri, duplicate(body), contentType, auth);
+        }
+        
+        return encode(delegate.doPatchRequest(uri, decode(body), contentType, auth));
+      }
+    });
+  }
+  
+  /**
+   * Closes the delegate if it is closeable
+   */
+  @Override
+  public void close() throws IOException {
+    if (delegate instanceof Closeable) {
+      ((Closeable) delegate).close();
+    }
+  }
+  
+  /**
+   * Executes a request. Implementations invoke the call (zero or more times) and return its result.
+   * 
+   * @param request request description
+   * @param call call that performs the request with the delegate
+   * @return call result
+   * @throws IOException IOException is thrown when error occurs in server communication
+   * @throws ServerException ServerException is thrown when server responds with error code.
+   */
+  protected abstract <T> T execute(IORequest request, IOCall<T> call) throws IOException, ServerException;
+  
+  private static ByteBuffer duplicate(ByteBuffer body) {
+    // Calls may be repeated so the delegate must not move the position of the original buffer
+    return body != null ? body.duplicate() : null;
+  }
+  
+  private static String decode(ByteBuffer body) {
+    return body != null ? UTF8.decode(body.duplicate()).toString() : null;
+  }
+  
+  private static ByteBuffer encode(String content) {
+    return content != null ? ByteBuffer.wrap(content.getBytes(UTF8)) : null;
+  }
+  
+  /**
+   * Request performed with the delegate
+   *
+   * @param <T> result type
+   */
+  protected interface IOCall<T> {
+    
+    T call() throws IOException, ServerException;
+    
+  }
+  
+  private IOHandler delegate;
+}
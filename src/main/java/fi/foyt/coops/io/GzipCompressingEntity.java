@@ -0,0 +1,65 @@
+package fi.foyt.coops.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * Entity wrapper that compresses wrapped entity with gzip while it is being written. 
+ * 
+ * Compressed length is not known in advance, so entity is sent using chunked transfer encoding.
+ */
+class GzipCompressingEntity extends HttpEntityWrapper {
+  
+  public GzipCompressingEntity(HttpEntity entity) {
+    super(entity);
+  }
+  
+  @Override
+  public Header getContentEncoding() {
+    return new BasicHeader("Content-Encoding", "gzip");
+  }
+  
+  @Override
+  public long getContentLength() {
+    return -1;
+  }
+  
+  @Override
+  public boolean isChunked() {
+    return true;
+  }
+  
+  @Override
+  public boolean isRepeatable() {
+    // Content is compressed again on each write, so entity can be repeated whenever the wrapped entity can
+    return wrappedEntity.isRepeatable();
+  }
+  
+  /**
+   * Returns compressed content of the wrapped entity. Content is compressed into memory, so the stream 
+   * holds the whole compressed body.
+   */
+  @Override
+  public InputStream getContent() throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    writeTo(compressed);
+    return new ByteArrayInputStream(compressed.toByteArray());
+  }
+  
+  @Override
+  public void writeTo(OutputStream outputStream) throws IOException {
+    GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream);
+    wrappedEntity.writeTo(gzipOutputStream);
+    gzipOutputStream.finish();
+  }
+  
+}
@@ -0,0 +1,93 @@
+package fi.foyt.coops.io;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+import fi.foyt.coops.Auth;
+
+/**
+ * Description of a request passing through a {@link DelegatingIOHandler}
+ */
+public class IORequest {
+  
+  public enum Method {
+    GET,
+    POST,
+    PUT,
+    PATCH
+  }
+  
+  public IORequest(Method method, URI uri, String body, String contentType, Auth auth) {
+    this.method = method;
+    this.uri = uri;
+    this.body = body;
+    this.contentType = contentType;
+    this.auth = auth;
+  }
+  
+  public IORequest(Method method, URI uri, ByteBuffer bodyBytes, String contentType, Auth auth) {
+    this(method, uri, (String) null, contentType, auth);
+    this.bodyBytes = bodyBytes;
+  }
+  
+  public IORequest(Method method, URI uri, RequestBodyWriter bodyWriter, String contentType, Auth auth) {
+    this(method, uri, (String) null, contentType, auth);
+    this.bodyWriter = bodyWriter;
+  }
+  
+  public Method getMethod() {
+    return method;
+  }
+  
+  public URI getUri() {
+    return uri;
+  }
+  
+  /**
+   * Returns request body
+   * 
+   * @return request body or null if request does not have a body
+   */
+  public String getBody() {
+    return body;
+  }
+  
+  /**
+   * Returns request body of a byte request
+   * 
+   * @return request body or null if request is not a byte request or does not have a body
+   */
+  public ByteBuffer getBodyBytes() {
+    return bodyBytes;
+  }
+  
+  /**
+   * Returns request body of a streamed upload
+   * 
+   * @return request body or null if request is not a streamed upload
+   */
+  public RequestBodyWriter getBodyWriter() {
+    return bodyWriter;
+  }
+  
+  public String getContentType() {
+    return contentType;
+  }
+  
+  public Auth getAuth() {
+    return auth;
+  }
+  
+  @Override
+  public String toString() {
+    return method + " " + uri;
+  }
+  
+  private Method method;
+  private URI uri;
+  private String body;
+  private ByteBuffer bodyBytes;
+  private RequestBodyWriter bodyWriter;
+  private String contentType;
+  private Auth auth;
+}
@@ -0,0 +1,15 @@
+package fi.foyt.coops.io;
+
+/**
+ * IO handler that keeps a pool of connections and is able to report its utilization
+ */
+public interface PooledIOHandler extends IOHandler {
+
+  /**
+   * Returns current connection pool statistics
+   * 
+   * @return connection pool statistics
+   */
+  ConnectionPoolStatistics getPoolStatistics();
+  
+}
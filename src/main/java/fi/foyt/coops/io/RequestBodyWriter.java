@@ -0,0 +1,21 @@
+package fi.foyt.coops.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Request body that is written into the request stream while the request is being sent
+ */
+public interface RequestBodyWriter {
+
+  /**
+   * Writes the body into the request stream. 
+   * 
+   * The stream must not be closed by the writer.
+   * 
+   * @param out request stream
+   * @throws IOException IOException is thrown when writing fails
+   */
+  void writeTo(OutputStream out) throws IOException;
+  
+}
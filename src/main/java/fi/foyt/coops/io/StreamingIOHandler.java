@@ -0,0 +1,30 @@
+package fi.foyt.coops.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URI;
+
+import fi.foyt.coops.Auth;
+import fi.foyt.coops.ServerException;
+
+/**
+ * IO handler that is able to hand response contents over as a stream instead of reading 
+ * the whole response into memory.
+ */
+public interface StreamingIOHandler extends IOHandler {
+
+  /**
+   * Performs a GET request into requested uri and returns result contents as a stream. 
+   * 
+   * Caller is responsible for closing the returned reader. Underlying connection is released 
+   * when the reader is closed.
+   * 
+   * @param uri requested uri
+   * @param auth request authentication
+   * @return reader for result contents or null when server responded without content
+   * @throws IOException IOException is thrown when error occurs in server communication
+   * @throws ServerException ServerException is thrown when server responds with error code.
+   */
+  Reader doStreamingGetRequest(URI uri, Auth auth) throws IOException, ServerException;
+  
+}
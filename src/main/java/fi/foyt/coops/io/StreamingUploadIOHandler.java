@@ -0,0 +1,29 @@
+package fi.foyt.coops.io;
+
+import java.io.IOException;
+import java.net.URI;
+
+import fi.foyt.coops.Auth;
+import fi.foyt.coops.ServerException;
+
+/**
+ * IO handler that is able to send request bodies as a stream instead of building the whole body in memory. 
+ * 
+ * Streamed bodies are sent with chunked transfer encoding because their length is not known in advance.
+ */
+public interface StreamingUploadIOHandler extends IOHandler {
+
+  /**
+   * Performs a PUT request into the server with a streamed body
+   * 
+   * @param uri requested uri
+   * @param body writer for the request body
+   * @param contentType request content type
+   * @param auth request authentication
+   * @return result contents or null when server responded without content
+   * @throws IOException IOException is thrown when error occurs in server communication
+   * @throws ServerException ServerException is thrown when server responds with error code.
+   */
+  String doStreamingPutRequest(URI uri, RequestBodyWriter body, String contentType, Auth auth) throws IOException, ServerException;
+  
+}
@@ -0,0 +1,24 @@
+package fi.foyt.coops.journal;
+
+/**
+ * Policy for forcing journal writes onto the storage device
+ */
+public enum FsyncPolicy {
+  
+  /**
+   * Every append and acknowledgement is forced before the call returns. Survives power loss.
+   */
+  ALWAYS,
+  
+  /**
+   * Writes are forced when the sync interval has elapsed since the previous force. Survives process crashes, 
+   * power loss may lose writes of the last interval.
+   */
+  PERIODIC,
+  
+  /**
+   * Writes are left for the operating system to flush. Survives process crashes.
+   */
+  NEVER
+  
+}
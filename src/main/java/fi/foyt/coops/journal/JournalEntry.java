@@ -0,0 +1,30 @@
+package fi.foyt.coops.journal;
+
+import fi.foyt.coops.model.Patch;
+
+/**
+ * Patch stored in the journal
+ */
+public class JournalEntry {
+  
+  public JournalEntry(long sequence, Patch patch) {
+    this.sequence = sequence;
+    this.patch = patch;
+  }
+  
+  /**
+   * Returns sequence number of the entry. Sequence numbers grow in append order.
+   * 
+   * @return sequence number
+   */
+  public long getSequence() {
+    return sequence;
+  }
+  
+  public Patch getPatch() {
+    return patch;
+  }
+  
+  private long sequence;
+  private Patch patch;
+}
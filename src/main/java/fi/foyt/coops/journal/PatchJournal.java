@@ -0,0 +1,461 @@
+package fi.foyt.coops.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.apache.commons.lang3.StringUtils;
+
+import fi.foyt.coops.Auth;
+import fi.foyt.coops.CoOps;
+import fi.foyt.coops.ConflictException;
+import fi.foyt.coops.ServerException;
+import fi.foyt.coops.UsageException;
+import fi.foyt.coops.json.PatchTypeAdapter;
+import fi.foyt.coops.model.Patch;
+
+/**
+ * Durable journal of patches that have not yet been acknowledged by the server. 
+ * 
+ * Journal is an append-only log split into memory-mapped segment files. Each record is framed with its length and 
+ * a CRC32 checksum, so a record torn by a crash is detected and discarded on recovery. Acknowledgements are 
+ * appended as records of their own, and segments that only contain acknowledged patches are deleted. 
+ * 
+ * Typical usage is to append a patch before sending it with {@link CoOps#patchFile(Patch, Auth)}, acknowledge it 
+ * once the call has succeeded and {@link #replay(CoOps, Auth)} pending patches on restart or reconnect.
+ * 
+ * Journal directory must not be shared between journal instances.
+ */
+public class PatchJournal implements Closeable {
+  
+  public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+  
+  public static final long DEFAULT_SYNC_INTERVAL = 1000l;
+  
+  private static final String SEGMENT_SUFFIX = ".log";
+  
+  private static final byte RECORD_PATCH = 1;
+  
+  private static final byte RECORD_ACK = 2;
+  
+  // crc (4) + type (1) + sequence (8)
+  private static final int RECORD_HEADER_SIZE = 13;
+  
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  
+  public PatchJournal(Path directory) throws IOException {
+    this(directory, DEFAULT_SEGMENT_SIZE, FsyncPolicy.ALWAYS);
+  }
+
+  /**
+   * Opens a journal, recovering pending patches from existing segments
+   * 
+   * @param directory journal directory
+   * @param segmentSize size of segment files in bytes
+   * @param fsyncPolicy policy for forcing writes onto the storage device
+   * @throws IOException IOException is thrown when journal could not be opened
+   */
+  public PatchJournal(Path directory, int segmentSize, FsyncPolicy fsyncPolicy) throws IOException {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.fsyncPolicy = fsyncPolicy;
+    
+    Files.createDirectories(directory);
+    recover();
+  }
+  
+  /**
+   * Appends a patch into the journal
+   * 
+   * @param patch patch
+   * @return sequence number of the journal entry
+   * @throws IOException IOException is thrown when patch could not be written
+   */
+  public synchronized long append(Patch patch) throws IOException {
+    ensureOpen();
+    
+    long sequence = nextSequence++;
+    writeRecord(RECORD_PATCH, sequence, patchAdapter.toJson(patch).getBytes(UTF8));
+    pending.put(sequence, patch);
+    current.lastPatchSequence = sequence;
+    
+    return sequence;
+  }
+  
+  /**
+   * Acknowledges all patches up to and including given sequence number. Acknowledged patches are not replayed and 
+   * segments containing only acknowledged patches are deleted.
+   * 
+   * @param sequence sequence number
+   * @throws IOException IOException is thrown when acknowledgement could not be written
+   */
+  public synchronized void acknowledge(long sequence) throws IOException {
+    ensureOpen();
+    
+    if (sequence <= acknowledgedSequence) {
+      return;
+    }
+    
+    writeRecord(RECORD_ACK, sequence, new byte[0]);
+    acknowledgedSequence = sequence;
+    pending.headMap(sequence, true).clear();
+    deleteAcknowledgedSegments();
+  }
+  
+  /**
+   * Returns patches that have not been acknowledged, in append order
+   * 
+   * @return pending journal entries
+   */
+  public synchronized List<JournalEntry> getPending() {
+    List<JournalEntry> result = new ArrayList<>(pending.size());
+    for (Map.Entry<Long, Patch> entry : pending.entrySet()) {
+      result.add(new JournalEntry(entry.getKey(), entry.getValue()));
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Returns number of patches that have not been acknowledged
+   * 
+   * @return number of pending patches
+   */
+  public synchronized int getPendingCount() {
+    return pending.size();
+  }
+  
+  /**
+   * Sends pending patches to the server in append order, acknowledging each patch once it has been accepted. 
+   * 
+   * A patch that the server rejects with a conflict is acknowledged when the server has already applied it, 
+   * which happens when the process stopped after sending the patch but before acknowledging it. 
+   * Replay stops at the first other failure and the failed patch and all patches after it remain pending. 
+   * 
+   * @param coOps client of the file
+   * @param auth authentication used for the requests
+   * @return number of replayed patches
+   * @throws ServerException ServerException is thrown when server does not accept a patch
+   * @throws IOException IOException is thrown when error occurs in server communication or in writing the journal
+   * @throws UsageException UsageException is thrown when a pending patch is invalid
+   */
+  public int replay(CoOps coOps, Auth auth) throws UsageException, ServerException, IOException {
+    return replay(coOps, auth, null);
+  }
+  
+  /**
+   * Sends pending patches to the server in append order, acknowledging each patch once it has been accepted. 
+   * 
+   * A patch that the server rejects with a conflict is acknowledged when the server has already applied it. 
+   * Other conflicting patches are passed to the conflict handler, which may rebase or discard them.
+   * 
+   * @param coOps client of the file
+   * @param auth authentication used for the requests
+   * @param conflictHandler handler for conflicting patches or null to stop replay at the first conflict
+   * @return number of replayed patches, including patches that the server had already applied
+   * @throws ServerException ServerException is thrown when server does not accept a patch
+   * @throws IOException IOException is thrown when error occurs in server communication or in writing the journal
+   * @throws UsageException UsageException is thrown when a pending patch is invalid
+   */
+  public int replay(CoOps coOps, Auth auth, ReplayConflictHandler conflictHandler) throws UsageException, ServerException, IOException {
+    int replayed = 0;
+    for (JournalEntry entry : getPending()) {
+      Patch patch = entry.getPatch();
+      try {
+        coOps.patchFile(patch, auth);
+      } catch (ConflictException e) {
+        if (patch.getRevisionNumber() == null) {
+          throw e;
+        }
+        
+        Patch[] updates = coOps.getFileUpdates(patch.getRevisionNumber(), auth);
+        if (!isApplied(patch, updates)) {
+          if (conflictHandler == null) {
+            throw e;
+          }
+          
+          Patch resolved = conflictHandler.resolve(entry, updates);
+          if (resolved != null) {
+            coOps.patchFile(resolved, auth);
+          }
+        }
+      }
+      
+      acknowledge(entry.getSequence());
+      replayed++;
+    }
+    
+    return replayed;
+  }
+  
+  /**
+   * Forces written records onto the storage device
+   */
+  public synchronized void sync() {
+    if (current != null) {
+      current.buffer.force();
+      lastSync = System.currentTimeMillis();
+    }
+  }
+  
+  /**
+   * Rolls to a new segment when all patches have been acknowledged, releasing disk space used by the current segment
+   * 
+   * @throws IOException IOException is thrown when segments could not be rolled
+   */
+  public synchronized void compact() throws IOException {
+    ensureOpen();
+    
+    if (pending.isEmpty() && current.buffer.position() > 0) {
+      roll(0);
+      deleteAcknowledgedSegments();
+    }
+  }
+  
+  public long getSyncInterval() {
+    return syncInterval;
+  }
+  
+  /**
+   * Sets time in milliseconds between forced writes when using {@link FsyncPolicy#PERIODIC}
+   * 
+   * @param syncInterval sync interval in milliseconds
+   */
+  public void setSyncInterval(long syncInterval) {
+    this.syncInterval = syncInterval;
+  }
+  
+  /**
+   * Returns number of segment files in the journal
+   * 
+   * @return number of segment files
+   */
+  public synchronized int getSegmentCount() {
+    return segments.size() + (current != null ? 1 : 0);
+  }
+  
+  @Override
+  public synchronized void close() throws IOException {
+    if (current != null) {
+      if (fsyncPolicy != FsyncPolicy.NEVER) {
+        current.buffer.force();
+      }
+      
+      current.channel.close();
+      current = null;
+    }
+  }
+  
+  private void writeRecord(byte type, long sequence, byte[] payload) throws IOException {
+    int recordSize = 4 + RECORD_HEADER_SIZE + payload.length;
+    // Leave room for the zero length that terminates the segment
+    if (current.buffer.remaining() < recordSize + 4) {
+      roll(recordSize + 4);
+    }
+    
+    CRC32 crc = new CRC32();
+    crc.update(type);
+    crc.update(longToBytes(sequence));
+    crc.update(payload);
+    
+    MappedByteBuffer buffer = current.buffer;
+    int start = buffer.position();
+    buffer.position(start + 4);
+    buffer.putInt((int) crc.getValue());
+    buffer.put(type);
+    buffer.putLong(sequence);
+    buffer.put(payload);
+    // Length is written last so that a partially written record is never taken as complete
+    buffer.putInt(start, RECORD_HEADER_SIZE + payload.length);
+    
+    switch (fsyncPolicy) {
+      case ALWAYS:
+        sync();
+      break;
+      case PERIODIC:
+        if (System.currentTimeMillis() - lastSync >= syncInterval) {
+          sync();
+        }
+      break;
+      default:
+      break;
+    }
+  }
+  
+  private void roll(int minSize) throws IOException {
+    if (current != null) {
+      if (fsyncPolicy != FsyncPolicy.NEVER) {
+        current.buffer.force();
+      }
+      
+      current.channel.close();
+      current.buffer = null;
+      segments.add(current);
+    }
+    
+    current = openSegment(directory.resolve(String.format("%020d%s", nextSegmentId++, SEGMENT_SUFFIX)), Math.max(segmentSize, minSize));
+  }
+  
+  private void deleteAcknowledgedSegments() throws IOException {
+    Iterator<Segment> iterator = segments.iterator();
+    while (iterator.hasNext()) {
+      Segment segment = iterator.next();
+      if (segment.lastPatchSequence > acknowledgedSequence) {
+        // Segments are deleted in order so that replay never sees a gap
+        break;
+      }
+      
+      Files.deleteIfExists(segment.path);
+      iterator.remove();
+    }
+  }
+  
+  private void recover() throws IOException {
+    List<Path> paths = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+      for (Path path : stream) {
+        paths.add(path);
+      }
+    }
+    
+    Collections.sort(paths);
+    
+    for (Path path : paths) {
+      String name = path.getFileName().toString();
+      nextSegmentId = Math.max(nextSegmentId, Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())) + 1);
+    }
+    
+    for (int i = 0, l = paths.size(); i < l; i++) {
+      Segment segment = openSegment(paths.get(i), 0);
+      readRecords(segment);
+      
+      if (i < l - 1) {
+        segment.channel.close();
+        segment.buffer = null;
+        segments.add(segment);
+      } else {
+        current = segment;
+      }
+    }
+    
+    pending.headMap(acknowledgedSequence, true).clear();
+    
+    if (current == null) {
+      roll(0);
+    }
+    
+    deleteAcknowledgedSegments();
+  }
+  
+  private void readRecords(Segment segment) throws IOException {
+    MappedByteBuffer buffer = segment.buffer;
+    
+    while (buffer.remaining() >= 4 + RECORD_HEADER_SIZE) {
+      int start = buffer.position();
+      int length = buffer.getInt();
+      if ((length < RECORD_HEADER_SIZE) || (length > buffer.remaining())) {
+        // End of segment or torn record
+        buffer.position(start);
+        break;
+      }
+      
+      int checksum = buffer.getInt();
+      byte type = buffer.get();
+      long sequence = buffer.getLong();
+      byte[] payload = new byte[length - RECORD_HEADER_SIZE];
+      buffer.get(payload);
+      
+      CRC32 crc = new CRC32();
+      crc.update(type);
+      crc.update(longToBytes(sequence));
+      crc.update(payload);
+      if (checksum != (int) crc.getValue()) {
+        buffer.position(start);
+        break;
+      }
+      
+      nextSequence = Math.max(nextSequence, sequence + 1);
+      
+      if (type == RECORD_PATCH) {
+        pending.put(sequence, patchAdapter.fromJson(new String(payload, UTF8)));
+        segment.lastPatchSequence = Math.max(segment.lastPatchSequence, sequence);
+      } else if (type == RECORD_ACK) {
+        acknowledgedSequence = Math.max(acknowledgedSequence, sequence);
+      }
+    }
+  }
+  
+  private Segment openSegment(Path path, int minSize) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      long size = Math.max(channel.size(), minSize > 0 ? minSize : segmentSize);
+      return new Segment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+  
+  private boolean isApplied(Patch patch, Patch[] updates) {
+    // First update after the base revision is the pending patch when the server has already applied it
+    if (updates.length == 0) {
+      return false;
+    }
+    
+    Patch first = updates[0];
+    return ((first.getRevisionNumber() == null) || (first.getRevisionNumber() == patch.getRevisionNumber() + 1)) 
+      && StringUtils.equals(first.getAlgorithm(), patch.getAlgorithm()) 
+      && StringUtils.equals(first.getPatch(), patch.getPatch());
+  }
+  
+  private void ensureOpen() throws IOException {
+    if (current == null) {
+      throw new IOException("Journal is closed");
+    }
+  }
+  
+  private static byte[] longToBytes(long value) {
+    return ByteBuffer.allocate(8).putLong(value).array();
+  }
+  
+  private Path directory;
+  private int segmentSize;
+  private FsyncPolicy fsyncPolicy;
+  private volatile long syncInterval = DEFAULT_SYNC_INTERVAL;
+  private long lastSync;
+  private long nextSegmentId = 1;
+  private long nextSequence = 1;
+  private long acknowledgedSequence;
+  private TreeMap<Long, Patch> pending = new TreeMap<>();
+  private List<Segment> segments = new ArrayList<>();
+  private Segment current;
+  private PatchTypeAdapter patchAdapter = new PatchTypeAdapter();
+  
+  private static class Segment {
+    
+    public Segment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+      this.path = path;
+      this.channel = channel;
+      this.buffer = buffer;
+    }
+    
+    private Path path;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long lastPatchSequence;
+  }
+}
@@ -0,0 +1,20 @@
+package fi.foyt.coops.journal;
+
+import fi.foyt.coops.model.Patch;
+
+/**
+ * Resolves pending patches that the server rejects during {@link PatchJournal#replay(fi.foyt.coops.CoOps, fi.foyt.coops.Auth, ReplayConflictHandler)} 
+ * because the file has been changed by others
+ */
+public interface ReplayConflictHandler {
+
+  /**
+   * Resolves a conflicting pending patch
+   * 
+   * @param entry conflicting journal entry
+   * @param updates patches applied into the file after the base revision of the pending patch
+   * @return patch rebased on top of the updates that is sent instead of the pending patch or null to discard the pending patch
+   */
+  public Patch resolve(JournalEntry entry, Patch[] updates);
+  
+}
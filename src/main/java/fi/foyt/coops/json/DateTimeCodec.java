@@ -0,0 +1,143 @@
+package fi.foyt.coops.json;
+
+import java.text.DateFormat;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.joda.time.DateTime;
+import org.joda.time.MutableDateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * Date codec used by JSON serialization. 
+ * 
+ * Parsing detects the format up front and reports failures by returning null instead of throwing, so 
+ * non-ISO dates do not cost an exception per value. Supported formats are ISO-8601, epoch milliseconds 
+ * and the formats accepted by Gson's default date adapter.
+ */
+public class DateTimeCodec {
+  
+  private DateTimeCodec() {
+  }
+
+  /**
+   * Formats date as an ISO-8601 string
+   * 
+   * @param dateTime date
+   * @return formatted date
+   */
+  public static String format(DateTime dateTime) {
+    return ISO_PRINTER.print(dateTime);
+  }
+
+  /**
+   * Parses date from epoch milliseconds
+   * 
+   * @param millis milliseconds since epoch
+   * @return date
+   */
+  public static DateTime parse(long millis) {
+    return new DateTime(millis);
+  }
+  
+  /**
+   * Parses date from a string. 
+   * 
+   * @param value string
+   * @return parsed date or null if string could not be parsed
+   */
+  public static DateTime parse(String value) {
+    if (value == null) {
+      return null;
+    }
+    
+    String trimmed = value.trim();
+    if (trimmed.isEmpty()) {
+      return null;
+    }
+    
+    if (isEpochMillis(trimmed)) {
+      return new DateTime(Long.parseLong(trimmed));
+    }
+    
+    if (isIsoCandidate(trimmed)) {
+      DateTime result = parseIso(trimmed);
+      if (result != null) {
+        return result;
+      }
+    }
+    
+    return parseFallback(value);
+  }
+  
+  private static boolean isEpochMillis(String value) {
+    // ISO years are at most 9 digits long, so longer digit-only strings can only be epoch milliseconds
+    int start = value.charAt(0) == '-' ? 1 : 0;
+    int digits = value.length() - start;
+    if (digits <= MAX_ISO_YEAR_DIGITS || digits > MAX_LONG_DIGITS) {
+      return false;
+    }
+    
+    for (int i = start, l = value.length(); i < l; i++) {
+      char c = value.charAt(i);
+      if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+    
+    return true;
+  }
+  
+  private static boolean isIsoCandidate(String value) {
+    char c = value.charAt(0);
+    return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == 'T';
+  }
+  
+  private static DateTime parseIso(String value) {
+    MutableDateTime result = new MutableDateTime(1970, 1, 1, 0, 0, 0, 0);
+    try {
+      if (ISO_PARSER.parseInto(result, value, 0) != value.length()) {
+        return null;
+      }
+    } catch (IllegalArgumentException e) {
+      // Syntactically valid but out of range values (e.g. month 13)
+      return null;
+    }
+    
+    return result.toDateTime();
+  }
+  
+  private static DateTime parseFallback(String value) {
+    for (DateFormat format : FALLBACK_FORMATS.get()) {
+      Date date = format.parse(value, new ParsePosition(0));
+      if (date != null) {
+        return new DateTime(date);
+      }
+    }
+    
+    return null;
+  }
+  
+  private static final int MAX_ISO_YEAR_DIGITS = 9;
+  private static final int MAX_LONG_DIGITS = 18;
+  private static final DateTimeFormatter ISO_PARSER = ISODateTimeFormat.dateTimeParser();
+  private static final DateTimeFormatter ISO_PRINTER = ISODateTimeFormat.dateTime();
+  private static final ThreadLocal<DateFormat[]> FALLBACK_FORMATS = new ThreadLocal<DateFormat[]>() {
+    @Override
+    protected DateFormat[] initialValue() {
+      // Same formats and order as Gson's default date adapter
+      DateFormat iso8601Format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+      iso8601Format.setTimeZone(TimeZone.getTimeZone("UTC"));
+      
+      return new DateFormat[] {
+        DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT),
+        DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US),
+        iso8601Format
+      };
+    }
+  };
+}
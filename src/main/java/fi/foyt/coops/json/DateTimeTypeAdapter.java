@@ -0,0 +1,47 @@
+package fi.foyt.coops.json;
+
+import java.io.IOException;
+
+import org.joda.time.DateTime;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Streaming type adapter for Joda DateTime. 
+ * 
+ * Dates are written as ISO-8601 strings. Strings and numbers are parsed with {@link DateTimeCodec}, so short numbers 
+ * such as 2014 are read as ISO years and numbers longer than an ISO year as epoch milliseconds.
+ */
+public class DateTimeTypeAdapter extends TypeAdapter<DateTime> {
+  
+  @Override
+  public void write(JsonWriter out, DateTime value) throws IOException {
+    if (value == null) {
+      out.nullValue();
+      return;
+    }
+    
+    out.value(DateTimeCodec.format(value));
+  }
+
+  @Override
+  public DateTime read(JsonReader in) throws IOException {
+    switch (in.peek()) {
+      case NULL:
+        in.nextNull();
+        return null;
+      default:
+        String value = JsonReaders.readString(in);
+        DateTime result = DateTimeCodec.parse(value);
+        if (result == null) {
+          throw new JsonSyntaxException("Unparseable date: \"" + value + "\"");
+        }
+        
+        return result;
+    }
+  }
+  
+}
@@ -0,0 +1,117 @@
+package fi.foyt.coops.json;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import fi.foyt.coops.model.FileJoin;
+
+/**
+ * Streaming type adapter for {@link FileJoin}
+ */
+public class FileJoinTypeAdapter extends TypeAdapter<FileJoin> {
+
+  @Override
+  public void write(JsonWriter out, FileJoin value) throws IOException {
+    if (value == null) {
+      out.nullValue();
+      return;
+    }
+    
+    out.beginObject();
+    
+    if (value.getExtensions() != null) {
+      out.name("extensions");
+      out.beginArray();
+      for (String extension : value.getExtensions()) {
+        out.value(extension);
+      }
+      out.endArray();
+    } else if (out.getSerializeNulls()) {
+      out.name("extensions").nullValue();
+    }
+    
+    JsonWriters.writeString(out, "fileId", value.getFileId());
+    JsonWriters.writeNumber(out, "revisionNumber", value.getRevisionNumber());
+    JsonWriters.writeString(out, "content", value.getContent());
+    JsonWriters.writeString(out, "contentType", value.getContentType());
+    JsonWriters.writeString(out, "clientId", value.getClientId());
+    JsonWriters.writeString(out, "unsecureWebSocketUrl", value.getUnsecureWebSocketUrl());
+    JsonWriters.writeString(out, "secureWebSocketUrl", value.getSecureWebSocketUrl());
+    out.endObject();
+  }
+
+  @Override
+  public FileJoin read(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    
+    FileJoin fileJoin = new FileJoin();
+    
+    in.beginObject();
+    while (in.hasNext()) {
+      String name = in.nextName();
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        continue;
+      }
+      
+      switch (name) {
+        case "extensions":
+          fileJoin.setExtensions(readStringArray(in));
+        break;
+        case "fileId":
+          fileJoin.setFileId(JsonReaders.readString(in));
+        break;
+        case "revisionNumber":
+          fileJoin.setRevisionNumber(JsonReaders.readLong(in));
+        break;
+        case "content":
+          fileJoin.setContent(JsonReaders.readString(in));
+        break;
+        case "contentType":
+          fileJoin.setContentType(JsonReaders.readString(in));
+        break;
+        case "clientId":
+          fileJoin.setClientId(JsonReaders.readString(in));
+        break;
+        case "unsecureWebSocketUrl":
+          fileJoin.setUnsecureWebSocketUrl(JsonReaders.readString(in));
+        break;
+        case "secureWebSocketUrl":
+          fileJoin.setSecureWebSocketUrl(JsonReaders.readString(in));
+        break;
+        default:
+          in.skipValue();
+        break;
+      }
+    }
+    in.endObject();
+    
+    return fileJoin;
+  }
+  
+  private String[] readStringArray(JsonReader in) throws IOException {
+    List<String> result = new ArrayList<>();
+    
+    in.beginArray();
+    while (in.hasNext()) {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        result.add(null);
+      } else {
+        result.add(JsonReaders.readString(in));
+      }
+    }
+    in.endArray();
+    
+    return result.toArray(new String[result.size()]);
+  }
+}
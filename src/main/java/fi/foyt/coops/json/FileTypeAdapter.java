@@ -0,0 +1,110 @@
+package fi.foyt.coops.json;
+
+import java.io.IOException;
+
+import org.joda.time.DateTime;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import fi.foyt.coops.model.File;
+import fi.foyt.coops.model.FileUserRole;
+
+/**
+ * Streaming type adapter for {@link File}
+ */
+public class FileTypeAdapter extends TypeAdapter<File> {
+  
+  public FileTypeAdapter(TypeAdapter<DateTime> dateTimeAdapter) {
+    this.dateTimeAdapter = dateTimeAdapter;
+  }
+
+  @Override
+  public void write(JsonWriter out, File value) throws IOException {
+    if (value == null) {
+      out.nullValue();
+      return;
+    }
+    
+    out.beginObject();
+    JsonWriters.writeString(out, "id", value.getId());
+    JsonWriters.writeString(out, "name", value.getName());
+    JsonWriters.writeString(out, "content", value.getContent());
+    JsonWriters.writeString(out, "contentType", value.getContentType());
+    JsonWriters.writeString(out, "role", value.getRole() != null ? value.getRole().name() : null);
+    
+    if (value.getModified() != null) {
+      out.name("modified");
+      dateTimeAdapter.write(out, value.getModified());
+    } else if (out.getSerializeNulls()) {
+      out.name("modified").nullValue();
+    }
+    
+    JsonWriters.writeNumber(out, "revisionNumber", value.getRevisionNumber());
+    out.endObject();
+  }
+
+  @Override
+  public File read(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    
+    File file = new File();
+    
+    in.beginObject();
+    while (in.hasNext()) {
+      String name = in.nextName();
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        continue;
+      }
+      
+      switch (name) {
+        case "id":
+          file.setId(JsonReaders.readString(in));
+        break;
+        case "name":
+          file.setName(JsonReaders.readString(in));
+        break;
+        case "content":
+          file.setContent(JsonReaders.readString(in));
+        break;
+        case "contentType":
+          file.setContentType(JsonReaders.readString(in));
+        break;
+        case "role":
+          file.setRole(readRole(in));
+        break;
+        case "modified":
+          file.setModified(dateTimeAdapter.read(in));
+        break;
+        case "revisionNumber":
+          file.setRevisionNumber(JsonReaders.readLong(in));
+        break;
+        default:
+          in.skipValue();
+        break;
+      }
+    }
+    in.endObject();
+    
+    return file;
+  }
+  
+  private FileUserRole readRole(JsonReader in) throws IOException {
+    String value = JsonReaders.readString(in);
+    for (FileUserRole role : FileUserRole.values()) {
+      if (role.name().equals(value)) {
+        return role;
+      }
+    }
+    
+    return null;
+  }
+  
+  private TypeAdapter<DateTime> dateTimeAdapter;
+}
@@ -0,0 +1,37 @@
+package fi.foyt.coops.json;
+
+import java.io.IOException;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Helpers for reading primitive values the same way Gson's built-in adapters do
+ */
+class JsonReaders {
+  
+  private JsonReaders() {
+  }
+
+  public static String readString(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.BOOLEAN) {
+      return Boolean.toString(in.nextBoolean());
+    }
+    
+    try {
+      return in.nextString();
+    } catch (IllegalStateException e) {
+      throw new JsonSyntaxException(e);
+    }
+  }
+  
+  public static Long readLong(JsonReader in) throws IOException {
+    try {
+      return in.nextLong();
+    } catch (NumberFormatException | IllegalStateException e) {
+      throw new JsonSyntaxException(e);
+    }
+  }
+  
+}
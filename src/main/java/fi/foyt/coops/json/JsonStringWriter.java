@@ -0,0 +1,87 @@
+package fi.foyt.coops.json;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writer that escapes everything written into it as the contents of a JSON string literal. 
+ * 
+ * Surrounding quotes are not written. Escaping follows the rules used by Gson without HTML escaping.
+ */
+public class JsonStringWriter extends FilterWriter {
+  
+  private static final String[] REPLACEMENTS = new String[128];
+  
+  static {
+    for (int i = 0; i < 0x20; i++) {
+      REPLACEMENTS[i] = String.format("\\u%04x", i);
+    }
+    
+    REPLACEMENTS['"'] = "\\\"";
+    REPLACEMENTS['\\'] = "\\\\";
+    REPLACEMENTS['\t'] = "\\t";
+    REPLACEMENTS['\b'] = "\\b";
+    REPLACEMENTS['\n'] = "\\n";
+    REPLACEMENTS['\r'] = "\\r";
+    REPLACEMENTS['\f'] = "\\f";
+  }
+
+  public JsonStringWriter(Writer out) {
+    super(out);
+  }
+  
+  @Override
+  public void write(int c) throws IOException {
+    String replacement = getReplacement((char) c);
+    if (replacement != null) {
+      out.write(replacement);
+    } else {
+      out.write(c);
+    }
+  }
+  
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    // Unescaped runs are passed on as such
+    int last = off;
+    int end = off + len;
+    for (int i = off; i < end; i++) {
+      String replacement = getReplacement(cbuf[i]);
+      if (replacement != null) {
+        if (last < i) {
+          out.write(cbuf, last, i - last);
+        }
+        
+        out.write(replacement);
+        last = i + 1;
+      }
+    }
+    
+    if (last < end) {
+      out.write(cbuf, last, end - last);
+    }
+  }
+  
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    write(str.substring(off, off + len).toCharArray(), 0, len);
+  }
+  
+  private static String getReplacement(char c) {
+    if (c < 128) {
+      return REPLACEMENTS[c];
+    }
+    
+    if (c == '\u2028') {
+      return "\\u2028";
+    }
+    
+    if (c == '\u2029') {
+      return "\\u2029";
+    }
+    
+    return null;
+  }
+  
+}
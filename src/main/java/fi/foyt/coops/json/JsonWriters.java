@@ -0,0 +1,31 @@
+package fi.foyt.coops.json;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Helpers for writing optional object members
+ */
+class JsonWriters {
+  
+  private JsonWriters() {
+  }
+
+  public static void writeString(JsonWriter out, String name, String value) throws IOException {
+    if (value != null) {
+      out.name(name).value(value);
+    } else if (out.getSerializeNulls()) {
+      out.name(name).nullValue();
+    }
+  }
+  
+  public static void writeNumber(JsonWriter out, String name, Number value) throws IOException {
+    if (value != null) {
+      out.name(name).value(value);
+    } else if (out.getSerializeNulls()) {
+      out.name(name).nullValue();
+    }
+  }
+  
+}
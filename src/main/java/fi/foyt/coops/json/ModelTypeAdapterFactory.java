@@ -0,0 +1,43 @@
+package fi.foyt.coops.json;
+
+import org.joda.time.DateTime;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+
+import fi.foyt.coops.model.File;
+import fi.foyt.coops.model.FileJoin;
+import fi.foyt.coops.model.Patch;
+
+/**
+ * Type adapter factory that provides reflection-free streaming type adapters for the model classes and Joda DateTime
+ */
+public class ModelTypeAdapterFactory implements TypeAdapterFactory {
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+    Class<? super T> rawType = type.getRawType();
+    
+    if (rawType == DateTime.class) {
+      return (TypeAdapter<T>) new DateTimeTypeAdapter();
+    }
+    
+    if (rawType == File.class) {
+      return (TypeAdapter<T>) new FileTypeAdapter(gson.getAdapter(DateTime.class));
+    }
+    
+    if (rawType == FileJoin.class) {
+      return (TypeAdapter<T>) new FileJoinTypeAdapter();
+    }
+    
+    if (rawType == Patch.class) {
+      return (TypeAdapter<T>) new PatchTypeAdapter();
+    }
+    
+    return null;
+  }
+
+}
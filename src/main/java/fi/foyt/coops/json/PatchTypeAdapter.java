@@ -0,0 +1,103 @@
+package fi.foyt.coops.json;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import fi.foyt.coops.model.Patch;
+
+/**
+ * Streaming type adapter for {@link Patch}
+ */
+public class PatchTypeAdapter extends TypeAdapter<Patch> {
+
+  @Override
+  public void write(JsonWriter out, Patch value) throws IOException {
+    if (value == null) {
+      out.nullValue();
+      return;
+    }
+    
+    out.beginObject();
+    JsonWriters.writeNumber(out, "revisionNumber", value.getRevisionNumber());
+    JsonWriters.writeString(out, "patch", value.getPatch());
+    JsonWriters.writeString(out, "algorithm", value.getAlgorithm());
+    
+    if (value.getProperties() != null) {
+      out.name("properties");
+      out.beginObject();
+      for (Map.Entry<String, String> property : value.getProperties().entrySet()) {
+        out.name(String.valueOf(property.getKey()));
+        out.value(property.getValue());
+      }
+      out.endObject();
+    } else if (out.getSerializeNulls()) {
+      out.name("properties").nullValue();
+    }
+    
+    out.endObject();
+  }
+
+  @Override
+  public Patch read(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    
+    Patch patch = new Patch();
+    
+    in.beginObject();
+    while (in.hasNext()) {
+      String name = in.nextName();
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        continue;
+      }
+      
+      switch (name) {
+        case "revisionNumber":
+          patch.setRevisionNumber(JsonReaders.readLong(in));
+        break;
+        case "patch":
+          patch.setPatch(JsonReaders.readString(in));
+        break;
+        case "algorithm":
+          patch.setAlgorithm(JsonReaders.readString(in));
+        break;
+        case "properties":
+          patch.setProperties(readProperties(in));
+        break;
+        default:
+          in.skipValue();
+        break;
+      }
+    }
+    in.endObject();
+    
+    return patch;
+  }
+  
+  private Map<String, String> readProperties(JsonReader in) throws IOException {
+    Map<String, String> result = new LinkedHashMap<>();
+    
+    in.beginObject();
+    while (in.hasNext()) {
+      String name = in.nextName();
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        result.put(name, null);
+      } else {
+        result.put(name, JsonReaders.readString(in));
+      }
+    }
+    in.endObject();
+    
+    return result;
+  }
+}
@@ -0,0 +1,113 @@
+package fi.foyt.coops.metrics;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fi.foyt.coops.io.ConnectionPoolStatistics;
+
+/**
+ * Metrics collector that keeps metrics in memory. 
+ * 
+ * Metrics can be polled with {@link #getMetrics(Operation)} and exported into monitoring systems. 
+ */
+public class InMemoryMetricsCollector implements MetricsCollector {
+  
+  public InMemoryMetricsCollector() {
+    for (Operation operation : Operation.values()) {
+      operations.put(operation, new OperationCounters());
+    }
+  }
+
+  @Override
+  public void recordSuccess(Operation operation, long durationNanos, long requestBytes, long responseBytes) {
+    OperationCounters counters = operations.get(operation);
+    counters.latencies.record(durationNanos);
+    counters.successCount.incrementAndGet();
+    counters.requestBytes.addAndGet(requestBytes);
+    counters.responseBytes.addAndGet(responseBytes);
+  }
+
+  @Override
+  public void recordFailure(Operation operation, long durationNanos, Exception exception) {
+    OperationCounters counters = operations.get(operation);
+    counters.latencies.record(durationNanos);
+    counters.failureCount.incrementAndGet();
+    
+    String errorName = exception.getClass().getName();
+    AtomicLong errorCount = counters.errorCounts.get(errorName);
+    if (errorCount == null) {
+      AtomicLong created = new AtomicLong();
+      errorCount = counters.errorCounts.putIfAbsent(errorName, created);
+      if (errorCount == null) {
+        errorCount = created;
+      }
+    }
+    
+    errorCount.incrementAndGet();
+  }
+
+  @Override
+  public void recordPoolStatistics(ConnectionPoolStatistics statistics) {
+    poolStatistics = statistics;
+    
+    int current = peakLeasedConnections.get();
+    while (statistics.getLeased() > current && !peakLeasedConnections.compareAndSet(current, statistics.getLeased())) {
+      current = peakLeasedConnections.get();
+    }
+  }
+  
+  /**
+   * Returns snapshot of metrics recorded for an operation
+   * 
+   * @param operation operation
+   * @return metrics snapshot
+   */
+  public OperationMetrics getMetrics(Operation operation) {
+    OperationCounters counters = operations.get(operation);
+    
+    Map<String, Long> errorCounts = new HashMap<>();
+    for (Map.Entry<String, AtomicLong> errorCount : counters.errorCounts.entrySet()) {
+      errorCounts.put(errorCount.getKey(), errorCount.getValue().get());
+    }
+    
+    return new OperationMetrics(operation, counters.successCount.get(), counters.failureCount.get(), counters.requestBytes.get(), 
+        counters.responseBytes.get(), errorCounts, counters.latencies.copy());
+  }
+  
+  /**
+   * Returns latest recorded connection pool statistics
+   * 
+   * @return connection pool statistics or null if none have been recorded
+   */
+  public ConnectionPoolStatistics getPoolStatistics() {
+    return poolStatistics;
+  }
+  
+  /**
+   * Returns highest number of leased connections seen
+   * 
+   * @return highest number of leased connections
+   */
+  public int getPeakLeasedConnections() {
+    return peakLeasedConnections.get();
+  }
+  
+  private Map<Operation, OperationCounters> operations = new EnumMap<>(Operation.class);
+  private volatile ConnectionPoolStatistics poolStatistics;
+  private AtomicInteger peakLeasedConnections = new AtomicInteger();
+  
+  private static class OperationCounters {
+    
+    private LatencyHistogram latencies = new LatencyHistogram();
+    private AtomicLong successCount = new AtomicLong();
+    private AtomicLong failureCount = new AtomicLong();
+    private AtomicLong requestBytes = new AtomicLong();
+    private AtomicLong responseBytes = new AtomicLong();
+    private ConcurrentMap<String, AtomicLong> errorCounts = new ConcurrentHashMap<>();
+  }
+}
@@ -0,0 +1,284 @@
+package fi.foyt.coops.metrics;
+
+import java.io.FilterOutputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fi.foyt.coops.Auth;
+import fi.foyt.coops.ServerException;
+import fi.foyt.coops.io.ConditionalResponse;
+import fi.foyt.coops.io.DelegatingIOHandler;
+import fi.foyt.coops.io.IOHandler;
+import fi.foyt.coops.io.IORequest;
+import fi.foyt.coops.io.PooledIOHandler;
+import fi.foyt.coops.io.RequestBodyWriter;
+
+/**
+ * IO handler that records latency, payload size and error metrics of requests made through another IO handler. 
+ * 
+ * Streaming responses are recorded when the response reader is closed, so their latency covers the whole 
+ * transfer of the response. A streaming response that fails while it is being read is recorded as a failure. 
+ * 
+ * Byte counts are measured from the decoded content, so they are UTF-8 encoded sizes rather than the number of 
+ * bytes transferred over the wire, which differ when the transfer is compressed or uses another charset. Streamed 
+ * request bodies are counted as the bytes they write into the request stream.
+ */
+public class InstrumentedIOHandler extends DelegatingIOHandler {
+  
+  public InstrumentedIOHandler(IOHandler delegate, MetricsCollector metricsCollector) {
+    super(delegate);
+    this.metricsCollector = metricsCollector;
+    this.pooledIOHandler = findPooledIOHandler(delegate);
+  }
+  
+  public MetricsCollector getMetricsCollector() {
+    return metricsCollector;
+  }
+  
+  @SuppressWarnings("unchecked")
+  @Override
+  protected <T> T execute(IORequest request, IOCall<T> call) throws IOException, ServerException {
+    Operation operation = Operation.resolve(request);
+    long requestBytes = request.getBodyBytes() != null ? request.getBodyBytes().remaining() : utf8Length(request.getBody());
+    long startTime = System.nanoTime();
+    
+    T result;
+    try {
+      result = call.call();
+    } catch (IOException | ServerException | RuntimeException e) {
+      metricsCollector.recordFailure(operation, System.nanoTime() - startTime, e);
+      recordPoolStatistics();
+      throw e;
+    }
+    
+    if (request.getBodyWriter() instanceof CountingBodyWriter) {
+      // Streamed body has been written by the time the request completes
+      requestBytes = ((CountingBodyWriter) request.getBodyWriter()).getCount();
+    }
+    
+    if (result instanceof Reader) {
+      return (T) new CountingReader((Reader) result, operation, startTime, requestBytes);
+    }
+    
+    if (result instanceof ConditionalResponse) {
+      ConditionalResponse response = (ConditionalResponse) result;
+      if (response.getContent() != null) {
+        Reader content = new CountingReader(response.getContent(), operation, startTime, requestBytes);
+        return (T) new ConditionalResponse(response.isModified(), response.getETag(), response.getLastModified(), content);
+      }
+      
+      recordSuccess(operation, startTime, requestBytes, 0);
+      return result;
+    }
+    
+    long responseBytes = 0;
+    if (result instanceof String) {
+      responseBytes = utf8Length((String) result);
+    } else if (result instanceof ByteBuffer) {
+      responseBytes = ((ByteBuffer) result).remaining();
+    }
+    
+    recordSuccess(operation, startTime, requestBytes, responseBytes);
+    
+    return result;
+  }
+  
+  @Override
+  public String doStreamingPutRequest(URI uri, RequestBodyWriter body, String contentType, Auth auth) throws IOException, ServerException {
+    return super.doStreamingPutRequest(uri, new CountingBodyWriter(body), contentType, auth);
+  }
+  
+  private void recordSuccess(Operation operation, long startTime, long requestBytes, long responseBytes) {
+    metricsCollector.recordSuccess(operation, System.nanoTime() - startTime, requestBytes, responseBytes);
+    recordPoolStatistics();
+  }
+  
+  private void recordPoolStatistics() {
+    if (pooledIOHandler != null) {
+      metricsCollector.recordPoolStatistics(pooledIOHandler.getPoolStatistics());
+    }
+  }
+  
+  private static PooledIOHandler findPooledIOHandler(IOHandler ioHandler) {
+    IOHandler current = ioHandler;
+    while (current != null) {
+      if (current instanceof PooledIOHandler) {
+        return (PooledIOHandler) current;
+      }
+      
+      current = current instanceof DelegatingIOHandler ? ((DelegatingIOHandler) current).getDelegate() : null;
+    }
+    
+    return null;
+  }
+  
+  private static long utf8Length(String text) {
+    if (text == null) {
+      return 0;
+    }
+    
+    Utf8Counter counter = new Utf8Counter();
+    for (int i = 0, l = text.length(); i < l; i++) {
+      counter.add(text.charAt(i));
+    }
+    
+    return counter.getCount();
+  }
+  
+  private MetricsCollector metricsCollector;
+  private PooledIOHandler pooledIOHandler;
+  
+  /**
+   * Counts the UTF-8 encoded size of a character sequence. Surrogate pairs may be split between calls.
+   */
+  private static class Utf8Counter {
+    
+    public void add(char c) {
+      if (pendingHighSurrogate) {
+        pendingHighSurrogate = false;
+        if (Character.isLowSurrogate(c)) {
+          count += 4;
+          return;
+        }
+        
+        // Unpaired surrogate is encoded as a single replacement byte
+        count += 1;
+      }
+      
+      if (c < 0x80) {
+        count += 1;
+      } else if (c < 0x800) {
+        count += 2;
+      } else if (Character.isHighSurrogate(c)) {
+        pendingHighSurrogate = true;
+      } else if (Character.isLowSurrogate(c)) {
+        count += 1;
+      } else {
+        count += 3;
+      }
+    }
+    
+    public long getCount() {
+      return pendingHighSurrogate ? count + 1 : count;
+    }
+    
+    private long count;
+    private boolean pendingHighSurrogate;
+  }
+  
+  /**
+   * Counts the bytes a streamed request body writes into the request stream
+   */
+  private static class CountingBodyWriter implements RequestBodyWriter {
+    
+    public CountingBodyWriter(RequestBodyWriter body) {
+      this.body = body;
+    }
+    
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      body.writeTo(new FilterOutputStream(out) {
+        
+        @Override
+        public void write(int b) throws IOException {
+          out.write(b);
+          count.incrementAndGet();
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+          count.addAndGet(len);
+        }
+        
+        @Override
+        public void close() throws IOException {
+          // Request stream is owned by the IO handler
+          flush();
+        }
+      });
+    }
+    
+    public long getCount() {
+      return count.get();
+    }
+    
+    private RequestBodyWriter body;
+    private AtomicLong count = new AtomicLong();
+  }
+  
+  private class CountingReader extends FilterReader {
+    
+    public CountingReader(Reader in, Operation operation, long startTime, long requestBytes) {
+      super(in);
+      this.operation = operation;
+      this.startTime = startTime;
+      this.requestBytes = requestBytes;
+    }
+    
+    @Override
+    public int read() throws IOException {
+      int c;
+      try {
+        c = super.read();
+      } catch (IOException e) {
+        fail(e);
+        throw e;
+      }
+      
+      if (c != -1) {
+        responseCounter.add((char) c);
+      }
+      
+      return c;
+    }
+    
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      int read;
+      try {
+        read = super.read(cbuf, off, len);
+      } catch (IOException e) {
+        fail(e);
+        throw e;
+      }
+      
+      for (int i = 0; i < read; i++) {
+        responseCounter.add(cbuf[off + i]);
+      }
+      
+      return read;
+    }
+    
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        if (!recorded) {
+          recorded = true;
+          recordSuccess(operation, startTime, requestBytes, responseCounter.getCount());
+        }
+      }
+    }
+    
+    private void fail(IOException e) {
+      if (!recorded) {
+        recorded = true;
+        metricsCollector.recordFailure(operation, System.nanoTime() - startTime, e);
+        recordPoolStatistics();
+      }
+    }
+    
+    private Operation operation;
+    private long startTime;
+    private long requestBytes;
+    private Utf8Counter responseCounter = new Utf8Counter();
+    private boolean recorded;
+  }
+}
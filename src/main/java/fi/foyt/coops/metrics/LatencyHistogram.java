@@ -0,0 +1,118 @@
+package fi.foyt.coops.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with logarithmic buckets. 
+ * 
+ * Each power of two (in microseconds) is divided into four buckets, so reported percentiles are upper bounds 
+ * that are at most 19% above the actual value.
+ */
+public class LatencyHistogram {
+  
+  private static final int SUB_BUCKETS = 4;
+  
+  private static final int BUCKETS = 40 * SUB_BUCKETS;
+  
+  public LatencyHistogram() {
+    this(new AtomicLongArray(BUCKETS), new AtomicLong(), new AtomicLong());
+  }
+  
+  private LatencyHistogram(AtomicLongArray buckets, AtomicLong count, AtomicLong max) {
+    this.buckets = buckets;
+    this.count = count;
+    this.max = max;
+  }
+  
+  /**
+   * Records a latency
+   * 
+   * @param nanos latency in nanoseconds
+   */
+  public void record(long nanos) {
+    buckets.incrementAndGet(getBucket(nanos));
+    count.incrementAndGet();
+    
+    long current = max.get();
+    while (nanos > current && !max.compareAndSet(current, nanos)) {
+      current = max.get();
+    }
+  }
+  
+  /**
+   * Returns number of recorded latencies
+   * 
+   * @return number of recorded latencies
+   */
+  public long getCount() {
+    return count.get();
+  }
+  
+  /**
+   * Returns highest recorded latency
+   * 
+   * @return highest recorded latency in nanoseconds
+   */
+  public long getMax() {
+    return max.get();
+  }
+  
+  /**
+   * Returns latency percentile
+   * 
+   * @param percentile percentile between 0 and 100
+   * @return latency in nanoseconds or 0 when nothing has been recorded
+   */
+  public long getPercentile(double percentile) {
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      total += buckets.get(i);
+    }
+    
+    if (total == 0) {
+      return 0;
+    }
+    
+    long target = Math.max(1, (long) Math.ceil(total * Math.min(100d, Math.max(0d, percentile)) / 100d));
+    long cumulative = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      cumulative += buckets.get(i);
+      if (cumulative >= target) {
+        return Math.min(getBucketUpperBound(i), getMax());
+      }
+    }
+    
+    return getMax();
+  }
+  
+  /**
+   * Returns a copy of the histogram
+   * 
+   * @return copy of the histogram
+   */
+  public LatencyHistogram copy() {
+    AtomicLongArray bucketsCopy = new AtomicLongArray(BUCKETS);
+    for (int i = 0; i < BUCKETS; i++) {
+      bucketsCopy.set(i, buckets.get(i));
+    }
+    
+    return new LatencyHistogram(bucketsCopy, new AtomicLong(count.get()), new AtomicLong(max.get()));
+  }
+  
+  private static int getBucket(long nanos) {
+    long micros = Math.max(1, nanos / 1000);
+    int bucket = (int) (Math.log(micros) / LOG_2 * SUB_BUCKETS);
+    return Math.min(BUCKETS - 1, bucket);
+  }
+  
+  private static long getBucketUpperBound(int bucket) {
+    return (long) (Math.pow(2, (bucket + 1d) / SUB_BUCKETS) * 1000);
+  }
+  
+  private static final double LOG_2 = Math.log(2);
+  
+  private AtomicLongArray buckets;
+  private AtomicLong count;
+  private AtomicLong max;
+}
@@ -0,0 +1,43 @@
+package fi.foyt.coops.metrics;
+
+import fi.foyt.coops.io.ConnectionPoolStatistics;
+
+/**
+ * Service provider interface for receiving metrics from {@link InstrumentedIOHandler}. 
+ * 
+ * Implementations can forward the measurements into any metrics library. Methods are called from request threads 
+ * and must be thread-safe and fast.
+ */
+public interface MetricsCollector {
+
+  /**
+   * Records a successful request. 
+   * 
+   * Byte counts are sizes of the UTF-8 encoded request and response contents, not the number of bytes transferred 
+   * over the wire.
+   * 
+   * @param operation operation
+   * @param durationNanos request duration in nanoseconds
+   * @param requestBytes request body size in bytes
+   * @param responseBytes response body size in bytes
+   */
+  void recordSuccess(Operation operation, long durationNanos, long requestBytes, long responseBytes);
+  
+  /**
+   * Records a failed request
+   * 
+   * @param operation operation
+   * @param durationNanos time in nanoseconds until request failed
+   * @param exception exception request failed with
+   */
+  void recordFailure(Operation operation, long durationNanos, Exception exception);
+  
+  /**
+   * Records connection pool statistics of the instrumented handler. Called after each request when the 
+   * instrumented handler is pooled.
+   * 
+   * @param statistics connection pool statistics
+   */
+  void recordPoolStatistics(ConnectionPoolStatistics statistics);
+  
+}
@@ -0,0 +1,62 @@
+package fi.foyt.coops.metrics;
+
+import java.net.URI;
+
+import fi.foyt.coops.io.IORequest;
+
+/**
+ * CoOps operations distinguished by metrics
+ */
+public enum Operation {
+  
+  JOIN,
+  
+  GET,
+  
+  GET_REVISION,
+  
+  GET_UPDATES,
+  
+  SAVE,
+  
+  PATCH,
+  
+  OTHER;
+  
+  /**
+   * Resolves the CoOps operation a request belongs to
+   * 
+   * @param request request
+   * @return operation
+   */
+  public static Operation resolve(IORequest request) {
+    switch (request.getMethod()) {
+      case GET:
+        URI uri = request.getUri();
+        String path = uri.getPath();
+        if (path != null) {
+          if (path.endsWith("/join")) {
+            return JOIN;
+          }
+          
+          if (path.endsWith("/update")) {
+            return GET_UPDATES;
+          }
+        }
+        
+        String query = uri.getRawQuery();
+        if ((query != null) && (query.startsWith("revisionNumber=") || query.contains("&revisionNumber="))) {
+          return GET_REVISION;
+        }
+        
+        return GET;
+      case PUT:
+        return SAVE;
+      case PATCH:
+        return PATCH;
+      default:
+        return OTHER;
+    }
+  }
+  
+}
@@ -0,0 +1,82 @@
+package fi.foyt.coops.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Snapshot of metrics recorded for an operation
+ */
+public class OperationMetrics {
+  
+  public OperationMetrics(Operation operation, long successCount, long failureCount, long requestBytes, long responseBytes, Map<String, Long> errorCounts, LatencyHistogram latencies) {
+    this.operation = operation;
+    this.successCount = successCount;
+    this.failureCount = failureCount;
+    this.requestBytes = requestBytes;
+    this.responseBytes = responseBytes;
+    this.errorCounts = Collections.unmodifiableMap(errorCounts);
+    this.latencies = latencies;
+  }
+  
+  public Operation getOperation() {
+    return operation;
+  }
+  
+  public long getSuccessCount() {
+    return successCount;
+  }
+  
+  public long getFailureCount() {
+    return failureCount;
+  }
+  
+  /**
+   * Returns total size of request bodies
+   * 
+   * @return total size in bytes
+   */
+  public long getRequestBytes() {
+    return requestBytes;
+  }
+  
+  /**
+   * Returns total size of response bodies
+   * 
+   * @return total size in bytes
+   */
+  public long getResponseBytes() {
+    return responseBytes;
+  }
+  
+  /**
+   * Returns failure counts by exception class name
+   * 
+   * @return failure counts by exception class name
+   */
+  public Map<String, Long> getErrorCounts() {
+    return errorCounts;
+  }
+  
+  /**
+   * Returns latencies of both successful and failed requests
+   * 
+   * @return latency histogram
+   */
+  public LatencyHistogram getLatencies() {
+    return latencies;
+  }
+  
+  @Override
+  public String toString() {
+    return operation + ": success=" + successCount + ", failure=" + failureCount + ", requestBytes=" + requestBytes + ", responseBytes=" + responseBytes + 
+      ", p50=" + latencies.getPercentile(50) + "ns, p99=" + latencies.getPercentile(99) + "ns, max=" + latencies.getMax() + "ns, errors=" + errorCounts;
+  }
+  
+  private Operation operation;
+  private long successCount;
+  private long failureCount;
+  private long requestBytes;
+  private long responseBytes;
+  private Map<String, Long> errorCounts;
+  private LatencyHistogram latencies;
+}
@@ -60,6 +60,23 @@ public class File {
     this.contentType = contentType;
   }
 
+  /**
+   * Returns a shallow copy of the file
+   * 
+   * @return copy of the file
+   */
+  public File copy() {
+    File result = new File();
+    result.setId(id);
+    result.setName(name);
+    result.setContent(content);
+    result.setContentType(contentType);
+    result.setRole(role);
+    result.setModified(modified);
+    result.setRevisionNumber(revisionNumber);
+    return result;
+  }
+
   private String id;
   
   private String name;
@@ -0,0 +1,23 @@
+package fi.foyt.coops.patch;
+
+/**
+ * Way a content change was sent to the server by {@link ContentCommitter}
+ */
+public enum CommitType {
+  
+  /**
+   * Content was not changed and nothing was sent
+   */
+  NONE,
+  
+  /**
+   * Change was sent as a patch
+   */
+  PATCH,
+  
+  /**
+   * Whole content was saved
+   */
+  SAVE
+  
+}
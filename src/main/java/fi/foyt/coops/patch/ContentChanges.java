@@ -0,0 +1,78 @@
+package fi.foyt.coops.patch;
+
+/**
+ * Helpers for estimating size of content changes
+ */
+class ContentChanges {
+  
+  private ContentChanges() {
+  }
+  
+  /**
+   * Returns UTF-8 encoded size of the text between the common prefix and suffix of the contents. 
+   * 
+   * Any patch transforming old content into new content has to carry at least this text.
+   * 
+   * @param oldContent old content, null is treated as empty content
+   * @param newContent new content, null is treated as empty content
+   * @return changed text size in bytes
+   */
+  public static long changeSize(String oldContent, String newContent) {
+    if (oldContent == null) {
+      oldContent = "";
+    }
+    
+    if (newContent == null) {
+      return 0;
+    }
+    
+    int prefix = commonPrefix(oldContent, newContent);
+    int suffix = commonSuffix(oldContent, newContent, prefix);
+    return utf8Length(newContent, prefix, newContent.length() - suffix);
+  }
+  
+  public static long utf8Length(String text) {
+    return text != null ? utf8Length(text, 0, text.length()) : 0;
+  }
+  
+  public static long utf8Length(String text, int start, int end) {
+    long result = 0;
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        result++;
+      } else if (c < 0x800) {
+        result += 2;
+      } else if (Character.isSurrogate(c)) {
+        // Surrogate pair takes 4 bytes in total
+        result += 2;
+      } else {
+        result += 3;
+      }
+    }
+    
+    return result;
+  }
+  
+  private static int commonPrefix(String a, String b) {
+    int max = Math.min(a.length(), b.length());
+    int i = 0;
+    while ((i < max) && (a.charAt(i) == b.charAt(i))) {
+      i++;
+    }
+    
+    return i;
+  }
+  
+  private static int commonSuffix(String a, String b, int prefix) {
+    // Suffix may not overlap the prefix
+    int max = Math.min(a.length(), b.length()) - prefix;
+    int i = 0;
+    while ((i < max) && (a.charAt(a.length() - 1 - i) == b.charAt(b.length() - 1 - i))) {
+      i++;
+    }
+    
+    return i;
+  }
+  
+}
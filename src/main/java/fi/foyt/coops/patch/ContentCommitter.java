@@ -0,0 +1,141 @@
+package fi.foyt.coops.patch;
+
+import java.io.IOException;
+
+import fi.foyt.coops.Auth;
+import fi.foyt.coops.CoOps;
+import fi.foyt.coops.PatchException;
+import fi.foyt.coops.ServerException;
+import fi.foyt.coops.UsageException;
+import fi.foyt.coops.model.File;
+import fi.foyt.coops.model.Patch;
+
+/**
+ * Commits content changes as patches or full saves depending on which one is cheaper to send. 
+ * 
+ * Size of the patch is first estimated from the text between the common prefix and suffix of the old and new 
+ * content, which the patch has to carry in any case. When the estimate shows that a patch can not be smaller than 
+ * the content, the content is saved without computing the diff. Otherwise the patch is created and sent 
+ * when its size stays within {@link #getPatchSizeRatio()} of the content size.
+ */
+public class ContentCommitter {
+  
+  public static final double DEFAULT_PATCH_SIZE_RATIO = 1.0;
+  
+  public ContentCommitter(CoOps coOps) {
+    this(coOps, new PatchEngine());
+  }
+  
+  public ContentCommitter(CoOps coOps, PatchEngine patchEngine) {
+    this.coOps = coOps;
+    this.patchEngine = patchEngine;
+  }
+  
+  /**
+   * Sends new content of a file into the server as a patch or as a full save
+   * 
+   * @param file last known revision of the file. File is not modified
+   * @param content new content
+   * @param algorithm patch algorithm used for patches
+   * @param auth authentication used for the request
+   * @return how the content was sent
+   * @throws ServerException ServerException is thrown when server returns does not return a successful result
+   * @throws IOException IOException is thrown when error occurs in server communication
+   * @throws UsageException UsageException is thrown when method is called incorrectly
+   */
+  public CommitType commitContent(File file, String content, String algorithm, Auth auth) throws UsageException, ServerException, IOException {
+    return commitContent(file, content, new String[] { algorithm }, auth);
+  }
+  
+  /**
+   * Sends new content of a file into the server as a patch or as a full save. 
+   * 
+   * Patch is created with the algorithm that {@link PatchEngine#selectAlgorithm(String[], long, long, String)} 
+   * estimates to be the cheapest for the file.
+   * 
+   * @param file last known revision of the file. File is not modified
+   * @param content new content
+   * @param algorithms patch algorithms accepted for the file, usually the ones sent when joining the file
+   * @param auth authentication used for the request
+   * @return how the content was sent
+   * @throws ServerException ServerException is thrown when server returns does not return a successful result
+   * @throws IOException IOException is thrown when error occurs in server communication
+   * @throws UsageException UsageException is thrown when method is called incorrectly
+   */
+  public CommitType commitContent(File file, String content, String[] algorithms, Auth auth) throws UsageException, ServerException, IOException {
+    if (content == null) {
+      throw new UsageException("content is required");
+    }
+    
+    String oldContent = file.getContent();
+    if (content.equals(oldContent)) {
+      return CommitType.NONE;
+    }
+    
+    Patch patch = createPatch(file, content, algorithms);
+    if (patch != null) {
+      coOps.patchFile(patch, auth);
+      return CommitType.PATCH;
+    }
+    
+    File changed = file.copy();
+    changed.setContent(content);
+    coOps.saveFile(changed, auth);
+    return CommitType.SAVE;
+  }
+  
+  /**
+   * Returns largest accepted ratio between patch size and content size
+   * 
+   * @return largest accepted ratio between patch size and content size
+   */
+  public double getPatchSizeRatio() {
+    return patchSizeRatio;
+  }
+  
+  /**
+   * Sets largest accepted ratio between patch size and content size. Larger changes are saved as whole content
+   * 
+   * @param patchSizeRatio largest accepted ratio between patch size and content size
+   */
+  public void setPatchSizeRatio(double patchSizeRatio) {
+    this.patchSizeRatio = patchSizeRatio;
+  }
+  
+  private Patch createPatch(File file, String content, String[] algorithms) {
+    String oldContent = file.getContent();
+    if ((oldContent == null) || (file.getRevisionNumber() == null)) {
+      return null;
+    }
+    
+    long contentSize = ContentChanges.utf8Length(content);
+    double maxPatchSize = contentSize * patchSizeRatio;
+    
+    long changeSize = ContentChanges.changeSize(oldContent, content);
+    if (changeSize > maxPatchSize) {
+      return null;
+    }
+    
+    PatchAlgorithm algorithm = patchEngine.selectAlgorithm(algorithms, contentSize, changeSize, file.getContentType());
+    if (algorithm == null) {
+      return null;
+    }
+    
+    Patch patch;
+    try {
+      patch = patchEngine.createPatch(algorithm.getName(), file.getRevisionNumber(), oldContent, content);
+    } catch (PatchException e) {
+      return null;
+    }
+    
+    if ((patch == null) || (patch.getPatch() == null) || (ContentChanges.utf8Length(patch.getPatch()) > maxPatchSize)) {
+      return null;
+    }
+    
+    return patch;
+  }
+  
+  private CoOps coOps;
+  private PatchEngine patchEngine;
+  private volatile double patchSizeRatio = DEFAULT_PATCH_SIZE_RATIO;
+}
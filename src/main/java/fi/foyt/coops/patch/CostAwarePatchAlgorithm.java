@@ -0,0 +1,34 @@
+package fi.foyt.coops.patch;
+
+/**
+ * Patch algorithm that describes its costs so that {@link PatchEngine} can choose the cheapest algorithm 
+ * for a document. 
+ * 
+ * Algorithms that do not implement this interface are assumed to have {@link PatchEngine#DEFAULT_CPU_COST_PER_BYTE} 
+ * and {@link PatchEngine#DEFAULT_PATCH_SIZE_RATIO} costs and to support all content types.
+ */
+public interface CostAwarePatchAlgorithm extends PatchAlgorithm {
+
+  /**
+   * Returns estimated time in nanoseconds spent in diffing or applying a patch per byte of document
+   * 
+   * @return estimated processing cost per document byte
+   */
+  public double getCpuCostPerByte();
+  
+  /**
+   * Returns estimated size of a patch text relative to the size of the changed text
+   * 
+   * @return estimated patch size ratio
+   */
+  public double getPatchSizeRatio();
+  
+  /**
+   * Returns whether algorithm is suitable for documents of given content type
+   * 
+   * @param contentType content type, may be null when not known
+   * @return whether algorithm supports the content type
+   */
+  public boolean supportsContentType(String contentType);
+  
+}
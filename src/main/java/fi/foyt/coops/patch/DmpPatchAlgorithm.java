@@ -0,0 +1,150 @@
+package fi.foyt.coops.patch;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch;
+
+import fi.foyt.coops.PatchException;
+import fi.foyt.coops.document.Rope;
+
+/**
+ * Patch algorithm for diff-match-patch patch texts (algorithm name "dmp"). 
+ * 
+ * Diffs are computed with diff-match-patch's linear space Myers diff after trimming common prefix and suffix. 
+ * Diffing stops refining when the diff timeout is reached, so large documents produce a valid but 
+ * possibly larger patch instead of stalling the caller.
+ * 
+ * When applied into a rope, hunks whose context matches exactly at the expected location are applied as 
+ * rope edits. Rope is materialized for diff-match-patch's fuzzy matching only when some hunk does not match.
+ */
+public class DmpPatchAlgorithm implements RopePatchAlgorithm, CostAwarePatchAlgorithm {
+  
+  public static final String NAME = "dmp";
+  
+  public static final long DEFAULT_DIFF_TIMEOUT = 1000l;
+  
+  public DmpPatchAlgorithm() {
+    this(DEFAULT_DIFF_TIMEOUT);
+  }
+  
+  /**
+   * Creates algorithm with custom diff time budget
+   * 
+   * @param diffTimeout maximum time in milliseconds spent on a single diff, 0 for no limit
+   */
+  public DmpPatchAlgorithm(long diffTimeout) {
+    diffMatchPatch.diffTimeout = diffTimeout / 1000f;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+  
+  @Override
+  public double getCpuCostPerByte() {
+    // Prefix and suffix trimming and exact rope matching are linear scans
+    return 2.0;
+  }
+  
+  @Override
+  public double getPatchSizeRatio() {
+    // Hunks carry context around the change and escape non-ASCII characters
+    return 1.5;
+  }
+  
+  @Override
+  public boolean supportsContentType(String contentType) {
+    return true;
+  }
+  
+  @Override
+  public String apply(String content, String patch) throws PatchException {
+    return apply(content, parsePatch(patch));
+  }
+  
+  @Override
+  public Rope apply(Rope content, String patch) throws PatchException {
+    LinkedList<DiffMatchPatch.Patch> patches = parsePatch(patch);
+    
+    Rope result = content;
+    for (DiffMatchPatch.Patch hunk : patches) {
+      result = applyExact(result, hunk);
+      if (result == null) {
+        // Hunk context has moved or changed, falling back to fuzzy matching
+        return Rope.valueOf(apply(content.toString(), patches));
+      }
+    }
+    
+    return result;
+  }
+  
+  private Rope applyExact(Rope content, DiffMatchPatch.Patch hunk) {
+    String expected = diffMatchPatch.diffText1(hunk.diffs);
+    int position = hunk.start2;
+    
+    if ((position < 0) || (position + expected.length() > content.length())) {
+      return null;
+    }
+    
+    if (!content.subSequence(position, position + expected.length()).toString().equals(expected)) {
+      return null;
+    }
+    
+    Rope result = content;
+    for (DiffMatchPatch.Diff diff : hunk.diffs) {
+      switch (diff.operation) {
+        case EQUAL:
+          position += diff.text.length();
+        break;
+        case DELETE:
+          result = result.delete(position, position + diff.text.length());
+        break;
+        case INSERT:
+          result = result.insert(position, diff.text);
+          position += diff.text.length();
+        break;
+      }
+    }
+    
+    return result;
+  }
+  
+  private LinkedList<DiffMatchPatch.Patch> parsePatch(String patch) throws PatchException {
+    try {
+      List<DiffMatchPatch.Patch> patches = diffMatchPatch.patchFromText(patch);
+      return patches instanceof LinkedList ? (LinkedList<DiffMatchPatch.Patch>) patches : new LinkedList<>(patches);
+    } catch (IllegalArgumentException e) {
+      throw new PatchException("Invalid patch: " + e.getMessage());
+    }
+  }
+  
+  private String apply(String content, LinkedList<DiffMatchPatch.Patch> patches) throws PatchException {
+    Object[] result = diffMatchPatch.patchApply(patches, content != null ? content : "");
+    
+    boolean[] applied = (boolean[]) result[1];
+    for (int i = 0; i < applied.length; i++) {
+      if (!applied[i]) {
+        throw new PatchException("Could not apply patch hunk " + i);
+      }
+    }
+    
+    return (String) result[0];
+  }
+  
+  @Override
+  public String diff(String oldContent, String newContent) throws PatchException {
+    String text1 = oldContent != null ? oldContent : "";
+    String text2 = newContent != null ? newContent : "";
+    
+    LinkedList<DiffMatchPatch.Diff> diffs = diffMatchPatch.diffMain(text1, text2, true);
+    if (diffs.size() > 2) {
+      diffMatchPatch.diffCleanupEfficiency(diffs);
+    }
+    
+    return diffMatchPatch.patchToText(diffMatchPatch.patchMake(text1, diffs));
+  }
+  
+  private DiffMatchPatch diffMatchPatch = new DiffMatchPatch();
+}
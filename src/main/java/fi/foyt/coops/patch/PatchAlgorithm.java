@@ -0,0 +1,37 @@
+package fi.foyt.coops.patch;
+
+import fi.foyt.coops.PatchException;
+
+/**
+ * Patch algorithm that is able to create and apply patch texts of single format
+ */
+public interface PatchAlgorithm {
+
+  /**
+   * Returns algorithm name as used in {@link fi.foyt.coops.model.Patch#getAlgorithm()}
+   * 
+   * @return algorithm name
+   */
+  public String getName();
+  
+  /**
+   * Applies patch text into content
+   * 
+   * @param content original content
+   * @param patch patch text
+   * @return patched content
+   * @throws PatchException PatchException is thrown when patch is invalid or could not be applied into the content
+   */
+  public String apply(String content, String patch) throws PatchException;
+  
+  /**
+   * Creates patch text that transforms old content into new content
+   * 
+   * @param oldContent old content
+   * @param newContent new content
+   * @return patch text
+   * @throws PatchException PatchException is thrown when patch could not be created
+   */
+  public String diff(String oldContent, String newContent) throws PatchException;
+  
+}
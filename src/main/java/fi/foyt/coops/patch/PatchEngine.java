@@ -0,0 +1,373 @@
+package fi.foyt.coops.patch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fi.foyt.coops.PatchException;
+import fi.foyt.coops.document.Document;
+import fi.foyt.coops.document.Rope;
+import fi.foyt.coops.model.File;
+import fi.foyt.coops.model.FileJoin;
+import fi.foyt.coops.model.Patch;
+
+/**
+ * Applies patches into local content and creates patches from content changes. 
+ * 
+ * Patches are applied with the patch algorithm registered for {@link Patch#getAlgorithm()}. 
+ * Engine comes with diff-match-patch algorithm registered by default. 
+ * 
+ * Engine also chooses between registered algorithms by estimated cost. Cost of an algorithm for a document is 
+ * the time spent processing the document plus the time spent transferring the patch, where the patch size is 
+ * estimated from the size of the change. Processing dominates for large documents and patch size for small ones.
+ */
+public class PatchEngine {
+  
+  /**
+   * Processing cost per document byte assumed for algorithms that do not implement {@link CostAwarePatchAlgorithm}
+   */
+  public static final double DEFAULT_CPU_COST_PER_BYTE = 10.0;
+  
+  /**
+   * Patch size ratio assumed for algorithms that do not implement {@link CostAwarePatchAlgorithm}
+   */
+  public static final double DEFAULT_PATCH_SIZE_RATIO = 2.0;
+  
+  /**
+   * Default time in nanoseconds spent in transferring a byte of patch (roughly 100 Mbit/s)
+   */
+  public static final double DEFAULT_TRANSFER_COST_PER_BYTE = 80.0;
+  
+  /**
+   * Default size in bytes of a typical change, used when the actual change is not known
+   */
+  public static final long DEFAULT_CHANGE_SIZE = 256;
+  
+  public PatchEngine() {
+    registerAlgorithm(new DmpPatchAlgorithm());
+  }
+  
+  /**
+   * Registers patch algorithm. Algorithm replaces previously registered algorithm with same name
+   * 
+   * @param algorithm algorithm
+   */
+  public void registerAlgorithm(PatchAlgorithm algorithm) {
+    algorithms.put(algorithm.getName(), algorithm);
+  }
+  
+  /**
+   * Returns algorithm registered with given name
+   * 
+   * @param name algorithm name
+   * @return algorithm or null if algorithm is not registered
+   */
+  public PatchAlgorithm getAlgorithm(String name) {
+    if (name == null) {
+      return null;
+    }
+    
+    return algorithms.get(name);
+  }
+  
+  /**
+   * Returns names of registered algorithms supporting the content type ordered from the cheapest to the most 
+   * expensive one. Result is suitable as the algorithm list of {@link fi.foyt.coops.CoOps#joinFile(String[], fi.foyt.coops.Auth)}
+   * 
+   * @param documentSize expected document size in bytes
+   * @param contentType document content type, may be null
+   * @return algorithm names in preference order
+   */
+  public String[] getAlgorithmPreference(long documentSize, String contentType) {
+    List<PatchAlgorithm> candidates = new ArrayList<>();
+    for (PatchAlgorithm algorithm : algorithms.values()) {
+      if (supportsContentType(algorithm, contentType)) {
+        candidates.add(algorithm);
+      }
+    }
+    
+    Collections.sort(candidates, new CostComparator(documentSize, changeSize));
+    
+    String[] result = new String[candidates.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = candidates.get(i).getName();
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Selects the cheapest registered algorithm for a change
+   * 
+   * @param candidates names of acceptable algorithms or null to accept all registered algorithms
+   * @param documentSize document size in bytes
+   * @param changeSize size of the change in bytes
+   * @param contentType document content type, may be null
+   * @return cheapest algorithm or null if none of the candidates is registered and supports the content type
+   */
+  public PatchAlgorithm selectAlgorithm(String[] candidates, long documentSize, long changeSize, String contentType) {
+    CostComparator comparator = new CostComparator(documentSize, changeSize);
+    
+    PatchAlgorithm result = null;
+    for (PatchAlgorithm algorithm : candidates != null ? getAlgorithms(candidates) : algorithms.values()) {
+      if (supportsContentType(algorithm, contentType) && ((result == null) || (comparator.compare(algorithm, result) < 0))) {
+        result = algorithm;
+      }
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Returns estimated cost in nanoseconds of processing a document with an algorithm and transferring the patch
+   * 
+   * @param algorithm algorithm
+   * @param documentSize document size in bytes
+   * @param changeSize size of the change in bytes
+   * @return estimated cost
+   */
+  public double estimateCost(PatchAlgorithm algorithm, long documentSize, long changeSize) {
+    double cpuCostPerByte = DEFAULT_CPU_COST_PER_BYTE;
+    double patchSizeRatio = DEFAULT_PATCH_SIZE_RATIO;
+    
+    if (algorithm instanceof CostAwarePatchAlgorithm) {
+      cpuCostPerByte = ((CostAwarePatchAlgorithm) algorithm).getCpuCostPerByte();
+      patchSizeRatio = ((CostAwarePatchAlgorithm) algorithm).getPatchSizeRatio();
+    }
+    
+    return (cpuCostPerByte * documentSize) + (patchSizeRatio * changeSize * transferCostPerByte);
+  }
+  
+  /**
+   * Returns time in nanoseconds assumed to be spent in transferring a byte of patch
+   * 
+   * @return transfer cost per byte
+   */
+  public double getTransferCostPerByte() {
+    return transferCostPerByte;
+  }
+  
+  /**
+   * Sets time in nanoseconds assumed to be spent in transferring a byte of patch. 
+   * 
+   * Higher values favor algorithms producing compact patches.
+   * 
+   * @param transferCostPerByte transfer cost per byte
+   */
+  public void setTransferCostPerByte(double transferCostPerByte) {
+    this.transferCostPerByte = transferCostPerByte;
+  }
+  
+  /**
+   * Returns change size assumed by {@link #getAlgorithmPreference(long, String)}
+   * 
+   * @return change size in bytes
+   */
+  public long getChangeSize() {
+    return changeSize;
+  }
+  
+  /**
+   * Sets change size assumed by {@link #getAlgorithmPreference(long, String)}
+   * 
+   * @param changeSize change size in bytes
+   */
+  public void setChangeSize(long changeSize) {
+    this.changeSize = changeSize;
+  }
+  
+  /**
+   * Applies patch into content
+   * 
+   * @param content content
+   * @param patch patch
+   * @return patched content
+   * @throws PatchException PatchException is thrown when patch algorithm is not supported or patch could not be applied
+   */
+  public String applyPatch(String content, Patch patch) throws PatchException {
+    if (patch.getPatch() == null) {
+      // Patch does not change the content (e.g. properties only patch)
+      return content;
+    }
+    
+    PatchAlgorithm algorithm = getAlgorithm(patch.getAlgorithm());
+    if (algorithm == null) {
+      throw new PatchException("Unsupported patch algorithm: " + patch.getAlgorithm());
+    }
+    
+    return algorithm.apply(content, patch.getPatch());
+  }
+  
+  /**
+   * Applies patch into a file and advances file's revision number
+   * 
+   * @param file file
+   * @param patch patch
+   * @throws PatchException PatchException is thrown when patch is not next revision of the file, patch algorithm is not supported or patch could not be applied
+   */
+  public void applyPatch(File file, Patch patch) throws PatchException {
+    Long revisionNumber = getNextRevisionNumber(file.getRevisionNumber(), patch);
+    file.setContent(applyPatch(file.getContent(), patch));
+    file.setRevisionNumber(revisionNumber);
+  }
+  
+  /**
+   * Applies patch into a joined file and advances its revision number
+   * 
+   * @param fileJoin file join
+   * @param patch patch
+   * @throws PatchException PatchException is thrown when patch is not next revision of the file, patch algorithm is not supported or patch could not be applied
+   */
+  public void applyPatch(FileJoin fileJoin, Patch patch) throws PatchException {
+    Long revisionNumber = getNextRevisionNumber(fileJoin.getRevisionNumber(), patch);
+    fileJoin.setContent(applyPatch(fileJoin.getContent(), patch));
+    fileJoin.setRevisionNumber(revisionNumber);
+  }
+  
+  /**
+   * Applies patch into a document and advances document's revision number. 
+   * 
+   * Algorithms implementing {@link RopePatchAlgorithm} patch the document without materializing its content. 
+   * When document has local changes, patch is applied into both the local and the confirmed content.
+   * 
+   * @param document document
+   * @param patch patch
+   * @throws PatchException PatchException is thrown when patch is not next revision of the document, patch algorithm is not supported or patch could not be applied
+   */
+  public void applyPatch(Document document, Patch patch) throws PatchException {
+    synchronized (document) {
+      Long revisionNumber = getNextRevisionNumber(document.getRevisionNumber(), patch);
+      Rope confirmedContent = document.getConfirmedContent();
+      
+      if (patch.getPatch() != null) {
+        PatchAlgorithm algorithm = getAlgorithm(patch.getAlgorithm());
+        if (algorithm == null) {
+          throw new PatchException("Unsupported patch algorithm: " + patch.getAlgorithm());
+        }
+        
+        boolean localChanges = document.hasLocalChanges();
+        Rope content = applyPatch(algorithm, document.snapshot(), patch.getPatch());
+        confirmedContent = localChanges ? applyPatch(algorithm, confirmedContent, patch.getPatch()) : content;
+        document.setContent(content);
+      }
+      
+      document.confirm(confirmedContent, revisionNumber);
+    }
+  }
+
+  
+  /**
+   * Creates a patch that transforms old content into new content
+   * 
+   * @param algorithmName name of the algorithm used to create the patch
+   * @param revisionNumber revision number of the old content (revision the patch is based on)
+   * @param oldContent old content
+   * @param newContent new content
+   * @return patch ready to be sent with {@link fi.foyt.coops.CoOps#patchFile(Patch, fi.foyt.coops.Auth)} or null if contents are equal
+   * @throws PatchException PatchException is thrown when patch algorithm is not supported or patch could not be created
+   */
+  public Patch createPatch(String algorithmName, Long revisionNumber, String oldContent, String newContent) throws PatchException {
+    PatchAlgorithm algorithm = getAlgorithm(algorithmName);
+    if (algorithm == null) {
+      throw new PatchException("Unsupported patch algorithm: " + algorithmName);
+    }
+    
+    if (oldContent == null ? newContent == null : oldContent.equals(newContent)) {
+      return null;
+    }
+    
+    Patch patch = new Patch();
+    patch.setAlgorithm(algorithm.getName());
+    patch.setRevisionNumber(revisionNumber);
+    patch.setPatch(algorithm.diff(oldContent, newContent));
+    return patch;
+  }
+  
+  /**
+   * Creates a patch that transforms old content into new content with the cheapest of the candidate algorithms
+   * 
+   * @param candidates names of acceptable algorithms or null to accept all registered algorithms
+   * @param revisionNumber revision number of the old content (revision the patch is based on)
+   * @param oldContent old content
+   * @param newContent new content
+   * @param contentType content type, may be null
+   * @return patch ready to be sent with {@link fi.foyt.coops.CoOps#patchFile(Patch, fi.foyt.coops.Auth)} or null if contents are equal
+   * @throws PatchException PatchException is thrown when none of the candidates is usable or patch could not be created
+   */
+  public Patch createPatch(String[] candidates, Long revisionNumber, String oldContent, String newContent, String contentType) throws PatchException {
+    long documentSize = Math.max(ContentChanges.utf8Length(oldContent), ContentChanges.utf8Length(newContent));
+    long changeSize = ContentChanges.changeSize(oldContent, newContent);
+    
+    PatchAlgorithm algorithm = selectAlgorithm(candidates, documentSize, changeSize, contentType);
+    if (algorithm == null) {
+      throw new PatchException("None of the algorithms is supported for content type " + contentType);
+    }
+    
+    return createPatch(algorithm.getName(), revisionNumber, oldContent, newContent);
+  }
+  
+  private List<PatchAlgorithm> getAlgorithms(String[] names) {
+    List<PatchAlgorithm> result = new ArrayList<>(names.length);
+    for (String name : names) {
+      PatchAlgorithm algorithm = getAlgorithm(name);
+      if (algorithm != null) {
+        result.add(algorithm);
+      }
+    }
+    
+    return result;
+  }
+  
+  private boolean supportsContentType(PatchAlgorithm algorithm, String contentType) {
+    return !(algorithm instanceof CostAwarePatchAlgorithm) || ((CostAwarePatchAlgorithm) algorithm).supportsContentType(contentType);
+  }
+  
+  private Rope applyPatch(PatchAlgorithm algorithm, Rope content, String patch) throws PatchException {
+    if (algorithm instanceof RopePatchAlgorithm) {
+      return ((RopePatchAlgorithm) algorithm).apply(content, patch);
+    }
+    
+    return Rope.valueOf(algorithm.apply(content.toString(), patch));
+  }
+  
+  private Long getNextRevisionNumber(Long revisionNumber, Patch patch) throws PatchException {
+    if (patch.getRevisionNumber() == null) {
+      return revisionNumber != null ? revisionNumber + 1 : null;
+    }
+    
+    if ((revisionNumber != null) && (patch.getRevisionNumber() != revisionNumber + 1)) {
+      throw new PatchException("Patch revision " + patch.getRevisionNumber() + " does not follow revision " + revisionNumber);
+    }
+    
+    return patch.getRevisionNumber();
+  }
+  
+  private Map<String, PatchAlgorithm> algorithms = new ConcurrentHashMap<>();
+  private volatile double transferCostPerByte = DEFAULT_TRANSFER_COST_PER_BYTE;
+  private volatile long changeSize = DEFAULT_CHANGE_SIZE;
+  
+  private class CostComparator implements Comparator<PatchAlgorithm> {
+    
+    public CostComparator(long documentSize, long changeSize) {
+      this.documentSize = documentSize;
+      this.changeSize = changeSize;
+    }
+    
+    @Override
+    public int compare(PatchAlgorithm o1, PatchAlgorithm o2) {
+      int result = Double.compare(estimateCost(o1, documentSize, changeSize), estimateCost(o2, documentSize, changeSize));
+      if (result == 0) {
+        // Keeps the order stable between calls
+        result = o1.getName().compareTo(o2.getName());
+      }
+      
+      return result;
+    }
+    
+    private long documentSize;
+    private long changeSize;
+  }
+}
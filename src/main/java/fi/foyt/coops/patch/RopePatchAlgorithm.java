@@ -0,0 +1,21 @@
+package fi.foyt.coops.patch;
+
+import fi.foyt.coops.PatchException;
+import fi.foyt.coops.document.Rope;
+
+/**
+ * Patch algorithm that is able to apply patches directly into a rope without materializing it into a String
+ */
+public interface RopePatchAlgorithm extends PatchAlgorithm {
+  
+  /**
+   * Applies patch text into rope content
+   * 
+   * @param content original content
+   * @param patch patch text
+   * @return patched content
+   * @throws PatchException PatchException is thrown when patch is invalid or could not be applied into the content
+   */
+  public Rope apply(Rope content, String patch) throws PatchException;
+
+}
@@ -0,0 +1,100 @@
+package fi.foyt.coops.resilience;
+
+/**
+ * Circuit breaker that stops requests from being sent to an unhealthy server. 
+ * 
+ * Breaker opens after a number of consecutive failures and rejects requests until the open duration has elapsed. 
+ * After that a single trial request is let through: if it succeeds the breaker closes, otherwise it opens again.
+ */
+public class CircuitBreaker {
+  
+  public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+  
+  public static final long DEFAULT_OPEN_DURATION = 30000l;
+  
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+  
+  public CircuitBreaker() {
+    this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION);
+  }
+
+  /**
+   * Creates circuit breaker
+   * 
+   * @param failureThreshold number of consecutive failures that opens the breaker
+   * @param openDuration time in milliseconds the breaker stays open before a trial request is allowed
+   */
+  public CircuitBreaker(int failureThreshold, long openDuration) {
+    this.failureThreshold = failureThreshold;
+    this.openDuration = openDuration;
+  }
+  
+  /**
+   * Requests a permission to send a request
+   * 
+   * @return whether request may be sent
+   */
+  public synchronized boolean tryAcquire() {
+    switch (getState()) {
+      case CLOSED:
+        return true;
+      case HALF_OPEN:
+        if (!trialInProgress) {
+          trialInProgress = true;
+          return true;
+        }
+        
+        return false;
+      default:
+        return false;
+    }
+  }
+  
+  /**
+   * Records a request that reached a healthy server
+   */
+  public synchronized void onSuccess() {
+    consecutiveFailures = 0;
+    openedAt = -1;
+    trialInProgress = false;
+  }
+  
+  /**
+   * Records a request that failed because of a server or connection failure
+   */
+  public synchronized void onFailure() {
+    consecutiveFailures++;
+    if (trialInProgress || consecutiveFailures >= failureThreshold) {
+      openedAt = System.currentTimeMillis();
+    }
+    
+    trialInProgress = false;
+  }
+  
+  /**
+   * Returns current state of the breaker
+   * 
+   * @return current state of the breaker
+   */
+  public synchronized State getState() {
+    if (openedAt < 0) {
+      return State.CLOSED;
+    }
+    
+    if (System.currentTimeMillis() - openedAt < openDuration) {
+      return State.OPEN;
+    }
+    
+    return State.HALF_OPEN;
+  }
+  
+  private int failureThreshold;
+  private long openDuration;
+  private int consecutiveFailures;
+  private long openedAt = -1;
+  private boolean trialInProgress;
+}
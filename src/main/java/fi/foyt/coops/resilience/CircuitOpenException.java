@@ -0,0 +1,16 @@
+package fi.foyt.coops.resilience;
+
+import java.io.IOException;
+
+/**
+ * Exception thrown when a request is rejected without contacting the server because the circuit breaker is open
+ */
+public class CircuitOpenException extends IOException {
+
+  private static final long serialVersionUID = -2370936519617407546L;
+
+  public CircuitOpenException(String message) {
+    super(message);
+  }
+  
+}
@@ -0,0 +1,380 @@
+package fi.foyt.coops.resilience;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fi.foyt.coops.ServerException;
+import fi.foyt.coops.io.DelegatingIOHandler;
+import fi.foyt.coops.io.IOHandler;
+import fi.foyt.coops.io.IORequest;
+import fi.foyt.coops.metrics.LatencyHistogram;
+import fi.foyt.coops.metrics.Operation;
+
+/**
+ * IO handler that makes requests made through another IO handler resilient to slow and failing servers. 
+ * 
+ * GET requests (join, file and revision reads) are idempotent and get following treatment:
+ * <ul>
+ *   <li>When a request takes longer than the configured percentile of recent latencies of the same operation, 
+ *   a second (hedged) request is sent and the first response is used.</li>
+ *   <li>Requests that fail with IOException or ServerException are retried with exponential backoff and jitter.</li>
+ * </ul>
+ * Other requests are sent exactly once. All requests go through a {@link CircuitBreaker} and fail with 
+ * {@link CircuitOpenException} while the breaker is open. 
+ * 
+ * Authorization failures and other ServerException subclasses are responses of a healthy server and are neither 
+ * retried nor counted as failures by the circuit breaker.
+ */
+public class ResilientIOHandler extends DelegatingIOHandler {
+  
+  public static final int DEFAULT_MAX_RETRIES = 2;
+  
+  public static final long DEFAULT_RETRY_BASE_DELAY = 100l;
+  
+  public static final long DEFAULT_RETRY_MAX_DELAY = 2000l;
+  
+  public static final double DEFAULT_HEDGE_PERCENTILE = 95d;
+  
+  public static final long DEFAULT_MIN_HEDGE_DELAY = 10l;
+  
+  private static final int MIN_HEDGE_SAMPLES = 20;
+  
+  /**
+   * Creates resilient IO handler with default circuit breaker
+   * 
+   * @param delegate IO handler that sends the requests
+   * @param hedgeExecutor executor used for sending hedged requests or null to disable hedging
+   */
+  public ResilientIOHandler(IOHandler delegate, ExecutorService hedgeExecutor) {
+    this(delegate, hedgeExecutor, new CircuitBreaker());
+  }
+  
+  /**
+   * Creates resilient IO handler
+   * 
+   * @param delegate IO handler that sends the requests
+   * @param hedgeExecutor executor used for sending hedged requests or null to disable hedging
+   * @param circuitBreaker circuit breaker
+   */
+  public ResilientIOHandler(IOHandler delegate, ExecutorService hedgeExecutor, CircuitBreaker circuitBreaker) {
+    super(delegate);
+    this.hedgeExecutor = hedgeExecutor;
+    this.circuitBreaker = circuitBreaker;
+    
+    for (Operation operation : Operation.values()) {
+      latencies.put(operation, new LatencyHistogram());
+    }
+  }
+  
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+  
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+  
+  /**
+   * Sets maximum number of times a failed GET request is retried
+   * 
+   * @param maxRetries maximum number of retries
+   */
+  public void setMaxRetries(int maxRetries) {
+    this.maxRetries = maxRetries;
+  }
+  
+  /**
+   * Sets retry backoff. Delay before nth retry is a random value between zero and min(maxDelay, baseDelay * 2^n).
+   * 
+   * @param baseDelay base delay in milliseconds
+   * @param maxDelay maximum delay in milliseconds
+   */
+  public void setRetryBackoff(long baseDelay, long maxDelay) {
+    this.retryBaseDelay = baseDelay;
+    this.retryMaxDelay = maxDelay;
+  }
+  
+  public double getHedgePercentile() {
+    return hedgePercentile;
+  }
+  
+  /**
+   * Sets latency percentile after which a hedged request is sent
+   * 
+   * @param hedgePercentile percentile between 0 and 100
+   */
+  public void setHedgePercentile(double hedgePercentile) {
+    this.hedgePercentile = hedgePercentile;
+  }
+  
+  public long getMinHedgeDelay() {
+    return minHedgeDelay;
+  }
+  
+  /**
+   * Sets minimum time to wait before a hedged request is sent
+   * 
+   * @param minHedgeDelay minimum delay in milliseconds
+   */
+  public void setMinHedgeDelay(long minHedgeDelay) {
+    this.minHedgeDelay = minHedgeDelay;
+  }
+  
+  /**
+   * Returns number of hedged requests sent
+   * 
+   * @return number of hedged requests sent
+   */
+  public long getHedgeCount() {
+    return hedgeCount.get();
+  }
+  
+  /**
+   * Returns number of retried requests
+   * 
+   * @return number of retried requests
+   */
+  public long getRetryCount() {
+    return retryCount.get();
+  }
+
+  @Override
+  protected <T> T execute(IORequest request, IOCall<T> call) throws IOException, ServerException {
+    Operation operation = Operation.resolve(request);
+    
+    if (request.getMethod() != IORequest.Method.GET) {
+      // Non-idempotent requests must never be duplicated
+      return executeAttempt(operation, call);
+    }
+    
+    int retry = 0;
+    while (true) {
+      try {
+        return executeHedged(operation, call);
+      } catch (IOException | ServerException e) {
+        if ((retry >= maxRetries) || (e instanceof CircuitOpenException) || !isServerFailure(e)) {
+          throw e;
+        }
+        
+        sleep(getRetryDelay(retry));
+        retry++;
+        retryCount.incrementAndGet();
+      }
+    }
+  }
+  
+  private <T> T executeHedged(final Operation operation, final IOCall<T> call) throws IOException, ServerException {
+    long hedgeDelay = getHedgeDelay(operation);
+    if ((hedgeDelay < 0) || (circuitBreaker.getState() != CircuitBreaker.State.CLOSED)) {
+      return executeAttempt(operation, call);
+    }
+    
+    final AtomicBoolean claimed = new AtomicBoolean(false);
+    Callable<T> attempt = new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        T result = executeAttempt(operation, call);
+        if (!claimed.compareAndSet(false, true)) {
+          // Another attempt has already won, release resources held by this result
+          closeQuietly(result);
+          throw new IOException("Hedged request lost");
+        }
+        
+        return result;
+      }
+    };
+    
+    CompletionService<T> completionService = new ExecutorCompletionService<>(hedgeExecutor);
+    List<Future<T>> futures = new ArrayList<>(2);
+    try {
+      futures.add(completionService.submit(attempt));
+    } catch (RejectedExecutionException e) {
+      // Hedge executor is saturated or shut down, send the request from the calling thread
+      return executeAttempt(operation, call);
+    }
+    
+    Exception failure = null;
+    int pending = 1;
+    boolean hedged = false;
+    try {
+      while (pending > 0) {
+        Future<T> completed = hedged ? completionService.take() : completionService.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+        if (completed == null) {
+          hedged = true;
+          try {
+            futures.add(completionService.submit(attempt));
+            pending++;
+            hedgeCount.incrementAndGet();
+          } catch (RejectedExecutionException e) {
+            // Primary attempt is already in flight, keep waiting for it so its result is not leaked
+          }
+          
+          continue;
+        }
+        
+        pending--;
+        try {
+          return completed.get();
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = unwrap(e);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      if (!claimed.compareAndSet(false, true)) {
+        // An attempt has already won but nobody will read its result
+        releaseWinner(completionService, pending);
+      }
+      
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for response");
+    } finally {
+      for (Future<T> future : futures) {
+        future.cancel(false);
+      }
+    }
+    
+    if (failure instanceof IOException) {
+      throw (IOException) failure;
+    }
+    
+    if (failure instanceof ServerException) {
+      throw (ServerException) failure;
+    }
+    
+    throw (RuntimeException) failure;
+  }
+  
+  private <T> T executeAttempt(Operation operation, IOCall<T> call) throws IOException, ServerException {
+    if (!circuitBreaker.tryAcquire()) {
+      throw new CircuitOpenException("Circuit breaker is open, request was not sent");
+    }
+    
+    long startTime = System.nanoTime();
+    try {
+      T result = call.call();
+      latencies.get(operation).record(System.nanoTime() - startTime);
+      circuitBreaker.onSuccess();
+      return result;
+    } catch (IOException | ServerException | RuntimeException e) {
+      if (isServerFailure(e)) {
+        circuitBreaker.onFailure();
+      } else {
+        circuitBreaker.onSuccess();
+      }
+      
+      throw e;
+    }
+  }
+  
+  private long getHedgeDelay(Operation operation) {
+    if (hedgeExecutor == null) {
+      return -1;
+    }
+    
+    LatencyHistogram histogram = latencies.get(operation);
+    if (histogram.getCount() < MIN_HEDGE_SAMPLES) {
+      return -1;
+    }
+    
+    return Math.max(minHedgeDelay, TimeUnit.NANOSECONDS.toMillis(histogram.getPercentile(hedgePercentile)));
+  }
+  
+  private long getRetryDelay(int retry) {
+    long maxDelay = Math.min(retryMaxDelay, retryBaseDelay << Math.min(retry, 30));
+    return maxDelay > 0 ? (long) (random.nextDouble() * maxDelay) : 0;
+  }
+  
+  private boolean isServerFailure(Exception e) {
+    return (e instanceof IOException) || (e.getClass() == ServerException.class);
+  }
+  
+  private void sleep(long millis) throws InterruptedIOException {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for retry");
+    }
+  }
+  
+  private Exception unwrap(ExecutionException e) {
+    Throwable cause = e.getCause();
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    
+    return (Exception) cause;
+  }
+  
+  /**
+   * Waits for the attempt that has claimed the response and releases its result. Winner has already received its 
+   * response when it claims it, so the wait is short and it is not interrupted.
+   */
+  private <T> void releaseWinner(CompletionService<T> completionService, int pending) {
+    boolean interrupted = false;
+    
+    while (pending > 0) {
+      Future<T> completed;
+      try {
+        completed = completionService.take();
+      } catch (InterruptedException e) {
+        interrupted = true;
+        continue;
+      }
+      
+      pending--;
+      try {
+        closeQuietly(completed.get());
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      } catch (ExecutionException e) {
+        // Failed or lost attempt, winner is still pending
+      }
+    }
+    
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+  
+  private void closeQuietly(Object result) {
+    if (result instanceof Closeable) {
+      try {
+        ((Closeable) result).close();
+      } catch (IOException e) {
+        // Result of the losing request is discarded
+      }
+    }
+  }
+  
+  private ExecutorService hedgeExecutor;
+  private CircuitBreaker circuitBreaker;
+  private Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+  private Random random = new Random();
+  private AtomicLong hedgeCount = new AtomicLong();
+  private AtomicLong retryCount = new AtomicLong();
+  private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+  private volatile long retryBaseDelay = DEFAULT_RETRY_BASE_DELAY;
+  private volatile long retryMaxDelay = DEFAULT_RETRY_MAX_DELAY;
+  private volatile double hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+  private volatile long minHedgeDelay = DEFAULT_MIN_HEDGE_DELAY;
+}
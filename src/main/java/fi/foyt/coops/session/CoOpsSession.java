@@ -0,0 +1,341 @@
+package fi.foyt.coops.session;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.StringUtils;
+
+import fi.foyt.coops.Auth;
+import fi.foyt.coops.CoOps;
+import fi.foyt.coops.ConflictException;
+import fi.foyt.coops.PatchException;
+import fi.foyt.coops.ServerException;
+import fi.foyt.coops.UsageException;
+import fi.foyt.coops.model.FileJoin;
+import fi.foyt.coops.model.Patch;
+import fi.foyt.coops.patch.PatchEngine;
+
+/**
+ * Collaboration session for a single joined file. 
+ * 
+ * Session tracks the revision confirmed by the server, the local content and at most one patch that is in flight. 
+ * Local changes are sent with {@link #flush()} as a single patch against the confirmed revision. Remote patches 
+ * (received e.g. through WebSocket session or polled with {@link #update()}) are applied on the confirmed content 
+ * and pending local changes are rebased on top of them in revision order. Remote patches that arrive while a patch is 
+ * in flight are held back until the server has accepted or rejected the in-flight patch, and patches that arrive 
+ * ahead of a missing revision are held back until the missing patches have been fetched.
+ */
+public class CoOpsSession {
+  
+  /**
+   * Creates session from file join result
+   * 
+   * @param coOps client of the joined file
+   * @param fileJoin file join result
+   * @param algorithm algorithm used for outgoing patches
+   * @param auth authentication used for session requests
+   * @param listener session listener or null
+   */
+  public CoOpsSession(CoOps coOps, FileJoin fileJoin, String algorithm, Auth auth, CoOpsSessionListener listener) {
+    this(coOps, new PatchEngine(), fileJoin, algorithm, auth, listener);
+  }
+  
+  /**
+   * Creates session from file join result
+   * 
+   * @param coOps client of the joined file
+   * @param patchEngine patch engine used for creating and applying patches
+   * @param fileJoin file join result
+   * @param algorithm algorithm used for outgoing patches
+   * @param auth authentication used for session requests
+   * @param listener session listener or null
+   */
+  public CoOpsSession(CoOps coOps, PatchEngine patchEngine, FileJoin fileJoin, String algorithm, Auth auth, CoOpsSessionListener listener) {
+    this.coOps = coOps;
+    this.patchEngine = patchEngine;
+    this.algorithm = algorithm;
+    this.auth = auth;
+    this.listener = listener;
+    this.confirmedRevision = fileJoin.getRevisionNumber();
+    this.confirmedContent = StringUtils.defaultString(fileJoin.getContent());
+    this.localContent = confirmedContent;
+  }
+  
+  /**
+   * Replaces local content. Changes are sent into the server on next {@link #flush()}.
+   * 
+   * @param content new local content
+   */
+  public synchronized void setLocalContent(String content) {
+    this.localContent = StringUtils.defaultString(content);
+  }
+  
+  /**
+   * Returns local content including changes not yet confirmed by the server
+   * 
+   * @return local content
+   */
+  public synchronized String getLocalContent() {
+    return localContent;
+  }
+  
+  /**
+   * Returns content as confirmed by the server
+   * 
+   * @return confirmed content
+   */
+  public synchronized String getConfirmedContent() {
+    return confirmedContent;
+  }
+  
+  /**
+   * Returns revision number confirmed by the server
+   * 
+   * @return confirmed revision number
+   */
+  public synchronized Long getConfirmedRevision() {
+    return confirmedRevision;
+  }
+  
+  /**
+   * Returns whether session has local changes that have not been confirmed by the server
+   * 
+   * @return whether session has unconfirmed local changes
+   */
+  public synchronized boolean hasPendingChanges() {
+    return (inFlight != null) || !localContent.equals(confirmedContent);
+  }
+  
+  /**
+   * Returns whether a patch is currently in flight
+   * 
+   * @return whether a patch is currently in flight
+   */
+  public synchronized boolean isPatchInFlight() {
+    return inFlight != null;
+  }
+  
+  /**
+   * Sends pending local changes into the server as a single patch. 
+   * 
+   * Only one patch is kept in flight, so the method returns without sending anything when another flush is 
+   * in progress. When server rejects the patch because the session is behind, missed patches are fetched, 
+   * local changes are rebased and false is returned so that the caller may flush again.
+   * 
+   * @return whether local changes were accepted by the server
+   * @throws ServerException ServerException is thrown when server returns does not return a successful result
+   * @throws IOException IOException is thrown when error occurs in server communication
+   * @throws UsageException UsageException is thrown when method is called incorrectly
+   * @throws PatchException PatchException is thrown when patch could not be created or applied
+   */
+  public boolean flush() throws UsageException, ServerException, IOException, PatchException {
+    Patch patch;
+    
+    synchronized (this) {
+      if (inFlight != null) {
+        return false;
+      }
+      
+      patch = patchEngine.createPatch(algorithm, confirmedRevision, confirmedContent, localContent);
+      if (patch == null) {
+        return false;
+      }
+      
+      inFlight = patch;
+      inFlightContent = localContent;
+    }
+    
+    boolean accepted = false;
+    boolean missingRevisions;
+    try {
+      coOps.patchFile(patch, auth);
+      accepted = true;
+    } catch (ConflictException e) {
+      // Server has moved on, missed patches are fetched below 
+    } finally {
+      missingRevisions = completeInFlight(accepted);
+    }
+    
+    if (!accepted || missingRevisions) {
+      update();
+    }
+    
+    return accepted;
+  }
+  
+  /**
+   * Fetches patches the session has missed from the server and applies them
+   * 
+   * @throws ServerException ServerException is thrown when server returns does not return a successful result
+   * @throws IOException IOException is thrown when error occurs in server communication
+   * @throws UsageException UsageException is thrown when method is called incorrectly
+   * @throws PatchException PatchException is thrown when patch could not be applied
+   */
+  public void update() throws UsageException, ServerException, IOException, PatchException {
+    for (Patch patch : coOps.getFileUpdates(getConfirmedRevision(), auth)) {
+      receive(patch);
+    }
+  }
+  
+  /**
+   * Receives a patch made by another client. 
+   * 
+   * Patches are applied in revision order. Patches the session has already seen are ignored and patches 
+   * that arrive ahead of a missing revision are held back while the missing patches are fetched from the server. 
+   * If a patch is in flight, the patch is held back until the in-flight patch has completed.
+   * 
+   * @param patch remote patch
+   * @throws ServerException ServerException is thrown when server returns does not return a successful result
+   * @throws IOException IOException is thrown when error occurs in server communication
+   * @throws UsageException UsageException is thrown when method is called incorrectly
+   * @throws PatchException PatchException is thrown when patch could not be applied into the confirmed content
+   */
+  public void receivePatch(Patch patch) throws UsageException, ServerException, IOException, PatchException {
+    if (receive(patch)) {
+      update();
+    }
+  }
+  
+  /**
+   * Queues a remote patch and applies queued patches that are next in line
+   * 
+   * @return whether patches are held back because of a missing revision
+   */
+  private boolean receive(Patch patch) throws PatchException {
+    boolean changed;
+    boolean missingRevisions;
+    
+    synchronized (this) {
+      queue(patch);
+      if (inFlight != null) {
+        return false;
+      }
+      
+      changed = applyQueued();
+      missingRevisions = !heldBack.isEmpty();
+    }
+    
+    if (changed) {
+      notifyRemoteChange();
+    }
+    
+    return missingRevisions;
+  }
+  
+  private boolean completeInFlight(boolean accepted) throws PatchException {
+    boolean changed;
+    boolean missingRevisions;
+    
+    synchronized (this) {
+      if (accepted) {
+        confirmedRevision = inFlight.getRevisionNumber() + 1;
+        confirmedContent = inFlightContent;
+      }
+      
+      inFlight = null;
+      inFlightContent = null;
+      
+      changed = applyQueued();
+      missingRevisions = !heldBack.isEmpty();
+    }
+    
+    if (changed) {
+      notifyRemoteChange();
+    }
+    
+    return missingRevisions;
+  }
+  
+  private void queue(Patch patch) {
+    Long revisionNumber = patch.getRevisionNumber();
+    if (revisionNumber == null) {
+      unnumbered.add(patch);
+    } else if ((confirmedRevision == null) || (revisionNumber > confirmedRevision)) {
+      heldBack.put(revisionNumber, patch);
+    }
+  }
+  
+  private boolean applyQueued() throws PatchException {
+    boolean changed = false;
+    
+    while (!unnumbered.isEmpty()) {
+      applyRemote(unnumbered.remove(0));
+      changed = true;
+    }
+    
+    while (!heldBack.isEmpty()) {
+      Long revisionNumber = heldBack.firstKey();
+      if ((confirmedRevision != null) && (revisionNumber <= confirmedRevision)) {
+        // Already applied
+        heldBack.remove(revisionNumber);
+        continue;
+      }
+      
+      if ((confirmedRevision != null) && (revisionNumber != confirmedRevision + 1)) {
+        // Revision is missing, patches are kept until it has been fetched
+        break;
+      }
+      
+      applyRemote(heldBack.remove(revisionNumber));
+      changed = true;
+    }
+    
+    return changed;
+  }
+  
+  private void applyRemote(Patch patch) throws PatchException {
+    String oldConfirmed = confirmedContent;
+    String newConfirmed = patchEngine.applyPatch(oldConfirmed, patch);
+    
+    confirmedContent = newConfirmed;
+    if (patch.getRevisionNumber() != null) {
+      confirmedRevision = patch.getRevisionNumber();
+    } else if (confirmedRevision != null) {
+      confirmedRevision++;
+    }
+    
+    if (localContent.equals(oldConfirmed)) {
+      localContent = newConfirmed;
+    } else {
+      // Rebase pending local changes on top of the new confirmed content
+      Patch pending = patchEngine.createPatch(algorithm, null, oldConfirmed, localContent);
+      try {
+        localContent = patchEngine.applyPatch(newConfirmed, pending);
+      } catch (PatchException e) {
+        String discarded = localContent;
+        localContent = newConfirmed;
+        if (listener != null) {
+          listener.onLocalChangesDiscarded(discarded);
+        }
+      }
+    }
+  }
+  
+  private void notifyRemoteChange() {
+    if (listener != null) {
+      String content;
+      Long revision;
+      synchronized (this) {
+        content = localContent;
+        revision = confirmedRevision;
+      }
+      
+      listener.onRemoteChange(content, revision);
+    }
+  }
+  
+  private CoOps coOps;
+  private PatchEngine patchEngine;
+  private String algorithm;
+  private Auth auth;
+  private CoOpsSessionListener listener;
+  private Long confirmedRevision;
+  private String confirmedContent;
+  private String localContent;
+  private Patch inFlight;
+  private String inFlightContent;
+  private TreeMap<Long, Patch> heldBack = new TreeMap<>();
+  private List<Patch> unnumbered = new ArrayList<>();
+}
@@ -0,0 +1,23 @@
+package fi.foyt.coops.session;
+
+/**
+ * Listener for collaboration session events
+ */
+public interface CoOpsSessionListener {
+  
+  /**
+   * Called when remote patches have changed local content
+   * 
+   * @param content new local content
+   * @param revisionNumber confirmed revision number
+   */
+  public void onRemoteChange(String content, Long revisionNumber);
+  
+  /**
+   * Called when local changes could not be rebased on top of remote changes and had to be discarded
+   * 
+   * @param discardedContent local content that was discarded
+   */
+  public void onLocalChangesDiscarded(String discardedContent);
+
+}
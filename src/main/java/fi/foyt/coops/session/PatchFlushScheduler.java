@@ -0,0 +1,288 @@
+package fi.foyt.coops.session;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import fi.foyt.coops.CoOpsCallback;
+import fi.foyt.coops.ForbiddenException;
+import fi.foyt.coops.UnauthorizedException;
+
+/**
+ * Buffers local edits of a {@link CoOpsSession} and flushes them on an adaptive schedule. 
+ * 
+ * Consecutive edits are coalesced into a single patch. Flush is scheduled after a delay that follows the 
+ * observed round-trip time of previous flushes, bounded by minimum and maximum delays, or immediately when 
+ * the number of buffered edits reaches the batch size. Because the session keeps only one patch in flight, 
+ * edits made while the server is slow are merged into the next patch. When the number of buffered edits 
+ * reaches the pending limit, new edits are refused until the buffer has been flushed. 
+ * 
+ * Flushes that fail or are not accepted by the server are retried with an exponentially growing delay capped at 
+ * {@link #MAX_BACKOFF_DELAY}. When server refuses the credentials, scheduler stops and reports the failure 
+ * to the callback, and flushing continues only after {@link #resume()}.
+ */
+public class PatchFlushScheduler {
+  
+  public static final long DEFAULT_MIN_DELAY = 20l;
+  
+  public static final long DEFAULT_MAX_DELAY = 500l;
+  
+  public static final int DEFAULT_MAX_BATCH_SIZE = 50;
+  
+  public static final int DEFAULT_MAX_PENDING_EDITS = 5000;
+  
+  public static final long MAX_BACKOFF_DELAY = 30000l;
+  
+  private static final double RTT_SMOOTHING = 0.125;
+  
+  public PatchFlushScheduler(CoOpsSession session, ScheduledExecutorService executor, CoOpsCallback<Boolean> callback) {
+    this(session, executor, callback, DEFAULT_MIN_DELAY, DEFAULT_MAX_DELAY, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_PENDING_EDITS);
+  }
+  
+  /**
+   * Creates flush scheduler
+   * 
+   * @param session session
+   * @param executor executor used to run flushes
+   * @param callback callback notified with the result of each flush or null
+   * @param minDelay minimum delay in milliseconds between an edit and a flush
+   * @param maxDelay maximum delay in milliseconds between an edit and a flush
+   * @param maxBatchSize number of buffered edits that triggers an immediate flush
+   * @param maxPendingEdits number of buffered edits after which new edits are refused
+   */
+  public PatchFlushScheduler(CoOpsSession session, ScheduledExecutorService executor, CoOpsCallback<Boolean> callback, long minDelay, long maxDelay, int maxBatchSize, int maxPendingEdits) {
+    this.session = session;
+    this.executor = executor;
+    this.callback = callback;
+    this.minDelay = minDelay;
+    this.maxDelay = maxDelay;
+    this.maxBatchSize = maxBatchSize;
+    this.maxPendingEdits = maxPendingEdits;
+    this.smoothedRtt = minDelay;
+  }
+  
+  /**
+   * Buffers a local edit. 
+   * 
+   * @param content new local content
+   * @return false when the edit was refused because too many edits are waiting for a slow server
+   */
+  public synchronized boolean edit(String content) {
+    if (pendingEdits >= maxPendingEdits) {
+      return false;
+    }
+    
+    session.setLocalContent(content);
+    pendingEdits++;
+    
+    if (pendingEdits >= maxBatchSize) {
+      schedule(0);
+    } else {
+      schedule(getFlushDelay());
+    }
+    
+    return true;
+  }
+  
+  /**
+   * Flushes buffered edits as soon as possible
+   */
+  public synchronized void flushNow() {
+    schedule(0);
+  }
+  
+  /**
+   * Waits until all buffered edits have been flushed
+   * 
+   * @param timeout maximum time to wait in milliseconds
+   * @return whether buffer was flushed within the timeout
+   * @throws InterruptedException InterruptedException is thrown when waiting thread is interrupted
+   */
+  public synchronized boolean awaitFlushed(long timeout) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeout;
+    while ((pendingEdits > 0) || flushing) {
+      if (stopped && !flushing) {
+        return false;
+      }
+      
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        return false;
+      }
+      
+      wait(remaining);
+    }
+    
+    return true;
+  }
+  
+  /**
+   * Returns current flush delay in milliseconds
+   * 
+   * @return flush delay in milliseconds
+   */
+  public synchronized long getFlushDelay() {
+    return Math.max(minDelay, Math.min(maxDelay, Math.round(smoothedRtt)));
+  }
+  
+  /**
+   * Returns smoothed round-trip time of flushes in milliseconds
+   * 
+   * @return smoothed round-trip time in milliseconds
+   */
+  public synchronized double getSmoothedRtt() {
+    return smoothedRtt;
+  }
+  
+  /**
+   * Returns number of buffered edits waiting to be flushed
+   * 
+   * @return number of buffered edits
+   */
+  public synchronized int getPendingEdits() {
+    return pendingEdits;
+  }
+  
+  /**
+   * Returns whether scheduler has stopped because server refused the credentials
+   * 
+   * @return whether scheduler has stopped
+   */
+  public synchronized boolean isStopped() {
+    return stopped;
+  }
+  
+  /**
+   * Resumes flushing after the scheduler has stopped, e.g. after credentials have been renewed
+   */
+  public synchronized void resume() {
+    stopped = false;
+    consecutiveFailures = 0;
+    if (pendingEdits > 0) {
+      schedule(0);
+    }
+  }
+  
+  /**
+   * Cancels scheduled flush. Buffered edits remain in the session.
+   */
+  public synchronized void cancel() {
+    if (scheduled != null) {
+      scheduled.cancel(false);
+      scheduled = null;
+    }
+  }
+  
+  private long getBackoffDelay() {
+    long base = Math.max(1, getFlushDelay());
+    int exponent = Math.min(consecutiveFailures - 1, 20);
+    return Math.min(MAX_BACKOFF_DELAY, base << exponent);
+  }
+  
+  private void schedule(long delay) {
+    if (stopped) {
+      return;
+    }
+    
+    if (flushing) {
+      // Flush in progress, edits are picked up when it completes
+      return;
+    }
+    
+    if (scheduled != null) {
+      if (scheduled.getDelay(TimeUnit.MILLISECONDS) <= delay) {
+        return;
+      }
+      
+      scheduled.cancel(false);
+    }
+    
+    scheduled = executor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        runFlush();
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+  
+  private void runFlush() {
+    int flushedEdits;
+    synchronized (this) {
+      scheduled = null;
+      if (flushing) {
+        return;
+      }
+      
+      flushing = true;
+      flushedEdits = pendingEdits;
+    }
+    
+    long started = System.nanoTime();
+    boolean accepted = false;
+    Exception failure = null;
+    try {
+      accepted = session.flush();
+    } catch (Exception e) {
+      failure = e;
+    }
+    
+    long rtt = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    
+    synchronized (this) {
+      flushing = false;
+      smoothedRtt += RTT_SMOOTHING * (rtt - smoothedRtt);
+      
+      if ((failure instanceof UnauthorizedException) || (failure instanceof ForbiddenException)) {
+        // Retrying with refused credentials can not succeed
+        stopped = true;
+      } else if (failure != null) {
+        consecutiveFailures++;
+        schedule(getBackoffDelay());
+      } else {
+        if (accepted) {
+          consecutiveFailures = 0;
+          pendingEdits = Math.max(0, pendingEdits - flushedEdits);
+        } else {
+          consecutiveFailures++;
+        }
+        
+        if (session.hasPendingChanges()) {
+          if (!accepted) {
+            // Conflict or concurrent flush
+            schedule(getBackoffDelay());
+          } else {
+            schedule(pendingEdits >= maxBatchSize ? 0 : getFlushDelay());
+          }
+          
+          pendingEdits = Math.max(pendingEdits, 1);
+        } else {
+          pendingEdits = 0;
+        }
+      }
+      
+      notifyAll();
+    }
+    
+    if (callback != null) {
+      if (failure != null) {
+        callback.onFailure(failure);
+      } else {
+        callback.onSuccess(accepted);
+      }
+    }
+  }
+  
+  private CoOpsSession session;
+  private ScheduledExecutorService executor;
+  private CoOpsCallback<Boolean> callback;
+  private long minDelay;
+  private long maxDelay;
+  private int maxBatchSize;
+  private int maxPendingEdits;
+  private double smoothedRtt;
+  private int pendingEdits;
+  private boolean flushing;
+  private boolean stopped;
+  private int consecutiveFailures;
+  private ScheduledFuture<?> scheduled;
+}
@@ -0,0 +1,127 @@
+package fi.foyt.coops.snapshot;
+
+import java.io.IOException;
+import java.net.URI;
+
+import fi.foyt.coops.Auth;
+import fi.foyt.coops.CoOps;
+import fi.foyt.coops.PatchException;
+import fi.foyt.coops.ServerException;
+import fi.foyt.coops.UsageException;
+import fi.foyt.coops.document.Document;
+import fi.foyt.coops.model.FileJoin;
+import fi.foyt.coops.model.Patch;
+import fi.foyt.coops.patch.PatchEngine;
+
+/**
+ * Opens documents from local snapshots. 
+ * 
+ * When a snapshot of the file exists, only the patches made after the snapshot revision are fetched and applied. 
+ * When there is no usable snapshot or the snapshot is too far behind, the file is joined and its content is 
+ * stored as a new snapshot.
+ */
+public class SnapshotLoader {
+  
+  public static final int DEFAULT_MAX_CATCH_UP_PATCHES = 500;
+  
+  public SnapshotLoader(SnapshotStore snapshotStore) {
+    this(snapshotStore, new PatchEngine());
+  }
+  
+  public SnapshotLoader(SnapshotStore snapshotStore, PatchEngine patchEngine) {
+    this.snapshotStore = snapshotStore;
+    this.patchEngine = patchEngine;
+  }
+  
+  /**
+   * Opens a document
+   * 
+   * @param coOps client of the file
+   * @param fileId file id
+   * @param algorithms algorithms supported by client in preference order, used when file needs to be joined
+   * @param auth authentication used for the requests
+   * @return document at the latest revision
+   * @throws ServerException ServerException is thrown when server returns does not return a successful result
+   * @throws IOException IOException is thrown when error occurs in server communication or in writing the snapshot
+   * @throws UsageException UsageException is thrown when method is called incorrectly
+   */
+  public Document open(CoOps coOps, String fileId, String[] algorithms, Auth auth) throws UsageException, ServerException, IOException {
+    URI fileUri = coOps.getFileURI();
+    Document document = loadSnapshot(fileUri, fileId);
+    if (document != null) {
+      Long snapshotRevision = document.getRevisionNumber();
+      Patch[] patches = coOps.getFileUpdates(snapshotRevision, auth);
+      
+      if ((patches.length <= maxCatchUpPatches) && catchUp(document, patches)) {
+        if (patches.length > 0) {
+          snapshotStore.save(fileUri, fileId, document);
+        }
+        
+        return document;
+      }
+    }
+    
+    FileJoin fileJoin = coOps.joinFile(algorithms, auth);
+    document = Document.fromFileJoin(fileJoin);
+    snapshotStore.save(fileUri, fileId, document);
+    
+    return document;
+  }
+  
+  /**
+   * Stores a snapshot of the document, e.g. when document is closed. 
+   * 
+   * Only content confirmed at the document revision is stored, local changes that have not been sent to the 
+   * server are left out of the snapshot.
+   * 
+   * @param coOps client of the file
+   * @param fileId file id
+   * @param document document
+   * @throws IOException IOException is thrown when snapshot could not be written
+   */
+  public void save(CoOps coOps, String fileId, Document document) throws IOException {
+    snapshotStore.save(coOps.getFileURI(), fileId, document);
+  }
+  
+  public int getMaxCatchUpPatches() {
+    return maxCatchUpPatches;
+  }
+  
+  /**
+   * Sets maximum number of patches applied into a snapshot. Files further behind are joined instead.
+   * 
+   * @param maxCatchUpPatches maximum number of patches
+   */
+  public void setMaxCatchUpPatches(int maxCatchUpPatches) {
+    this.maxCatchUpPatches = maxCatchUpPatches;
+  }
+  
+  public SnapshotStore getSnapshotStore() {
+    return snapshotStore;
+  }
+  
+  private Document loadSnapshot(URI fileUri, String fileId) {
+    try {
+      return snapshotStore.load(fileUri, fileId);
+    } catch (IOException e) {
+      // Unreadable snapshots are replaced by joining the file
+      return null;
+    }
+  }
+  
+  private boolean catchUp(Document document, Patch[] patches) {
+    try {
+      for (Patch patch : patches) {
+        patchEngine.applyPatch(document, patch);
+      }
+    } catch (PatchException e) {
+      return false;
+    }
+    
+    return true;
+  }
+  
+  private SnapshotStore snapshotStore;
+  private PatchEngine patchEngine;
+  private volatile int maxCatchUpPatches = DEFAULT_MAX_CATCH_UP_PATCHES;
+}
@@ -0,0 +1,295 @@
+package fi.foyt.coops.snapshot;
+
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import fi.foyt.coops.document.Document;
+import fi.foyt.coops.document.Rope;
+
+/**
+ * On-disk store of document snapshots keyed by file URI, file id and revision number. 
+ * 
+ * Snapshots contain only the content confirmed by the server at the snapshot revision, local changes of the document 
+ * are not stored. 
+ * 
+ * Snapshots are written into temporary files that are atomically moved into place, so a crash never leaves a partially 
+ * written snapshot behind. Snapshots are read with memory-mapped I/O and verified against a CRC32 checksum. 
+ */
+public class SnapshotStore {
+  
+  public static final int DEFAULT_MAX_SNAPSHOTS_PER_FILE = 2;
+  
+  private static final int MAGIC = 0x434f534e;
+  
+  private static final byte FORMAT_VERSION = 1;
+  
+  private static final int TRAILER_SIZE = 8;
+  
+  private static final String SNAPSHOT_SUFFIX = ".snapshot";
+  
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  
+  public SnapshotStore(Path directory) throws IOException {
+    this.directory = directory;
+    Files.createDirectories(directory);
+  }
+  
+  /**
+   * Stores a snapshot of the document's confirmed content. Older snapshots exceeding the per file limit are deleted.
+   * 
+   * @param fileUri file URI
+   * @param fileId file id
+   * @param document document
+   * @throws IOException IOException is thrown when snapshot could not be written
+   */
+  public void save(URI fileUri, String fileId, Document document) throws IOException {
+    Rope content;
+    Long revisionNumber;
+    synchronized (document) {
+      content = document.getConfirmedContent();
+      revisionNumber = document.getRevisionNumber();
+    }
+    
+    if (revisionNumber == null) {
+      throw new IOException("Document does not have a revision number");
+    }
+    
+    Path fileDirectory = getFileDirectory(fileUri, fileId);
+    Files.createDirectories(fileDirectory);
+    
+    Path temporary = Files.createTempFile(fileDirectory, "snapshot", ".tmp");
+    try {
+      try (FileOutputStream fileStream = new FileOutputStream(temporary.toFile())) {
+        DataOutputStream headerStream = new DataOutputStream(fileStream);
+        headerStream.writeInt(MAGIC);
+        headerStream.writeByte(FORMAT_VERSION);
+        writeString(headerStream, document.getContentType());
+        headerStream.flush();
+        
+        CheckedOutputStream contentStream = new CheckedOutputStream(fileStream, new CRC32());
+        Writer writer = new BufferedWriter(new OutputStreamWriter(contentStream, UTF8));
+        content.writeTo(writer);
+        writer.flush();
+        
+        headerStream.writeLong(contentStream.getChecksum().getValue());
+        headerStream.flush();
+        fileStream.getChannel().force(true);
+      }
+      
+      Files.move(temporary, getSnapshotPath(fileUri, fileId, revisionNumber), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+    
+    prune(fileUri, fileId, maxSnapshotsPerFile);
+  }
+  
+  /**
+   * Loads latest snapshot of a file
+   * 
+   * @param fileUri file URI
+   * @param fileId file id
+   * @return latest snapshot or null if file does not have snapshots
+   * @throws IOException IOException is thrown when snapshot could not be read or it is corrupted
+   */
+  public Document load(URI fileUri, String fileId) throws IOException {
+    List<Long> revisions = getRevisions(fileUri, fileId);
+    if (revisions.isEmpty()) {
+      return null;
+    }
+    
+    return load(fileUri, fileId, revisions.get(revisions.size() - 1));
+  }
+  
+  /**
+   * Loads snapshot of a file revision
+   * 
+   * @param fileUri file URI
+   * @param fileId file id
+   * @param revisionNumber revision number
+   * @return snapshot or null if revision does not have a snapshot
+   * @throws IOException IOException is thrown when snapshot could not be read or it is corrupted
+   */
+  public Document load(URI fileUri, String fileId, Long revisionNumber) throws IOException {
+    Path path = getSnapshotPath(fileUri, fileId, revisionNumber);
+    if (!Files.exists(path)) {
+      return null;
+    }
+    
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      
+      if ((buffer.remaining() < 5 + TRAILER_SIZE) || (buffer.getInt() != MAGIC) || (buffer.get() != FORMAT_VERSION)) {
+        throw new IOException("Invalid snapshot file " + path);
+      }
+      
+      String contentType = readString(buffer);
+      int contentEnd = buffer.limit() - TRAILER_SIZE;
+      if (buffer.position() > contentEnd) {
+        throw new IOException("Invalid snapshot file " + path);
+      }
+      
+      long checksum = buffer.getLong(contentEnd);
+      buffer.limit(contentEnd);
+      
+      if (getChecksum(buffer.duplicate()) != checksum) {
+        throw new IOException("Corrupted snapshot file " + path);
+      }
+      
+      try {
+        return new Document(Rope.valueOf(UTF8.newDecoder().decode(buffer)), contentType, revisionNumber);
+      } catch (CharacterCodingException e) {
+        throw new IOException("Corrupted snapshot file " + path, e);
+      }
+    }
+  }
+  
+  /**
+   * Returns revision numbers of stored snapshots of a file
+   * 
+   * @param fileUri file URI
+   * @param fileId file id
+   * @return revision numbers in ascending order
+   * @throws IOException IOException is thrown when snapshots could not be listed
+   */
+  public List<Long> getRevisions(URI fileUri, String fileId) throws IOException {
+    List<Long> result = new ArrayList<>();
+    
+    Path fileDirectory = getFileDirectory(fileUri, fileId);
+    if (Files.isDirectory(fileDirectory)) {
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(fileDirectory, "*" + SNAPSHOT_SUFFIX)) {
+        for (Path path : stream) {
+          String name = path.getFileName().toString();
+          result.add(Long.parseLong(name.substring(0, name.length() - SNAPSHOT_SUFFIX.length())));
+        }
+      }
+    }
+    
+    Collections.sort(result);
+    
+    return result;
+  }
+  
+  /**
+   * Deletes all but the latest snapshots of a file
+   * 
+   * @param fileUri file URI
+   * @param fileId file id
+   * @param keep number of latest snapshots to keep
+   * @throws IOException IOException is thrown when snapshots could not be deleted
+   */
+  public void prune(URI fileUri, String fileId, int keep) throws IOException {
+    List<Long> revisions = getRevisions(fileUri, fileId);
+    for (int i = 0, l = revisions.size() - keep; i < l; i++) {
+      Files.deleteIfExists(getSnapshotPath(fileUri, fileId, revisions.get(i)));
+    }
+  }
+  
+  /**
+   * Deletes all snapshots of a file
+   * 
+   * @param fileUri file URI
+   * @param fileId file id
+   * @throws IOException IOException is thrown when snapshots could not be deleted
+   */
+  public void delete(URI fileUri, String fileId) throws IOException {
+    prune(fileUri, fileId, 0);
+    Files.deleteIfExists(getFileDirectory(fileUri, fileId));
+  }
+  
+  public int getMaxSnapshotsPerFile() {
+    return maxSnapshotsPerFile;
+  }
+  
+  /**
+   * Sets number of latest snapshots kept per file
+   * 
+   * @param maxSnapshotsPerFile number of snapshots kept per file
+   */
+  public void setMaxSnapshotsPerFile(int maxSnapshotsPerFile) {
+    this.maxSnapshotsPerFile = maxSnapshotsPerFile;
+  }
+  
+  private Path getFileDirectory(URI fileUri, String fileId) throws IOException {
+    // Same file id may exist on several servers, server is included as a digest to keep directory names short
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] hash = digest.digest(fileUri.toString().getBytes(UTF8));
+      
+      StringBuilder result = new StringBuilder(URLEncoder.encode(fileId, "UTF-8")).append('@');
+      for (byte b : hash) {
+        result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      
+      return directory.resolve(result.toString());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+  
+  private Path getSnapshotPath(URI fileUri, String fileId, Long revisionNumber) throws IOException {
+    return getFileDirectory(fileUri, fileId).resolve(String.format("%020d%s", revisionNumber, SNAPSHOT_SUFFIX));
+  }
+  
+  private long getChecksum(ByteBuffer buffer) {
+    CRC32 crc = new CRC32();
+    byte[] chunk = new byte[8192];
+    while (buffer.hasRemaining()) {
+      int length = Math.min(chunk.length, buffer.remaining());
+      buffer.get(chunk, 0, length);
+      crc.update(chunk, 0, length);
+    }
+    
+    return crc.getValue();
+  }
+  
+  private void writeString(DataOutputStream stream, String value) throws IOException {
+    if (value == null) {
+      stream.writeInt(-1);
+    } else {
+      byte[] bytes = value.getBytes(UTF8);
+      stream.writeInt(bytes.length);
+      stream.write(bytes);
+    }
+  }
+  
+  private String readString(ByteBuffer buffer) throws IOException {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    
+    if (length > buffer.remaining()) {
+      throw new IOException("Invalid snapshot file");
+    }
+    
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, UTF8);
+  }
+  
+  private Path directory;
+  private volatile int maxSnapshotsPerFile = DEFAULT_MAX_SNAPSHOTS_PER_FILE;
+}
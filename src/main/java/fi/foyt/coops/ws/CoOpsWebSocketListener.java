@@ -0,0 +1,43 @@
+package fi.foyt.coops.ws;
+
+import fi.foyt.coops.model.Patch;
+
+/**
+ * Listener for WebSocket session events
+ */
+public interface CoOpsWebSocketListener {
+
+  /**
+   * Called when session has been connected (or reconnected) and caught up with the server
+   */
+  public void onConnect();
+  
+  /**
+   * Called when a patch made by another client has been applied into the file
+   * 
+   * @param patch remote patch
+   */
+  public void onPatch(Patch patch);
+  
+  /**
+   * Called when server has rejected a patch sent by this client
+   * 
+   * @param message rejection message
+   */
+  public void onPatchRejected(String message);
+  
+  /**
+   * Called when session has been disconnected
+   * 
+   * @param reconnecting whether session is trying to reconnect
+   */
+  public void onDisconnect(boolean reconnecting);
+  
+  /**
+   * Called when an error occurs in the session
+   * 
+   * @param exception error
+   */
+  public void onError(Exception exception);
+  
+}
@@ -0,0 +1,420 @@
+package fi.foyt.coops.ws;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.commons.lang3.StringUtils;
+import org.java_websocket.client.DefaultSSLWebSocketClientFactory;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_17;
+import org.java_websocket.handshake.ServerHandshake;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import fi.foyt.coops.Auth;
+import fi.foyt.coops.CoOps;
+import fi.foyt.coops.CoOpsException;
+import fi.foyt.coops.UsageException;
+import fi.foyt.coops.model.FileJoin;
+import fi.foyt.coops.model.Patch;
+
+/**
+ * Collaboration session that uses Co-Ops WebSocket extension for patch traffic. 
+ * 
+ * Session is created from the result of {@link CoOps#joinFile(String[], Auth)}. Outgoing patches are sent as 
+ * WebSocket frames and patches made by other clients are delivered to the listener. When connection is lost 
+ * the session reconnects automatically and resumes from the last known revision by fetching missed patches 
+ * with {@link CoOps#getFileUpdates(Long, Auth)}. 
+ * 
+ * Patches are delivered to the listener strictly in revision order. Patches that arrive ahead of a missing revision 
+ * are held back while the missing patches are fetched from the server.
+ */
+public class CoOpsWebSocketSession {
+  
+  public static final long DEFAULT_RECONNECT_DELAY = 500l;
+  
+  public static final long MAX_RECONNECT_DELAY = 30000l;
+  
+  private static final int CONNECT_TIMEOUT = 10000;
+  
+  private static final String MESSAGE_TYPE_PATCH = "patch";
+  
+  private static final String MESSAGE_TYPE_PATCH_REJECTED = "patchRejected";
+  
+  /**
+   * Creates WebSocket session
+   * 
+   * @param coOps client used for joining the file
+   * @param fileJoin file join result
+   * @param auth authentication used for the session
+   * @param secure whether secure WebSocket url should be used
+   * @param listener session listener
+   * @throws UsageException UsageException is thrown when file join result does not contain WebSocket extension information
+   */
+  public CoOpsWebSocketSession(CoOps coOps, FileJoin fileJoin, Auth auth, boolean secure, CoOpsWebSocketListener listener) throws UsageException {
+    String url = secure ? fileJoin.getSecureWebSocketUrl() : fileJoin.getUnsecureWebSocketUrl();
+    if (StringUtils.isBlank(url)) {
+      throw new UsageException("File join does not contain " + (secure ? "secure" : "unsecure") + " WebSocket url");
+    }
+    
+    try {
+      this.uri = new URI(url);
+    } catch (URISyntaxException e) {
+      throw new UsageException("Invalid WebSocket url: " + url);
+    }
+    
+    this.coOps = coOps;
+    this.auth = auth;
+    this.listener = listener;
+    this.clientId = fileJoin.getClientId();
+    this.revisionNumber = fileJoin.getRevisionNumber();
+    this.reconnectDelay = DEFAULT_RECONNECT_DELAY;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "coops-websocket-reconnect");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+  
+  /**
+   * Opens WebSocket connection
+   */
+  public synchronized void connect() {
+    if (closed) {
+      throw new IllegalStateException("Session has been closed");
+    }
+    
+    client = new SessionClient(uri, getHandshakeHeaders());
+    
+    if ("wss".equalsIgnoreCase(uri.getScheme())) {
+      try {
+        client.setWebSocketFactory(new DefaultSSLWebSocketClientFactory(SSLContext.getDefault()));
+      } catch (NoSuchAlgorithmException e) {
+        listener.onError(e);
+        return;
+      }
+    }
+    
+    client.connect();
+  }
+  
+  /**
+   * Sends a patch into the server
+   * 
+   * @param patch patch
+   * @throws IOException IOException is thrown when session is not connected
+   * @throws UsageException UsageException is thrown when patch is missing required fields
+   */
+  public void sendPatch(Patch patch) throws IOException, UsageException {
+    if (StringUtils.isBlank(patch.getAlgorithm())) {
+      throw new UsageException("algorithm is required");
+    }
+    
+    if (patch.getRevisionNumber() == null) {
+      throw new UsageException("revisionNumber is required");
+    }
+    
+    SessionClient connectedClient;
+    synchronized (this) {
+      connectedClient = connected ? client : null;
+    }
+    
+    if (connectedClient == null) {
+      throw new IOException("WebSocket session is not connected");
+    }
+    
+    JsonObject message = new JsonObject();
+    message.addProperty("type", MESSAGE_TYPE_PATCH);
+    message.add("data", coOps.getGson().toJsonTree(patch));
+    
+    try {
+      connectedClient.send(message.toString());
+    } catch (RuntimeException e) {
+      throw new IOException("Could not send patch", e);
+    }
+  }
+  
+  /**
+   * Closes the session. Closed session does not reconnect.
+   */
+  public void close() {
+    SessionClient closingClient;
+    synchronized (this) {
+      closed = true;
+      connected = false;
+      closingClient = client;
+      client = null;
+    }
+    
+    scheduler.shutdownNow();
+    
+    if (closingClient != null) {
+      closingClient.close();
+    }
+  }
+  
+  /**
+   * Returns whether session is currently connected
+   * 
+   * @return whether session is currently connected
+   */
+  public synchronized boolean isConnected() {
+    return connected;
+  }
+  
+  /**
+   * Returns last revision number known by the session
+   * 
+   * @return last known revision number
+   */
+  public synchronized Long getRevisionNumber() {
+    return revisionNumber;
+  }
+  
+  /**
+   * Returns client id assigned by the server
+   * 
+   * @return client id
+   */
+  public String getClientId() {
+    return clientId;
+  }
+  
+  /**
+   * Sets initial delay in milliseconds before reconnecting. Delay doubles on consecutive failures
+   * 
+   * @param reconnectDelay reconnect delay in milliseconds
+   */
+  public void setReconnectDelay(long reconnectDelay) {
+    this.reconnectDelay = reconnectDelay;
+  }
+  
+  private Map<String, String> getHandshakeHeaders() {
+    Map<String, String> headers = new HashMap<>();
+    if ((auth != null) && (auth.getHeaders() != null)) {
+      headers.putAll(auth.getHeaders());
+    }
+    
+    return headers;
+  }
+  
+  private void handleOpen(SessionClient source) {
+    synchronized (this) {
+      if (source != client) {
+        return;
+      }
+    }
+    
+    try {
+      resume();
+    } catch (IOException | CoOpsException e) {
+      listener.onError(e);
+      source.close();
+      return;
+    }
+    
+    synchronized (this) {
+      if (source != client) {
+        return;
+      }
+      
+      connected = true;
+      reconnectAttempts = 0;
+    }
+    
+    listener.onConnect();
+  }
+  
+  private void resume() throws IOException, CoOpsException {
+    Long knownRevision = getRevisionNumber();
+    if (knownRevision == null) {
+      return;
+    }
+    
+    for (Patch patch : coOps.getFileUpdates(knownRevision, auth)) {
+      receive(patch);
+    }
+  }
+  
+  private void handleMessage(String text) {
+    JsonObject message;
+    try {
+      message = new JsonParser().parse(text).getAsJsonObject();
+    } catch (JsonParseException | IllegalStateException e) {
+      listener.onError(e);
+      return;
+    }
+    
+    JsonElement type = message.get("type");
+    JsonElement data = message.get("data");
+    
+    if (type == null) {
+      return;
+    }
+
+    try {
+      switch (type.getAsString()) {
+        case MESSAGE_TYPE_PATCH:
+          handlePatch(coOps.getGson().fromJson(data, Patch.class));
+        break;
+        case MESSAGE_TYPE_PATCH_REJECTED:
+          listener.onPatchRejected(data != null && data.isJsonPrimitive() ? data.getAsString() : null);
+        break;
+      }
+    } catch (JsonParseException e) {
+      listener.onError(e);
+    }
+  }
+  
+  private void handlePatch(Patch patch) {
+    if (patch == null) {
+      return;
+    }
+    
+    if (receive(patch)) {
+      // Revision has been skipped, missing patches are fetched from the server
+      try {
+        resume();
+      } catch (IOException | CoOpsException e) {
+        listener.onError(e);
+      }
+    }
+  }
+  
+  /**
+   * Delivers patch and the held back patches following it to the listener in revision order
+   * 
+   * @return whether patches are held back because of a missing revision
+   */
+  private boolean receive(Patch patch) {
+    List<Patch> deliverable = new ArrayList<>();
+    boolean missingRevisions;
+    
+    synchronized (this) {
+      Long patchRevision = patch.getRevisionNumber();
+      if (patchRevision == null) {
+        deliverable.add(patch);
+      } else if ((revisionNumber == null) || (patchRevision > revisionNumber)) {
+        heldBack.put(patchRevision, patch);
+      }
+      
+      while (!heldBack.isEmpty()) {
+        Long nextRevision = heldBack.firstKey();
+        if ((revisionNumber != null) && (nextRevision <= revisionNumber)) {
+          // Already seen this revision
+          heldBack.remove(nextRevision);
+          continue;
+        }
+        
+        if ((revisionNumber != null) && (nextRevision != revisionNumber + 1)) {
+          // Revision is missing, patches are kept until it has been fetched
+          break;
+        }
+        
+        revisionNumber = nextRevision;
+        deliverable.add(heldBack.remove(nextRevision));
+      }
+      
+      missingRevisions = !heldBack.isEmpty();
+    }
+    
+    for (Patch deliveredPatch : deliverable) {
+      listener.onPatch(deliveredPatch);
+    }
+    
+    return missingRevisions;
+  }
+  
+  private void handleClose(SessionClient source) {
+    boolean reconnecting;
+    long delay = 0;
+    
+    synchronized (this) {
+      if (source != client) {
+        return;
+      }
+      
+      connected = false;
+      reconnecting = !closed;
+      if (reconnecting) {
+        delay = Math.min(reconnectDelay << Math.min(reconnectAttempts, 16), MAX_RECONNECT_DELAY);
+        reconnectAttempts++;
+      }
+    }
+    
+    listener.onDisconnect(reconnecting);
+    
+    if (reconnecting) {
+      scheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (CoOpsWebSocketSession.this) {
+            if (!closed) {
+              connect();
+            }
+          }
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+    }
+  }
+  
+  private URI uri;
+  private CoOps coOps;
+  private Auth auth;
+  private CoOpsWebSocketListener listener;
+  private String clientId;
+  private Long revisionNumber;
+  private TreeMap<Long, Patch> heldBack = new TreeMap<>();
+  private long reconnectDelay;
+  private int reconnectAttempts;
+  private ScheduledExecutorService scheduler;
+  private SessionClient client;
+  private boolean connected;
+  private boolean closed;
+  
+  private class SessionClient extends WebSocketClient {
+    
+    public SessionClient(URI serverUri, Map<String, String> headers) {
+      super(serverUri, new Draft_17(), headers, CONNECT_TIMEOUT);
+    }
+
+    @Override
+    public void onOpen(ServerHandshake handshake) {
+      handleOpen(this);
+    }
+
+    @Override
+    public void onMessage(String message) {
+      handleMessage(message);
+    }
+
+    @Override
+    public void onClose(int code, String reason, boolean remote) {
+      handleClose(this);
+    }
+
+    @Override
+    public void onError(Exception exception) {
+      listener.onError(exception);
+    }
+  }
+}
@@ -1,22 +1,42 @@
 package fi.foyt.coops;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URI;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 
-import fi.foyt.coops.io.IOHandler;
+import fi.foyt.coops.io.ConditionalIOHandler;
+import fi.foyt.coops.io.ConditionalResponse;
+import fi.foyt.coops.io.StreamingIOHandler;
 
-public class TestIO implements IOHandler {
+public class TestIO implements StreamingIOHandler, ConditionalIOHandler {
 
   @Override
   public String doGetRequest(URI uri, Auth auth) throws IOException, ServerException {
     return executeRequest(uri);
   }
 
+  @Override
+  public Reader doStreamingGetRequest(URI uri, Auth auth) throws IOException, ServerException {
+    return new StringReader(executeRequest(uri));
+  }
+
+  @Override
+  public ConditionalResponse doConditionalGetRequest(URI uri, String eTag, Date ifModifiedSince, Auth auth) throws IOException, ServerException {
+    String mockedETag = mockedETags.get(getPath(uri));
+    if ((eTag != null) && eTag.equals(mockedETag)) {
+      return new ConditionalResponse(false, eTag, null, null);
+    }
+    
+    return new ConditionalResponse(true, mockedETag, null, new StringReader(executeRequest(uri)));
+  }
+
   @Override
   public String doPostRequest(URI uri, String body, String contentType, Auth auth) throws IOException, ServerException {
     return executeRequest(uri);
@@ -36,8 +56,14 @@ public class TestIO implements IOHandler {
     mockedResult.put(path, response);
   }
 
+  public void addMockedResult(String path, String response, String eTag) {
+    mockedResult.put(path, response);
+    mockedETags.put(path, eTag);
+  }
+
   public void clearMockedResults() {
     mockedResult.clear();
+    mockedETags.clear();
   }
   
   public void addException(String path, Class<? extends Exception> exception) {
@@ -48,13 +74,19 @@ public class TestIO implements IOHandler {
     exceptions.clear();
   }
   
-  private String executeRequest(URI uri) throws IOException, ServerException {
+  private String getPath(URI uri) {
     String path = uri.getPath();
     String query = uri.getQuery();
     if (StringUtils.isNotBlank(query)) {
       path += "?" + query;
     }
     
+    return path;
+  }
+  
+  private String executeRequest(URI uri) throws IOException, ServerException {
+    String path = getPath(uri);
+    
     String result = mockedResult.get(path);
     if (result != null) {
       return result;
@@ -82,6 +114,7 @@ public class TestIO implements IOHandler {
   }
   
   private Map<String, String> mockedResult = new HashMap<>();
+  private Map<String, String> mockedETags = new HashMap<>();
   private Map<String, Class<? extends Exception>> exceptions = new HashMap<>();
   
   
@@ -0,0 +1,145 @@
+package fi.foyt.coops.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.foyt.coops.CoOps;
+import fi.foyt.coops.CoOpsAsync;
+import fi.foyt.coops.CoOpsCallback;
+import fi.foyt.coops.ForbiddenException;
+import fi.foyt.coops.TestIO;
+import fi.foyt.coops.UsageException;
+import fi.foyt.coops.model.File;
+
+public class CoOpsAsyncTest {
+  
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(2);
+  }
+  
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testGetFile() throws Exception {
+    TestIO testIO = new TestIO();
+    CoOpsAsync coOpsAsync = new CoOpsAsync(new CoOps(testIO, "http", "localhost", 80, ""), executor);
+    testIO.addMockedResult("", 
+      "{" + 
+      "  \"id\": \"1234\"," +
+      "  \"revisionNumber\": 22," +
+      "  \"content\": \"bca\"" +
+      "}");
+    
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicReference<File> callbackResult = new AtomicReference<>();
+    
+    File file = coOpsAsync.getFile(null, new CoOpsCallback<File>() {
+      @Override
+      public void onSuccess(File result) {
+        callbackResult.set(result);
+        latch.countDown();
+      }
+      
+      @Override
+      public void onFailure(Exception exception) {
+        latch.countDown();
+      }
+    }).get(5, TimeUnit.SECONDS);
+    
+    assertNotNull(file);
+    assertEquals("1234", file.getId());
+    assertEquals(new Long(22), file.getRevisionNumber());
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    assertEquals(file, callbackResult.get());
+  }
+
+  @Test
+  public void testCallbackException() throws Exception {
+    final AtomicReference<Throwable> reported = new AtomicReference<>();
+    ExecutorService reportingExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.setUncaughtExceptionHandler(new UncaughtExceptionHandler() {
+          @Override
+          public void uncaughtException(Thread t, Throwable e) {
+            reported.set(e);
+          }
+        });
+        
+        return thread;
+      }
+    });
+    
+    try {
+      TestIO testIO = new TestIO();
+      CoOpsAsync coOpsAsync = new CoOpsAsync(new CoOps(testIO, "http", "localhost", 80, ""), reportingExecutor);
+      testIO.addMockedResult("", "{\"id\": \"1234\"}");
+      
+      File file = coOpsAsync.getFile(null, new CoOpsCallback<File>() {
+        @Override
+        public void onSuccess(File result) {
+          throw new IllegalStateException("callback failed");
+        }
+        
+        @Override
+        public void onFailure(Exception exception) {
+        }
+      }).get(5, TimeUnit.SECONDS);
+      
+      // Call succeeded, so the future succeeds even though the callback failed
+      assertEquals("1234", file.getId());
+      assertTrue(reported.get() instanceof IllegalStateException);
+    } finally {
+      reportingExecutor.shutdownNow();
+    }
+  }
+  
+  @Test
+  public void testServerException() throws Exception {
+    TestIO testIO = new TestIO();
+    CoOpsAsync coOpsAsync = new CoOpsAsync(new CoOps(testIO, "http", "localhost", 80, ""), executor);
+    testIO.addException("", ForbiddenException.class);
+    
+    try {
+      coOpsAsync.getFile(null).get(5, TimeUnit.SECONDS);
+      fail("ExecutionException expected");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof ForbiddenException);
+    }
+  }
+
+  @Test
+  public void testUsageException() throws Exception {
+    TestIO testIO = new TestIO();
+    CoOpsAsync coOpsAsync = new CoOpsAsync(new CoOps(testIO, "http", "localhost", 80, ""), executor);
+    
+    try {
+      coOpsAsync.getFileRevision(null, null).get(5, TimeUnit.SECONDS);
+      fail("ExecutionException expected");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof UsageException);
+    }
+  }
+  
+  private ExecutorService executor;
+}
@@ -0,0 +1,218 @@
+package fi.foyt.coops.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.foyt.coops.Auth;
+import fi.foyt.coops.CoOps;
+import fi.foyt.coops.CoOpsBulk;
+import fi.foyt.coops.CoOpsCallback;
+import fi.foyt.coops.RevisionIterator;
+import fi.foyt.coops.ServerException;
+import fi.foyt.coops.TestIO;
+import fi.foyt.coops.UsageException;
+import fi.foyt.coops.model.File;
+
+public class CoOpsBulkTest {
+  
+  private static final int REVISIONS = 40;
+  
+  private static final long LATENCY = 50;
+  
+  @Before
+  public void setUp() {
+    executor = Executors.newCachedThreadPool();
+    concurrentRequests = new AtomicInteger();
+    maxConcurrentRequests = new AtomicInteger();
+    
+    testIO = new TestIO() {
+      @Override
+      public String doGetRequest(URI uri, Auth auth) throws IOException, ServerException {
+        int concurrent = concurrentRequests.incrementAndGet();
+        synchronized (maxConcurrentRequests) {
+          maxConcurrentRequests.set(Math.max(maxConcurrentRequests.get(), concurrent));
+        }
+        
+        try {
+          Thread.sleep(LATENCY);
+          return super.doGetRequest(uri, auth);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        } finally {
+          concurrentRequests.decrementAndGet();
+        }
+      }
+    };
+    
+    for (int i = 1; i <= REVISIONS; i++) {
+      testIO.addMockedResult("?revisionNumber=" + i, "{\"id\":\"1\",\"revisionNumber\":" + i + "}");
+      testIO.addMockedResult("/" + i, "{\"id\":\"" + i + "\",\"revisionNumber\":1}");
+    }
+    
+    coOps = new CoOps(testIO, "http", "localhost", 80, "");
+    coOps.setConditionalGetEnabled(false);
+  }
+  
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testGetFileRevisions() throws UsageException, ServerException, IOException {
+    CoOpsBulk bulk = new CoOpsBulk(executor, 8);
+    
+    long startTime = System.nanoTime();
+    List<File> revisions = bulk.getFileRevisions(coOps, 1, REVISIONS, null);
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    
+    assertEquals(REVISIONS, revisions.size());
+    for (int i = 0; i < REVISIONS; i++) {
+      assertEquals(new Long(i + 1), revisions.get(i).getRevisionNumber());
+    }
+    
+    assertTrue(maxConcurrentRequests.get() <= 8);
+    assertTrue(elapsed < REVISIONS * LATENCY / 2);
+  }
+
+  @Test
+  public void testGetFiles() throws UsageException, ServerException, IOException {
+    List<CoOps> files = new ArrayList<>();
+    for (int i = 1; i <= 10; i++) {
+      CoOps file = new CoOps(testIO, "http", "localhost", 80, "/" + i);
+      file.setConditionalGetEnabled(false);
+      files.add(file);
+    }
+    
+    List<File> result = new CoOpsBulk(executor, 4).getFiles(files, null);
+    assertEquals(10, result.size());
+    for (int i = 0; i < 10; i++) {
+      assertEquals(String.valueOf(i + 1), result.get(i).getId());
+    }
+    
+    assertTrue(maxConcurrentRequests.get() <= 4);
+  }
+  
+  @Test (expected = ServerException.class)
+  public void testGetFileRevisionsFailure() throws UsageException, ServerException, IOException {
+    testIO.clearMockedResults();
+    testIO.addMockedResult("?revisionNumber=1", "{\"id\":\"1\",\"revisionNumber\":1}");
+    testIO.addException("?revisionNumber=2", ServerException.class);
+    new CoOpsBulk(executor, 2).getFileRevisions(coOps, 1, 2, null);
+  }
+  
+  @Test
+  public void testGetFileRevisionsCallback() throws Exception {
+    final List<Long> arrived = Collections.synchronizedList(new ArrayList<Long>());
+    final AtomicInteger failures = new AtomicInteger();
+    
+    new CoOpsBulk(executor, 8).getFileRevisions(coOps, 1, REVISIONS, null, new CoOpsCallback<File>() {
+      @Override
+      public void onSuccess(File result) {
+        arrived.add(result.getRevisionNumber());
+      }
+      
+      @Override
+      public void onFailure(Exception exception) {
+        failures.incrementAndGet();
+      }
+    }).get(5, TimeUnit.SECONDS);
+    
+    assertEquals(REVISIONS, arrived.size());
+    assertEquals(0, failures.get());
+  }
+  
+  @Test
+  public void testGetFileRevisionsCallbackFailure() throws Exception {
+    testIO.clearMockedResults();
+    testIO.addMockedResult("?revisionNumber=1", "{\"id\":\"1\",\"revisionNumber\":1}");
+    testIO.addMockedResult("?revisionNumber=3", "{\"id\":\"1\",\"revisionNumber\":3}");
+    testIO.addException("?revisionNumber=2", ServerException.class);
+    
+    Future<Void> future = new CoOpsBulk(executor, 2).getFileRevisions(coOps, 1, 3, null, new CoOpsCallback<File>() {
+      @Override
+      public void onSuccess(File result) {
+      }
+      
+      @Override
+      public void onFailure(Exception exception) {
+      }
+    });
+    
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail("ExecutionException expected");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof ServerException);
+    }
+  }
+  
+  @Test
+  public void testCancel() throws Exception {
+    final AtomicInteger arrived = new AtomicInteger();
+    Future<Void> future = new CoOpsBulk(executor, 1).getFileRevisions(coOps, 1, REVISIONS, null, new CoOpsCallback<File>() {
+      @Override
+      public void onSuccess(File result) {
+        arrived.incrementAndGet();
+      }
+      
+      @Override
+      public void onFailure(Exception exception) {
+      }
+    });
+    
+    assertTrue(future.cancel(false));
+    assertTrue(future.isCancelled());
+    assertTrue(future.isDone());
+    assertFalse(future.cancel(false));
+    
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail("CancellationException expected");
+    } catch (CancellationException e) {
+    }
+    
+    // Request already in progress completes, no new requests are started
+    Thread.sleep(LATENCY * 4);
+    assertTrue(arrived.get() <= 1);
+  }
+  
+  @Test
+  public void testIterateFileRevisions() throws UsageException, ServerException, IOException {
+    try (RevisionIterator iterator = new CoOpsBulk(executor).iterateFileRevisions(coOps, 1, REVISIONS, null, 10)) {
+      long expected = 1;
+      while (iterator.hasNext()) {
+        assertEquals(new Long(expected++), iterator.next().getRevisionNumber());
+        assertTrue(maxConcurrentRequests.get() <= 10);
+      }
+      
+      assertEquals(REVISIONS + 1, expected);
+      assertFalse(iterator.hasNext());
+    }
+  }
+  
+  private ExecutorService executor;
+  private TestIO testIO;
+  private CoOps coOps;
+  private AtomicInteger concurrentRequests;
+  private AtomicInteger maxConcurrentRequests;
+}
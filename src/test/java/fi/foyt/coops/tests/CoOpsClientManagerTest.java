@@ -0,0 +1,140 @@
+package fi.foyt.coops.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import fi.foyt.coops.Auth;
+import fi.foyt.coops.CoOps;
+import fi.foyt.coops.CoOpsClientManager;
+import fi.foyt.coops.ServerException;
+import fi.foyt.coops.TestIO;
+import fi.foyt.coops.io.ConcurrencyLimitingIOHandler;
+import fi.foyt.coops.io.DefaultIOHandler;
+
+public class CoOpsClientManagerTest {
+
+  @Test
+  public void testSharedHandles() throws Exception {
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try (CoOpsClientManager manager = new CoOpsClientManager(new TestIO(), executor, 2, 60000)) {
+      CoOps file1 = manager.getClient("http", "localhost", 80, "/1");
+      CoOps file2 = manager.getClient("http", "localhost", 80, "/2");
+      
+      assertSame(file1, manager.getClient("http", "localhost", 80, "/1"));
+      assertNotSame(file1, file2);
+      assertSame(file1.getIoHandler(), file2.getIoHandler());
+      assertSame(file1.getGson(), file2.getGson());
+      assertSame(manager.getRevisionCache(), file1.getRevisionCache());
+      assertSame(manager.getRevisionCache(), file2.getRevisionCache());
+      assertFalse(file1.isConditionalGetEnabled());
+      assertSame(executor, manager.getAsyncClient("http", "localhost", 80, "/1").getExecutor());
+      assertSame(file1, manager.getAsyncClient("http", "localhost", 80, "/1").getCoOps());
+      assertEquals(2, manager.getClientCount());
+    } finally {
+      executor.shutdown();
+    }
+  }
+  
+  @Test
+  public void testExecutorOwnership() throws Exception {
+    CoOpsClientManager manager = new CoOpsClientManager();
+    ExecutorService owned = manager.getExecutor();
+    manager.close();
+    assertTrue(owned.isShutdown());
+    
+    final AtomicBoolean ioHandlerClosed = new AtomicBoolean();
+    DefaultIOHandler ioHandler = new DefaultIOHandler() {
+      @Override
+      public void close() {
+        ioHandlerClosed.set(true);
+        super.close();
+      }
+    };
+    
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      new CoOpsClientManager(ioHandler, executor, 2, 60000).close();
+      assertFalse(executor.isShutdown());
+      assertFalse(ioHandlerClosed.get());
+    } finally {
+      executor.shutdown();
+      ioHandler.close();
+    }
+  }
+  
+  @Test
+  public void testIdleEviction() throws Exception {
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try (CoOpsClientManager manager = new CoOpsClientManager(new TestIO(), executor, 2, 50)) {
+      CoOps file1 = manager.getClient("http", "localhost", 80, "/1");
+      Thread.sleep(200);
+      
+      assertEquals(0, manager.getClientCount());
+      assertNotSame(file1, manager.getClient("http", "localhost", 80, "/1"));
+      assertEquals(1, manager.getClientCount());
+    } finally {
+      executor.shutdown();
+    }
+  }
+  
+  @Test
+  public void testConcurrencyLimit() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    
+    final ConcurrencyLimitingIOHandler ioHandler = new ConcurrencyLimitingIOHandler(new TestIO() {
+      @Override
+      public String doGetRequest(URI uri, Auth auth) throws IOException, ServerException {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+        }
+        
+        return "ok";
+      }
+    }, 1, 100);
+    
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<String> first = executor.submit(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          return ioHandler.doGetRequest(URI.create("http://localhost/1"), null);
+        }
+      });
+      
+      started.await(5, TimeUnit.SECONDS);
+      assertEquals(1, ioHandler.getActiveRequests(URI.create("http://localhost/2")));
+      
+      try {
+        ioHandler.doGetRequest(URI.create("http://localhost/2"), null);
+        fail();
+      } catch (IOException e) {
+      }
+      
+      release.countDown();
+      assertEquals("ok", first.get(5, TimeUnit.SECONDS));
+      assertEquals(0, ioHandler.getActiveRequests(URI.create("http://localhost/2")));
+      assertEquals("ok", ioHandler.doGetRequest(URI.create("http://localhost/2"), null));
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
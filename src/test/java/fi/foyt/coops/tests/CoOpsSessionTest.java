@@ -0,0 +1,137 @@
+package fi.foyt.coops.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+
+import fi.foyt.coops.Auth;
+import fi.foyt.coops.CoOps;
+import fi.foyt.coops.ConflictException;
+import fi.foyt.coops.PatchException;
+import fi.foyt.coops.ServerException;
+import fi.foyt.coops.TestIO;
+import fi.foyt.coops.UsageException;
+import fi.foyt.coops.model.FileJoin;
+import fi.foyt.coops.model.Patch;
+import fi.foyt.coops.patch.PatchEngine;
+import fi.foyt.coops.session.CoOpsSession;
+
+public class CoOpsSessionTest {
+
+  @Test
+  public void testRemotePatchRebase() throws UsageException, ServerException, IOException, PatchException {
+    TestIO testIO = new TestIO();
+    testIO.addMockedResult("", "");
+    CoOpsSession session = new CoOpsSession(new CoOps(testIO, "http", "localhost", 80, ""), createFileJoin("Hello world", 1l), "dmp", null, null);
+    
+    session.setLocalContent("Hello brave world");
+    session.receivePatch(createPatch("Hello world", "Hello world!", 2l));
+    
+    assertEquals("Hello world!", session.getConfirmedContent());
+    assertEquals("Hello brave world!", session.getLocalContent());
+    assertEquals(new Long(2), session.getConfirmedRevision());
+    
+    // Already seen revision is ignored
+    session.receivePatch(createPatch("Hello world", "Hello world!", 2l));
+    assertEquals("Hello brave world!", session.getLocalContent());
+    
+    assertTrue(session.flush());
+    assertEquals(new Long(3), session.getConfirmedRevision());
+    assertEquals("Hello brave world!", session.getConfirmedContent());
+    assertFalse(session.hasPendingChanges());
+    assertFalse(session.flush());
+  }
+
+  @Test
+  public void testConflict() throws UsageException, ServerException, IOException, PatchException {
+    TestIO testIO = new TestIO();
+    testIO.addException("", ConflictException.class);
+    testIO.addMockedResult("/update?revisionNumber=1", "[" + new Gson().toJson(createPatch("abc def", "abc def ghi", 2l)) + "]");
+    CoOpsSession session = new CoOpsSession(new CoOps(testIO, "http", "localhost", 80, ""), createFileJoin("abc def", 1l), "dmp", null, null);
+    
+    session.setLocalContent("xyz abc def");
+    assertFalse(session.flush());
+    
+    assertFalse(session.isPatchInFlight());
+    assertEquals(new Long(2), session.getConfirmedRevision());
+    assertEquals("abc def ghi", session.getConfirmedContent());
+    assertEquals("xyz abc def ghi", session.getLocalContent());
+    assertTrue(session.hasPendingChanges());
+  }
+  
+  @Test
+  public void testMissingRevision() throws UsageException, ServerException, IOException, PatchException {
+    TestIO testIO = new TestIO();
+    testIO.addMockedResult("/update?revisionNumber=1", "[" + new Gson().toJson(createPatch("abc", "abcd", 2l)) + "," + new Gson().toJson(createPatch("abcd", "abcde", 3l)) + "]");
+    CoOpsSession session = new CoOpsSession(new CoOps(testIO, "http", "localhost", 80, ""), createFileJoin("abc", 1l), "dmp", null, null);
+    
+    // Revision 2 is missing, it is fetched before revision 3 is applied
+    session.receivePatch(createPatch("abcd", "abcde", 3l));
+    
+    assertEquals(new Long(3), session.getConfirmedRevision());
+    assertEquals("abcde", session.getConfirmedContent());
+    assertEquals("abcde", session.getLocalContent());
+  }
+
+  @Test
+  public void testOutOfOrderPatches() throws UsageException, ServerException, IOException, PatchException {
+    TestIO testIO = new TestIO();
+    testIO.addMockedResult("/update?revisionNumber=1", "[]");
+    CoOpsSession session = new CoOpsSession(new CoOps(testIO, "http", "localhost", 80, ""), createFileJoin("abc", 1l), "dmp", null, null);
+    
+    session.receivePatch(createPatch("abcd", "abcde", 3l));
+    assertEquals(new Long(1), session.getConfirmedRevision());
+    assertEquals("abc", session.getConfirmedContent());
+    
+    session.receivePatch(createPatch("abc", "abcd", 2l));
+    assertEquals(new Long(3), session.getConfirmedRevision());
+    assertEquals("abcde", session.getConfirmedContent());
+  }
+
+  @Test
+  public void testUnnumberedPatchDuringFlush() throws UsageException, ServerException, IOException, PatchException {
+    final CoOpsSession[] session = new CoOpsSession[1];
+    final Patch remote = createPatch("abc def", "abc def ghi", null);
+    
+    TestIO testIO = new TestIO() {
+      @Override
+      public String doPatchRequest(URI uri, String body, String contentType, Auth auth) throws IOException, ServerException {
+        try {
+          session[0].receivePatch(remote);
+        } catch (UsageException | PatchException e) {
+          throw new IOException(e);
+        }
+        
+        return null;
+      }
+    };
+    
+    session[0] = new CoOpsSession(new CoOps(testIO, "http", "localhost", 80, ""), createFileJoin("abc def", 1l), "dmp", null, null);
+    session[0].setLocalContent("xyz abc def");
+    assertTrue(session[0].flush());
+    
+    assertEquals(new Long(3), session[0].getConfirmedRevision());
+    assertEquals("xyz abc def ghi", session[0].getConfirmedContent());
+    assertEquals("xyz abc def ghi", session[0].getLocalContent());
+  }
+  
+  private FileJoin createFileJoin(String content, Long revisionNumber) {
+    FileJoin fileJoin = new FileJoin();
+    fileJoin.setContent(content);
+    fileJoin.setRevisionNumber(revisionNumber);
+    return fileJoin;
+  }
+  
+  private Patch createPatch(String oldContent, String newContent, Long revisionNumber) throws PatchException {
+    Patch patch = new PatchEngine().createPatch("dmp", null, oldContent, newContent);
+    patch.setRevisionNumber(revisionNumber);
+    return patch;
+  }
+}
@@ -1,12 +1,17 @@
 package fi.foyt.coops.tests;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
 import org.joda.time.chrono.GregorianChronology;
 import org.junit.Test;
@@ -14,12 +19,15 @@ import org.junit.Test;
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 
+import fi.foyt.coops.Auth;
 import fi.foyt.coops.CoOps;
 import fi.foyt.coops.ForbiddenException;
 import fi.foyt.coops.ServerException;
 import fi.foyt.coops.TestIO;
 import fi.foyt.coops.UnauthorizedException;
 import fi.foyt.coops.UsageException;
+import fi.foyt.coops.cache.LruRevisionCache;
+import fi.foyt.coops.io.DefaultIOHandler;
 import fi.foyt.coops.io.IOHandler;
 import fi.foyt.coops.model.File;
 import fi.foyt.coops.model.FileJoin;
@@ -29,9 +37,27 @@ import fi.foyt.coops.model.Patch;
 public class CoOpsTest {
 
   @Test
-  public void testCoOpsStringStringIntString() {
+  public void testCoOpsStringStringIntString() throws IOException {
     CoOps coOps = new CoOps("http", "localhost", 80, "");
     assertNotNull(coOps);
+    coOps.close();
+  }
+  
+  @Test
+  public void testCloseLeavesCallerIOHandlerOpen() throws IOException {
+    final AtomicBoolean closed = new AtomicBoolean();
+    DefaultIOHandler ioHandler = new DefaultIOHandler() {
+      @Override
+      public void close() {
+        closed.set(true);
+        super.close();
+      }
+    };
+    
+    new CoOps(ioHandler, "http", "localhost", 80, "").close();
+    assertFalse(closed.get());
+    
+    ioHandler.close();
   }
   
   @Test (expected = UnauthorizedException.class)
@@ -183,6 +209,37 @@ public class CoOpsTest {
     assertEquals(FileUserRole.OWNER, file.getRole());
   }
 
+  @Test
+  public void testGetFileNotModified() throws UsageException, ServerException, IOException {
+    TestIO testIO = new TestIO();
+    CoOps coOps = new CoOps(testIO, "http", "localhost", 80, "/file");
+    testIO.addMockedResult("/file", "{ \"id\": \"1234\", \"revisionNumber\": 22, \"content\": \"bca\" }", "\"22\"");
+    
+    File file = coOps.getFile(null);
+    assertEquals("bca", file.getContent());
+    file.setContent("modified");
+    
+    // Server would answer with 304 now that the ETag matches
+    testIO.addException("/file", ServerException.class);
+    testIO.addMockedResult("/file", null, "\"22\"");
+    
+    File notModified = coOps.getFile(null);
+    assertEquals("bca", notModified.getContent());
+    assertEquals(new Long(22), notModified.getRevisionNumber());
+  }
+
+  @Test
+  public void testGetFileNotModifiedAuthScope() throws UsageException, ServerException, IOException {
+    TestIO testIO = new TestIO();
+    CoOps coOps = new CoOps(testIO, "http", "localhost", 80, "/file");
+    testIO.addMockedResult("/file", "{ \"id\": \"1234\", \"revisionNumber\": 22, \"role\": \"OWNER\" }", "\"22\"");
+    assertEquals(FileUserRole.OWNER, coOps.getFile(createAuth("a")).getRole());
+    
+    // Another user must not receive the file kept for the first one
+    testIO.addMockedResult("/file", "{ \"id\": \"1234\", \"revisionNumber\": 22, \"role\": \"READER\" }", "\"22\"");
+    assertEquals(FileUserRole.READER, coOps.getFile(createAuth("b")).getRole());
+  }
+
   @Test
   public void testGetFileRevision() throws UsageException, ServerException, IOException {
     TestIO testIO = new TestIO();
@@ -212,6 +269,69 @@ public class CoOpsTest {
     assertEquals(FileUserRole.OWNER, fileRevision.getRole());
   }
   
+  @Test
+  public void testGetFileRevisionCached() throws UsageException, ServerException, IOException {
+    TestIO testIO = new TestIO();
+    CoOps coOps = new CoOps(testIO, "http", "localhost", 80, "/file");
+    coOps.setRevisionCache(new LruRevisionCache());
+    testIO.addMockedResult("/file?revisionNumber=6", "{ \"id\": \"1234\", \"revisionNumber\": 6, \"content\": \"bbb\" }");
+    
+    File fileRevision = coOps.getFileRevision(6l, null);
+    assertEquals("bbb", fileRevision.getContent());
+    fileRevision.setContent("modified");
+    
+    testIO.clearMockedResults();
+    
+    File cachedRevision = coOps.getFileRevision(6l, null);
+    assertEquals("bbb", cachedRevision.getContent());
+    assertEquals(new Long(6), cachedRevision.getRevisionNumber());
+    assertEquals(1, coOps.getRevisionCache().getStatistics().getHits());
+    assertEquals(1, coOps.getRevisionCache().getStatistics().getMisses());
+  }
+  
+  @Test
+  public void testRevisionCacheAuthScope() throws UsageException, ServerException, IOException {
+    TestIO testIO = new TestIO();
+    CoOps coOps = new CoOps(testIO, "http", "localhost", 80, "/file");
+    coOps.setRevisionCache(new LruRevisionCache());
+    testIO.addMockedResult("/file?revisionNumber=6", "{ \"id\": \"1234\", \"revisionNumber\": 6, \"content\": \"bbb\" }");
+    
+    assertEquals("bbb", coOps.getFileRevision(6l, createAuth("a")).getContent());
+    testIO.clearMockedResults();
+    
+    assertEquals("bbb", coOps.getFileRevision(6l, createAuth("a")).getContent());
+    
+    // Revision fetched by another user is not served from the cache
+    try {
+      coOps.getFileRevision(6l, createAuth("b"));
+      fail();
+    } catch (IOException e) {
+    }
+    
+    try {
+      coOps.getFileRevision(6l, null);
+      fail();
+    } catch (IOException e) {
+    }
+  }
+  
+  @Test
+  public void testRevisionCacheEviction() {
+    LruRevisionCache cache = new LruRevisionCache(2000);
+    for (long revision = 1; revision <= 3; revision++) {
+      File file = new File();
+      file.setContent(StringUtils.repeat('a', 300));
+      cache.put("http://localhost/file", revision, file);
+      cache.get("http://localhost/file", 1l);
+    }
+    
+    assertNotNull(cache.get("http://localhost/file", 1l));
+    assertNull(cache.get("http://localhost/file", 2l));
+    assertNotNull(cache.get("http://localhost/file", 3l));
+    assertEquals(1, cache.getStatistics().getEvictions());
+    assertEquals(2, cache.getStatistics().getSize());
+  }
+  
   @Test (expected = UsageException.class)
   public void testGetFileRevisionNullRevision() throws UsageException, ServerException, IOException {
     TestIO testIO = new TestIO();
@@ -219,6 +339,27 @@ public class CoOpsTest {
     coOps.getFileRevision(null, null);
   }
 
+  @Test
+  public void testGetFileUpdates() throws UsageException, ServerException, IOException {
+    TestIO testIO = new TestIO();
+    CoOps coOps = new CoOps(testIO, "http", "localhost", 80, "");
+    testIO.addMockedResult("/update?revisionNumber=6", 
+      "[" + 
+      "  { \"revisionNumber\": 7, \"patch\": \"aaa\", \"algorithm\": \"dmp\" }," +
+      "  { \"revisionNumber\": 8, \"patch\": \"bbb\", \"algorithm\": \"dmp\" }" +
+      "]");
+    testIO.addMockedResult("/update?revisionNumber=8", "");
+    
+    Patch[] patches = coOps.getFileUpdates(6l, null);
+    assertEquals(2, patches.length);
+    assertEquals(new Long(7), patches[0].getRevisionNumber());
+    assertEquals("aaa", patches[0].getPatch());
+    assertEquals(new Long(8), patches[1].getRevisionNumber());
+    assertEquals("bbb", patches[1].getPatch());
+    
+    assertEquals(0, coOps.getFileUpdates(8l, null).length);
+  }
+
   @Test
   public void testSaveFile() throws UsageException, ServerException, IOException {
     TestIO testIO = new TestIO();
@@ -307,5 +448,15 @@ public class CoOpsTest {
     File file = coOps.getFile(null);
     assertNotNull(file);
   }
-
+  
+  private Auth createAuth(final String token) {
+    return new Auth() {
+      @Override
+      public Map<String, String> getHeaders() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Authorization", "Bearer " + token);
+        return headers;
+      }
+    };
+  }
 }
@@ -0,0 +1,210 @@
+package fi.foyt.coops.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.foyt.coops.CoOps;
+import fi.foyt.coops.TestIO;
+import fi.foyt.coops.UsageException;
+import fi.foyt.coops.model.FileJoin;
+import fi.foyt.coops.model.Patch;
+import fi.foyt.coops.ws.CoOpsWebSocketListener;
+import fi.foyt.coops.ws.CoOpsWebSocketSession;
+
+public class CoOpsWebSocketSessionTest {
+  
+  @Before
+  public void setUp() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    
+    server = new TestServer(new InetSocketAddress("localhost", port));
+    server.start();
+  }
+  
+  @After
+  public void tearDown() throws IOException, InterruptedException {
+    // Java-WebSocket 1.3.0 may deadlock in stop() against its selector thread, so the test does not wait for it forever
+    final TestServer stoppedServer = server;
+    Thread stopper = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          stoppedServer.stop();
+        } catch (IOException | InterruptedException e) {
+        }
+      }
+    }, "websocket-server-stop");
+    
+    stopper.setDaemon(true);
+    stopper.start();
+    stopper.join(5000);
+  }
+
+  @Test (expected = UsageException.class)
+  public void testMissingUrl() throws UsageException {
+    new CoOpsWebSocketSession(new CoOps(new TestIO(), "http", "localhost", 80, ""), new FileJoin(), null, true, new TestListener());
+  }
+
+  @Test
+  public void testPatchesAndReconnect() throws Exception {
+    TestIO testIO = new TestIO();
+    testIO.addMockedResult("/update?revisionNumber=12", "");
+    testIO.addMockedResult("/update?revisionNumber=13", "[{\"revisionNumber\": 14, \"patch\": \"missed\", \"algorithm\": \"dmp\"}]");
+    CoOps coOps = new CoOps(testIO, "http", "localhost", 80, "");
+    
+    FileJoin fileJoin = new FileJoin();
+    fileJoin.setClientId("123");
+    fileJoin.setRevisionNumber(12l);
+    fileJoin.setUnsecureWebSocketUrl("ws://localhost:" + port + "/ws");
+    
+    TestListener listener = new TestListener();
+    CoOpsWebSocketSession session = new CoOpsWebSocketSession(coOps, fileJoin, null, false, listener);
+    session.setReconnectDelay(50);
+    session.connect();
+    try {
+      assertTrue(listener.connects.tryAcquire(10, TimeUnit.SECONDS));
+      
+      Patch patch = new Patch();
+      patch.setAlgorithm("dmp");
+      patch.setRevisionNumber(12l);
+      patch.setPatch("local");
+      session.sendPatch(patch);
+      
+      String sent = server.messages.poll(10, TimeUnit.SECONDS);
+      assertTrue(sent.contains("\"type\":\"patch\""));
+      assertTrue(sent.contains("\"patch\":\"local\""));
+      
+      server.sendToAll("{\"type\":\"patch\",\"data\":{\"revisionNumber\":13,\"patch\":\"remote\",\"algorithm\":\"dmp\"}}");
+      assertTrue(listener.patchesReceived.tryAcquire(10, TimeUnit.SECONDS));
+      assertEquals(new Long(13), session.getRevisionNumber());
+      
+      for (WebSocket connection : server.connections()) {
+        connection.close(1001);
+      }
+      
+      assertTrue(listener.connects.tryAcquire(10, TimeUnit.SECONDS));
+      assertTrue(listener.patchesReceived.tryAcquire(10, TimeUnit.SECONDS));
+      assertEquals(new Long(14), session.getRevisionNumber());
+      assertEquals(2, listener.patches.size());
+      assertEquals("remote", listener.patches.get(0).getPatch());
+      assertEquals("missed", listener.patches.get(1).getPatch());
+    } finally {
+      session.close();
+    }
+  }
+  
+  @Test
+  public void testSkippedRevision() throws Exception {
+    TestIO testIO = new TestIO();
+    testIO.addMockedResult("/update?revisionNumber=12", "");
+    CoOps coOps = new CoOps(testIO, "http", "localhost", 80, "");
+    
+    FileJoin fileJoin = new FileJoin();
+    fileJoin.setClientId("123");
+    fileJoin.setRevisionNumber(12l);
+    fileJoin.setUnsecureWebSocketUrl("ws://localhost:" + port + "/ws");
+    
+    TestListener listener = new TestListener();
+    CoOpsWebSocketSession session = new CoOpsWebSocketSession(coOps, fileJoin, null, false, listener);
+    session.connect();
+    try {
+      assertTrue(listener.connects.tryAcquire(10, TimeUnit.SECONDS));
+      
+      // Revision 13 never arrives through the socket, it is fetched when revision 14 reveals the gap
+      testIO.addMockedResult("/update?revisionNumber=12", "[{\"revisionNumber\": 13, \"patch\": \"missed\", \"algorithm\": \"dmp\"}]");
+      server.sendToAll("{\"type\":\"patch\",\"data\":{\"revisionNumber\":14,\"patch\":\"ahead\",\"algorithm\":\"dmp\"}}");
+      
+      assertTrue(listener.patchesReceived.tryAcquire(2, 10, TimeUnit.SECONDS));
+      assertEquals(new Long(14), session.getRevisionNumber());
+      assertEquals(2, listener.patches.size());
+      assertEquals("missed", listener.patches.get(0).getPatch());
+      assertEquals("ahead", listener.patches.get(1).getPatch());
+    } finally {
+      session.close();
+    }
+  }
+  
+  private int port;
+  private TestServer server;
+  
+  private class TestServer extends WebSocketServer {
+    
+    public TestServer(InetSocketAddress address) {
+      super(address);
+    }
+
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+      messages.add(message);
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+    }
+    
+    public void sendToAll(String message) {
+      for (WebSocket connection : connections()) {
+        connection.send(message);
+      }
+    }
+    
+    private BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+  }
+  
+  private class TestListener implements CoOpsWebSocketListener {
+
+    @Override
+    public void onConnect() {
+      connects.release();
+    }
+
+    @Override
+    public void onPatch(Patch patch) {
+      patches.add(patch);
+      patchesReceived.release();
+    }
+
+    @Override
+    public void onPatchRejected(String message) {
+    }
+
+    @Override
+    public void onDisconnect(boolean reconnecting) {
+    }
+
+    @Override
+    public void onError(Exception exception) {
+    }
+    
+    private Semaphore connects = new Semaphore(0);
+    private Semaphore patchesReceived = new Semaphore(0);
+    private List<Patch> patches = new CopyOnWriteArrayList<>();
+  }
+}
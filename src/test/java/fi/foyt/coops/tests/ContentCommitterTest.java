@@ -0,0 +1,100 @@
+package fi.foyt.coops.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.foyt.coops.Auth;
+import fi.foyt.coops.CoOps;
+import fi.foyt.coops.PatchException;
+import fi.foyt.coops.ServerException;
+import fi.foyt.coops.TestIO;
+import fi.foyt.coops.UsageException;
+import fi.foyt.coops.model.File;
+import fi.foyt.coops.model.Patch;
+import fi.foyt.coops.patch.CommitType;
+import fi.foyt.coops.patch.ContentCommitter;
+import fi.foyt.coops.patch.PatchEngine;
+
+public class ContentCommitterTest {
+  
+  @Before
+  public void setUp() {
+    lastPatch = null;
+    lastSave = null;
+    
+    TestIO testIO = new TestIO() {
+      @Override
+      public String doPutRequest(URI uri, String body, String contentType, Auth auth) throws IOException, ServerException {
+        lastSave = body;
+        return null;
+      }
+      
+      @Override
+      public String doPatchRequest(URI uri, String body, String contentType, Auth auth) throws IOException, ServerException {
+        lastPatch = body;
+        return null;
+      }
+    };
+    
+    coOps = new CoOps(testIO, "http", "localhost", 80, "");
+    committer = new ContentCommitter(coOps);
+  }
+
+  @Test
+  public void testSmallChangePatches() throws UsageException, ServerException, IOException, PatchException {
+    File file = createFile(StringUtils.repeat("Lorem ipsum dolor sit amet. ", 1000));
+    String content = file.getContent().replaceFirst("dolor", "DOLOR");
+    
+    assertEquals(CommitType.PATCH, committer.commitContent(file, content, "dmp", null));
+    assertNull(lastSave);
+    
+    Patch patch = coOps.getGson().fromJson(lastPatch, Patch.class);
+    assertEquals(new Long(4), patch.getRevisionNumber());
+    assertEquals(content, new PatchEngine().applyPatch(file.getContent(), patch));
+  }
+
+  @Test
+  public void testRewriteSaves() throws UsageException, ServerException, IOException {
+    File file = createFile("abc");
+    
+    assertEquals(CommitType.SAVE, committer.commitContent(file, "xyz", "dmp", null));
+    assertNull(lastPatch);
+    
+    File saved = coOps.getGson().fromJson(lastSave, File.class);
+    assertEquals("xyz", saved.getContent());
+    assertEquals(new Long(4), saved.getRevisionNumber());
+    assertEquals("abc", file.getContent());
+  }
+
+  @Test
+  public void testFallbacks() throws UsageException, ServerException, IOException {
+    File file = createFile(StringUtils.repeat("abc ", 1000));
+    String content = file.getContent() + "def";
+    
+    assertEquals(CommitType.NONE, committer.commitContent(file, file.getContent(), "dmp", null));
+    assertEquals(CommitType.SAVE, committer.commitContent(file, content, "unknown", null));
+    
+    committer.setPatchSizeRatio(0);
+    assertEquals(CommitType.SAVE, committer.commitContent(file, content, "dmp", null));
+    assertNull(lastPatch);
+  }
+  
+  private File createFile(String content) {
+    File file = new File();
+    file.setContent(content);
+    file.setRevisionNumber(4l);
+    return file;
+  }
+  
+  private CoOps coOps;
+  private ContentCommitter committer;
+  private volatile String lastPatch;
+  private volatile String lastSave;
+}
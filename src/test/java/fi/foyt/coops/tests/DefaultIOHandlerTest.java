@@ -0,0 +1,237 @@
+package fi.foyt.coops.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import fi.foyt.coops.CoOps;
+import fi.foyt.coops.ServerException;
+import fi.foyt.coops.UsageException;
+import fi.foyt.coops.io.ConditionalResponse;
+import fi.foyt.coops.io.DefaultIOHandler;
+import fi.foyt.coops.model.File;
+import fi.foyt.coops.model.Patch;
+
+@SuppressWarnings("restriction")
+public class DefaultIOHandlerTest {
+  
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+  
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        handleRequest(exchange);
+      }
+    });
+    server.start();
+    
+    ioHandler = new DefaultIOHandler();
+  }
+  
+  @After
+  public void tearDown() {
+    ioHandler.close();
+    server.stop(0);
+  }
+
+  @Test
+  public void testGzipResponse() throws IOException, ServerException {
+    responseBody = "{\"content\": \"abc\"}";
+    assertEquals(responseBody, ioHandler.doGetRequest(getUri(), null));
+    assertTrue(StringUtils.contains(lastAcceptEncoding, "gzip"));
+    
+    assertEquals(responseBody, IOUtils.toString(ioHandler.doStreamingGetRequest(getUri(), null)));
+  }
+
+  @Test
+  public void testConditionalGet() throws IOException, ServerException {
+    responseBody = "{}";
+    responseETag = "\"1\"";
+    
+    ConditionalResponse response = ioHandler.doConditionalGetRequest(getUri(), null, null, null);
+    assertTrue(response.isModified());
+    assertEquals("\"1\"", response.getETag());
+    assertEquals("{}", IOUtils.toString(response.getContent()));
+    response.close();
+    
+    response = ioHandler.doConditionalGetRequest(getUri(), "\"1\"", null, null);
+    assertFalse(response.isModified());
+    assertNull(response.getContent());
+    response.close();
+  }
+
+  @Test
+  public void testRequestCompression() throws IOException, ServerException {
+    String body = StringUtils.repeat("{\"content\": \"abc\"}", 100);
+    
+    ioHandler.doPutRequest(getUri(), body, "application/json", null);
+    assertNull(lastContentEncoding);
+    assertEquals(body, lastRequestBody);
+    
+    ioHandler.setRequestCompressionThreshold(1024);
+    ioHandler.doPutRequest(getUri(), "{}", "application/json", null);
+    assertNull(lastContentEncoding);
+    
+    ioHandler.doPutRequest(getUri(), body, "application/json", null);
+    assertEquals("gzip", lastContentEncoding);
+    assertEquals(body, lastRequestBody);
+  }
+  
+  @Test
+  public void testUtf8Bodies() throws IOException, ServerException {
+    String body = "{\"content\": \"h\u00e4h \u20ac\"}";
+    responseBody = body;
+    
+    assertEquals(body, ioHandler.doPutRequest(getUri(), body, "application/json", null));
+    assertEquals(body, lastRequestBody);
+    
+    assertEquals(body, ioHandler.doPostRequest(getUri(), body, "application/json", null));
+    assertEquals(body, lastRequestBody);
+  }
+
+  @Test
+  public void testByteRequests() throws IOException, ServerException {
+    String body = "{\"content\": \"h\u00e4h\"}";
+    byte[] bytes = ("xx" + body).getBytes("UTF-8");
+    ByteBuffer buffer = ByteBuffer.wrap(bytes, 2, bytes.length - 2).slice();
+    responseBody = body;
+    
+    ByteBuffer response = ioHandler.doBytePatchRequest(getUri(), buffer, "application/json", null);
+    assertEquals(body, lastRequestBody);
+    assertEquals(body, new String(response.array(), response.arrayOffset() + response.position(), response.remaining(), "UTF-8"));
+    assertEquals(0, buffer.position());
+    
+    ioHandler.doBytePutRequest(getUri(), buffer, "application/json", null);
+    assertEquals(body, lastRequestBody);
+    
+    responseBody = null;
+    assertNull(ioHandler.doByteGetRequest(getUri(), null));
+  }
+
+  @Test
+  public void testCoOpsByteRequests() throws IOException, ServerException, UsageException {
+    CoOps coOps = new CoOps(ioHandler, "http", "localhost", server.getAddress().getPort(), "/file");
+    
+    Patch patch = new Patch();
+    patch.setRevisionNumber(1l);
+    patch.setPatch("@@ -1,0 +1,3 @@\n+h\u00e4h\n");
+    patch.setAlgorithm("dmp");
+    coOps.patchFile(patch, null);
+    
+    assertEquals(patch.getPatch(), coOps.getGson().fromJson(lastRequestBody, Patch.class).getPatch());
+  }
+  
+  @Test
+  public void testStreamingSave() throws IOException, ServerException, UsageException {
+    CoOps coOps = new CoOps(ioHandler, "http", "localhost", server.getAddress().getPort(), "/file");
+    
+    String content = StringUtils.repeat("\"h\u00e4h\"\\\n\t\u0001\u2028 ", 2000);
+    Path path = folder.newFile().toPath();
+    Files.write(path, content.getBytes("UTF-8"));
+    
+    File file = new File();
+    file.setName("name");
+    file.setContent("ignored");
+    file.setRevisionNumber(5l);
+    coOps.saveFile(file, path, null);
+    
+    assertEquals("chunked", lastTransferEncoding);
+    File saved = coOps.getGson().fromJson(lastRequestBody, File.class);
+    assertEquals(content, saved.getContent());
+    assertEquals("name", saved.getName());
+    assertEquals(new Long(5), saved.getRevisionNumber());
+    
+    file.setName(null);
+    coOps.saveFile(file, new StringReader(""), null);
+    assertEquals("{\"content\":\"\",\"revisionNumber\":5}", lastRequestBody);
+  }
+  
+  private URI getUri() {
+    return URI.create("http://localhost:" + server.getAddress().getPort() + "/file");
+  }
+  
+  private void handleRequest(HttpExchange exchange) throws IOException {
+    lastAcceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+    lastContentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+    lastTransferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+    
+    InputStream requestStream = exchange.getRequestBody();
+    if ("gzip".equals(lastContentEncoding)) {
+      requestStream = new GZIPInputStream(requestStream);
+    }
+    
+    lastRequestBody = IOUtils.toString(requestStream, "UTF-8");
+    
+    if ((responseETag != null) && responseETag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+      exchange.sendResponseHeaders(304, -1);
+      exchange.close();
+      return;
+    }
+    
+    if (responseETag != null) {
+      exchange.getResponseHeaders().add("ETag", responseETag);
+    }
+    
+    if (responseBody == null) {
+      exchange.sendResponseHeaders(204, -1);
+      exchange.close();
+      return;
+    }
+    
+    byte[] body = responseBody.getBytes("UTF-8");
+    if (StringUtils.contains(lastAcceptEncoding, "gzip")) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      try (GZIPOutputStream gzipStream = new GZIPOutputStream(compressed)) {
+        gzipStream.write(body);
+      }
+      
+      body = compressed.toByteArray();
+      exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+    }
+    
+    exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream responseStream = exchange.getResponseBody()) {
+      responseStream.write(body);
+    }
+  }
+  
+  private HttpServer server;
+  private DefaultIOHandler ioHandler;
+  private volatile String responseBody;
+  private volatile String responseETag;
+  private volatile String lastAcceptEncoding;
+  private volatile String lastContentEncoding;
+  private volatile String lastTransferEncoding;
+  private volatile String lastRequestBody;
+}
@@ -0,0 +1,178 @@
+package fi.foyt.coops.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import fi.foyt.coops.Auth;
+import fi.foyt.coops.CoOps;
+import fi.foyt.coops.ServerException;
+import fi.foyt.coops.TestIO;
+import fi.foyt.coops.UnauthorizedException;
+import fi.foyt.coops.UsageException;
+import fi.foyt.coops.metrics.InMemoryMetricsCollector;
+import fi.foyt.coops.metrics.InstrumentedIOHandler;
+import fi.foyt.coops.metrics.LatencyHistogram;
+import fi.foyt.coops.metrics.Operation;
+import fi.foyt.coops.metrics.OperationMetrics;
+import fi.foyt.coops.model.File;
+import fi.foyt.coops.model.Patch;
+
+public class InstrumentedIOHandlerTest {
+
+  @Test
+  public void testOperationMetrics() throws UsageException, ServerException, IOException {
+    TestIO testIO = new TestIO();
+    InMemoryMetricsCollector metricsCollector = new InMemoryMetricsCollector();
+    CoOps coOps = new CoOps(new InstrumentedIOHandler(testIO, metricsCollector), "http", "localhost", 80, "");
+    
+    testIO.addMockedResult("/join?protocolVersion=" + CoOps.PROTOCOL_VERSION + "&algorithm=dmp", "{\"fileId\":\"1\",\"revisionNumber\":2}");
+    testIO.addMockedResult("", "{\"id\":\"1\",\"content\":\"häh\"}");
+    testIO.addMockedResult("?revisionNumber=2", "{\"id\":\"1\",\"revisionNumber\":2}");
+    testIO.addMockedResult("/update?revisionNumber=2", "[]");
+    testIO.addException("/update?revisionNumber=3", UnauthorizedException.class);
+    
+    coOps.joinFile(new String[] { "dmp" }, null);
+    File file = coOps.getFile(null);
+    coOps.getFileRevision(2l, null);
+    coOps.getFileUpdates(2l, null);
+    try {
+      coOps.getFileUpdates(3l, null);
+    } catch (UnauthorizedException e) {
+      // Expected
+    }
+    
+    assertEquals(1, metricsCollector.getMetrics(Operation.JOIN).getSuccessCount());
+    assertEquals(1, metricsCollector.getMetrics(Operation.GET_REVISION).getSuccessCount());
+    
+    OperationMetrics getMetrics = metricsCollector.getMetrics(Operation.GET);
+    assertEquals(1, getMetrics.getSuccessCount());
+    assertEquals("häh", file.getContent());
+    assertEquals("{\"id\":\"1\",\"content\":\"häh\"}".length() + 1, getMetrics.getResponseBytes());
+
+    OperationMetrics updateMetrics = metricsCollector.getMetrics(Operation.GET_UPDATES);
+    assertEquals(1, updateMetrics.getSuccessCount());
+    assertEquals(1, updateMetrics.getFailureCount());
+    assertEquals(new Long(1), updateMetrics.getErrorCounts().get(UnauthorizedException.class.getName()));
+    assertEquals(2, updateMetrics.getLatencies().getCount());
+    
+    testIO.addMockedResult("", "");
+    Patch patch = new Patch();
+    patch.setRevisionNumber(2l);
+    patch.setPatch("abc");
+    patch.setAlgorithm("dmp");
+    coOps.patchFile(patch, null);
+    
+    OperationMetrics patchMetrics = metricsCollector.getMetrics(Operation.PATCH);
+    assertEquals(1, patchMetrics.getSuccessCount());
+    assertTrue(patchMetrics.getRequestBytes() > 0);
+    assertNotNull(patchMetrics.toString());
+  }
+  
+  @Test
+  public void testStreamingFailure() throws UsageException, ServerException, IOException {
+    final String partial = "{\"id\":\"1\",\"content\":\"\ud83d\ude00";
+    TestIO testIO = new TestIO() {
+      @Override
+      public Reader doStreamingGetRequest(URI uri, Auth auth) throws IOException, ServerException {
+        return new StringReader(partial) {
+          @Override
+          public int read(char[] cbuf, int off, int len) throws IOException {
+            int read = super.read(cbuf, off, len);
+            if (read == -1) {
+              throw new IOException("Connection reset");
+            }
+            
+            return read;
+          }
+        };
+      }
+    };
+    
+    InMemoryMetricsCollector metricsCollector = new InMemoryMetricsCollector();
+    CoOps coOps = new CoOps(new InstrumentedIOHandler(testIO, metricsCollector), "http", "localhost", 80, "");
+    coOps.setConditionalGetEnabled(false);
+    
+    try {
+      coOps.getFile(null);
+      fail("IOException expected");
+    } catch (IOException e) {
+      // Expected
+    }
+    
+    OperationMetrics getMetrics = metricsCollector.getMetrics(Operation.GET);
+    assertEquals(0, getMetrics.getSuccessCount());
+    assertEquals(1, getMetrics.getFailureCount());
+    assertEquals(new Long(1), getMetrics.getErrorCounts().get(IOException.class.getName()));
+  }
+  
+  @Test
+  public void testSurrogatePairBytes() throws UsageException, ServerException, IOException {
+    TestIO testIO = new TestIO();
+    InMemoryMetricsCollector metricsCollector = new InMemoryMetricsCollector();
+    CoOps coOps = new CoOps(new InstrumentedIOHandler(testIO, metricsCollector), "http", "localhost", 80, "");
+    coOps.setConditionalGetEnabled(false);
+    
+    String json = "{\"id\":\"1\",\"content\":\"\ud83d\ude00\"}";
+    testIO.addMockedResult("", json);
+    coOps.getFile(null);
+    
+    assertEquals(json.getBytes("UTF-8").length, metricsCollector.getMetrics(Operation.GET).getResponseBytes());
+  }
+  
+  @Test
+  public void testStreamingUploadBytes() throws UsageException, ServerException, IOException {
+    final StringBuilder sent = new StringBuilder();
+    TestIO testIO = new TestIO() {
+      @Override
+      public String doPutRequest(URI uri, String body, String contentType, Auth auth) throws IOException, ServerException {
+        sent.append(body);
+        return super.doPutRequest(uri, body, contentType, auth);
+      }
+    };
+    
+    InMemoryMetricsCollector metricsCollector = new InMemoryMetricsCollector();
+    CoOps coOps = new CoOps(new InstrumentedIOHandler(testIO, metricsCollector), "http", "localhost", 80, "");
+    testIO.addMockedResult("", "");
+    
+    File file = new File();
+    file.setContentType("text/plain");
+    file.setName("asd");
+    file.setRevisionNumber(2l);
+    coOps.saveFile(file, new StringReader("\u00e4\u00e4kk\u00f6set"), null);
+    
+    OperationMetrics saveMetrics = metricsCollector.getMetrics(Operation.SAVE);
+    assertEquals(1, saveMetrics.getSuccessCount());
+    assertTrue(saveMetrics.getRequestBytes() > 0);
+    assertEquals(sent.toString().getBytes("UTF-8").length, saveMetrics.getRequestBytes());
+  }
+  
+  @Test
+  public void testLatencyHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+    }
+    
+    assertEquals(100, histogram.getCount());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(100), histogram.getMax());
+    
+    long p50 = histogram.getPercentile(50);
+    assertTrue(p50 >= TimeUnit.MILLISECONDS.toNanos(50));
+    assertTrue(p50 <= TimeUnit.MILLISECONDS.toNanos(60));
+    
+    long p99 = histogram.getPercentile(99);
+    assertTrue(p99 >= TimeUnit.MILLISECONDS.toNanos(99));
+    assertTrue(p99 <= TimeUnit.MILLISECONDS.toNanos(100));
+  }
+  
+}
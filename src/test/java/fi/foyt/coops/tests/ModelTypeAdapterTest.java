@@ -0,0 +1,133 @@
+package fi.foyt.coops.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.text.DateFormat;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+
+import fi.foyt.coops.json.DateTimeCodec;
+import fi.foyt.coops.json.ModelTypeAdapterFactory;
+import fi.foyt.coops.model.File;
+import fi.foyt.coops.model.FileJoin;
+import fi.foyt.coops.model.FileUserRole;
+import fi.foyt.coops.model.Patch;
+
+public class ModelTypeAdapterTest {
+  
+  @Test
+  public void testFileRoundTrip() {
+    File file = new File();
+    file.setId("file-id");
+    file.setRevisionNumber(3l);
+    file.setName("name");
+    file.setContent("content \"quoted\"\n");
+    file.setContentType("text/html");
+    file.setRole(FileUserRole.WRITER);
+    file.setModified(new DateTime(2013, 9, 12, 10, 20, DateTimeZone.UTC));
+    
+    Gson gson = createGson();
+    File result = gson.fromJson(gson.toJson(file), File.class);
+
+    assertEquals(file.getId(), result.getId());
+    assertEquals(file.getRevisionNumber(), result.getRevisionNumber());
+    assertEquals(file.getName(), result.getName());
+    assertEquals(file.getContent(), result.getContent());
+    assertEquals(file.getContentType(), result.getContentType());
+    assertEquals(file.getRole(), result.getRole());
+    assertEquals(file.getModified().getMillis(), result.getModified().getMillis());
+  }
+
+  @Test
+  public void testFileJoinSkipsUnknownFields() {
+    FileJoin fileJoin = createGson().fromJson("{\"unknown\":{\"a\":[1,2]},\"extensions\":[\"x\",\"y\"],\"fileId\":\"1\",\"revisionNumber\":\"12\",\"clientId\":\"c\"}", FileJoin.class);
+    
+    assertArrayEquals(new String[] { "x", "y" }, fileJoin.getExtensions());
+    assertEquals("1", fileJoin.getFileId());
+    assertEquals(new Long(12), fileJoin.getRevisionNumber());
+    assertEquals("c", fileJoin.getClientId());
+    assertNull(fileJoin.getContent());
+  }
+
+  @Test
+  public void testPatchNulls() {
+    Map<String, String> properties = new HashMap<>();
+    properties.put("title", "Title");
+    Patch patch = new Patch();
+    patch.setRevisionNumber(5l);
+    patch.setProperties(properties);
+    
+    String json = createGson().toJson(patch);
+    assertFalse(json.contains("\"patch\""));
+    assertEquals("{\"revisionNumber\":5,\"properties\":{\"title\":\"Title\"}}", json);
+    
+    String nullsJson = new GsonBuilder().registerTypeAdapterFactory(new ModelTypeAdapterFactory()).serializeNulls().create().toJson(patch);
+    assertTrue(nullsJson.contains("\"patch\":null"));
+    
+    Patch[] patches = createGson().fromJson("[{\"revisionNumber\":6,\"patch\":\"p\",\"algorithm\":\"dmp\"}]", Patch[].class);
+    assertEquals(1, patches.length);
+    assertEquals(new Long(6), patches[0].getRevisionNumber());
+    assertEquals("p", patches[0].getPatch());
+    assertEquals("dmp", patches[0].getAlgorithm());
+    assertNull(patches[0].getProperties());
+  }
+  
+  @Test
+  public void testDateFormats() {
+    Gson gson = createGson();
+    DateTime expected = new DateTime(2013, 9, 12, 10, 20, DateTimeZone.UTC);
+    
+    assertEquals(expected.getMillis(), gson.fromJson("{\"modified\":\"2013-09-12T10:20:00.000Z\"}", File.class).getModified().getMillis());
+    assertEquals(expected.getMillis(), gson.fromJson("{\"modified\":" + expected.getMillis() + "}", File.class).getModified().getMillis());
+    assertEquals(expected.getMillis(), gson.fromJson("{\"modified\":\"" + expected.getMillis() + "\"}", File.class).getModified().getMillis());
+    assertEquals(new DateTime(2013, 9, 12, 0, 0).getMillis(), gson.fromJson("{\"modified\":\"2013-09-12\"}", File.class).getModified().getMillis());
+    
+    String usDate = DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US).format(expected.toDate());
+    assertEquals(expected.getMillis(), DateTimeCodec.parse(usDate).getMillis());
+    
+    assertNull(DateTimeCodec.parse("2013-13-45"));
+    assertNull(DateTimeCodec.parse("sss"));
+  }
+  
+  @Test
+  public void testNumericDates() {
+    Gson gson = createGson();
+    
+    // Numbers as short as an ISO year are read as years, longer ones as epoch milliseconds
+    assertEquals(new DateTime(2014, 1, 1, 0, 0).getMillis(), gson.fromJson("{\"modified\":2014}", File.class).getModified().getMillis());
+    assertEquals(1378981200000l, gson.fromJson("{\"modified\":1378981200000}", File.class).getModified().getMillis());
+    
+    for (String invalid : new String[] { "1378981200000.5", "1.3789812e12" }) {
+      try {
+        gson.fromJson("{\"modified\":" + invalid + "}", File.class);
+        fail(invalid + " should not be accepted as a date");
+      } catch (JsonSyntaxException e) {
+      }
+    }
+  }
+  
+  @Test (expected = JsonSyntaxException.class)
+  public void testInvalidDate() {
+    createGson().fromJson("{\"modified\":\"sss\"}", File.class);
+  }
+  
+  private Gson createGson() {
+    return new GsonBuilder()
+      .registerTypeAdapterFactory(new ModelTypeAdapterFactory())
+      .create();
+  }
+}
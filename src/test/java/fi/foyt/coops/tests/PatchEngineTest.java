@@ -0,0 +1,212 @@
+package fi.foyt.coops.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+
+import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch;
+import org.junit.Test;
+
+import fi.foyt.coops.PatchException;
+import fi.foyt.coops.document.Document;
+import fi.foyt.coops.document.Rope;
+import fi.foyt.coops.model.File;
+import fi.foyt.coops.model.FileJoin;
+import fi.foyt.coops.model.Patch;
+import fi.foyt.coops.patch.CostAwarePatchAlgorithm;
+import fi.foyt.coops.patch.DmpPatchAlgorithm;
+import fi.foyt.coops.patch.PatchEngine;
+
+public class PatchEngineTest {
+
+  @Test
+  public void testApplyPatch() throws PatchException {
+    PatchEngine patchEngine = new PatchEngine();
+    
+    File file = new File();
+    file.setContent("The quick brown fox jumps over the lazy dog");
+    file.setRevisionNumber(3l);
+    
+    patchEngine.applyPatch(file, createPatch(file.getContent(), "The quick red fox jumps over the lazy cat", 4l));
+    
+    assertEquals("The quick red fox jumps over the lazy cat", file.getContent());
+    assertEquals(new Long(4), file.getRevisionNumber());
+  }
+
+  @Test
+  public void testApplyPatchFileJoin() throws PatchException {
+    PatchEngine patchEngine = new PatchEngine();
+    
+    FileJoin fileJoin = new FileJoin();
+    fileJoin.setContent("abc");
+    fileJoin.setRevisionNumber(1l);
+    
+    patchEngine.applyPatch(fileJoin, createPatch("abc", "abcdef", 2l));
+    
+    assertEquals("abcdef", fileJoin.getContent());
+    assertEquals(new Long(2), fileJoin.getRevisionNumber());
+  }
+
+  @Test
+  public void testApplyPatchWithOffset() throws PatchException {
+    PatchEngine patchEngine = new PatchEngine();
+    Patch patch = createPatch("Hello world, how are you", "Hello world, who are you", null);
+    assertEquals("Prefix. Hello world, who are you", patchEngine.applyPatch("Prefix. Hello world, how are you", patch));
+  }
+
+  @Test
+  public void testPropertiesOnlyPatch() throws PatchException {
+    PatchEngine patchEngine = new PatchEngine();
+    
+    File file = new File();
+    file.setContent("abc");
+    file.setRevisionNumber(1l);
+    
+    Patch patch = new Patch();
+    patch.setRevisionNumber(2l);
+    patchEngine.applyPatch(file, patch);
+    
+    assertEquals("abc", file.getContent());
+    assertEquals(new Long(2), file.getRevisionNumber());
+  }
+
+  @Test (expected = PatchException.class)
+  public void testUnsupportedAlgorithm() throws PatchException {
+    Patch patch = new Patch();
+    patch.setAlgorithm("bogus");
+    patch.setPatch("change");
+    new PatchEngine().applyPatch("abc", patch);
+  }
+
+  @Test (expected = PatchException.class)
+  public void testRevisionGap() throws PatchException {
+    File file = new File();
+    file.setContent("abc");
+    file.setRevisionNumber(1l);
+    new PatchEngine().applyPatch(file, createPatch("abc", "abcd", 3l));
+  }
+
+  @Test (expected = PatchException.class)
+  public void testConflictingPatch() throws PatchException {
+    new PatchEngine().applyPatch("something completely different", createPatch("abc", "abcd", null));
+  }
+  
+  @Test
+  public void testCreatePatch() throws PatchException {
+    PatchEngine patchEngine = new PatchEngine();
+    String oldContent = "<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit.</p>";
+    String newContent = "<p>Lorem ipsum dolor sit, consectetur adipiscing elit. Sed do.</p>";
+    
+    Patch patch = patchEngine.createPatch("dmp", 5l, oldContent, newContent);
+    assertEquals("dmp", patch.getAlgorithm());
+    assertEquals(new Long(5), patch.getRevisionNumber());
+    assertEquals(newContent, patchEngine.applyPatch(oldContent, patch));
+    
+    assertNull(patchEngine.createPatch("dmp", 5l, oldContent, oldContent));
+  }
+
+  @Test
+  public void testCreatePatchTimeout() throws PatchException {
+    PatchEngine patchEngine = new PatchEngine();
+    patchEngine.registerAlgorithm(new DmpPatchAlgorithm(1));
+    
+    StringBuilder oldContent = new StringBuilder();
+    StringBuilder newContent = new StringBuilder();
+    Random random = new Random(42);
+    for (int i = 0; i < 20000; i++) {
+      oldContent.append((char) ('a' + random.nextInt(26)));
+      newContent.append((char) ('a' + random.nextInt(26)));
+    }
+    
+    Patch patch = patchEngine.createPatch("dmp", 1l, oldContent.toString(), newContent.toString());
+    assertEquals(newContent.toString(), patchEngine.applyPatch(oldContent.toString(), patch));
+  }
+  
+  @Test
+  public void testApplyPatchDocument() throws PatchException {
+    PatchEngine patchEngine = new PatchEngine();
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      content.append("Line ").append(i).append('\n');
+    }
+    
+    String oldContent = content.toString();
+    String newContent = oldContent.replace("Line 10\n", "Line ten\n").replace("Line 900\n", "");
+    
+    Document document = new Document(Rope.valueOf(oldContent), "text/plain", 7l);
+    patchEngine.applyPatch(document, createPatch(oldContent, newContent, 8l));
+    assertEquals(newContent, document.getContentAsString());
+    assertEquals(new Long(8), document.getRevisionNumber());
+    
+    // Context has moved, fuzzy matching is needed
+    document = new Document(Rope.valueOf("Extra\n" + oldContent), "text/plain", 7l);
+    patchEngine.applyPatch(document, createPatch(oldContent, newContent, 8l));
+    assertEquals("Extra\n" + newContent, document.getContentAsString());
+  }
+  
+  @Test
+  public void testAlgorithmSelection() throws PatchException {
+    PatchEngine patchEngine = new PatchEngine();
+    patchEngine.registerAlgorithm(new FastPatchAlgorithm());
+    
+    assertArrayEquals(new String[] { "dmp", "fast" }, patchEngine.getAlgorithmPreference(1000, "text/plain"));
+    assertArrayEquals(new String[] { "fast", "dmp" }, patchEngine.getAlgorithmPreference(10000000, "text/plain"));
+    assertArrayEquals(new String[] { "dmp" }, patchEngine.getAlgorithmPreference(10000000, "text/html"));
+    
+    assertEquals("fast", patchEngine.selectAlgorithm(null, 10000000, 10, "text/plain").getName());
+    assertEquals("dmp", patchEngine.selectAlgorithm(new String[] { "dmp", "unknown" }, 10000000, 10, "text/plain").getName());
+    assertNull(patchEngine.selectAlgorithm(new String[] { "fast" }, 1000, 10, "text/html"));
+    
+    Patch patch = patchEngine.createPatch(null, 3l, "abc", "abcd", "text/plain");
+    assertEquals("dmp", patch.getAlgorithm());
+    assertEquals(new Long(3), patch.getRevisionNumber());
+    assertEquals("abcd", patchEngine.applyPatch("abc", patch));
+  }
+  
+  private Patch createPatch(String oldContent, String newContent, Long revisionNumber) {
+    DiffMatchPatch diffMatchPatch = new DiffMatchPatch();
+    
+    Patch patch = new Patch();
+    patch.setAlgorithm("dmp");
+    patch.setRevisionNumber(revisionNumber);
+    patch.setPatch(diffMatchPatch.patchToText(diffMatchPatch.patchMake(oldContent, newContent)));
+    return patch;
+  }
+  
+  private static class FastPatchAlgorithm implements CostAwarePatchAlgorithm {
+    
+    @Override
+    public String getName() {
+      return "fast";
+    }
+    
+    @Override
+    public String apply(String content, String patch) throws PatchException {
+      return delegate.apply(content, patch);
+    }
+    
+    @Override
+    public String diff(String oldContent, String newContent) throws PatchException {
+      return delegate.diff(oldContent, newContent);
+    }
+    
+    @Override
+    public double getCpuCostPerByte() {
+      return 0.1;
+    }
+    
+    @Override
+    public double getPatchSizeRatio() {
+      return 20;
+    }
+    
+    @Override
+    public boolean supportsContentType(String contentType) {
+      return "text/plain".equals(contentType);
+    }
+    
+    private DmpPatchAlgorithm delegate = new DmpPatchAlgorithm();
+  }
+}
@@ -0,0 +1,174 @@
+package fi.foyt.coops.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.foyt.coops.Auth;
+import fi.foyt.coops.CoOps;
+import fi.foyt.coops.CoOpsCallback;
+import fi.foyt.coops.ConflictException;
+import fi.foyt.coops.ServerException;
+import fi.foyt.coops.TestIO;
+import fi.foyt.coops.UnauthorizedException;
+import fi.foyt.coops.model.FileJoin;
+import fi.foyt.coops.session.CoOpsSession;
+import fi.foyt.coops.session.PatchFlushScheduler;
+
+public class PatchFlushSchedulerTest {
+  
+  @Before
+  public void setUp() {
+    executor = Executors.newSingleThreadScheduledExecutor();
+  }
+  
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testCoalescing() throws InterruptedException {
+    final AtomicInteger patchRequests = new AtomicInteger();
+    TestIO testIO = new TestIO() {
+      @Override
+      public String doPatchRequest(URI uri, String body, String contentType, Auth auth) throws IOException, ServerException {
+        patchRequests.incrementAndGet();
+        try {
+          Thread.sleep(20);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        
+        return super.doPatchRequest(uri, body, contentType, auth);
+      }
+    };
+    testIO.addMockedResult("", "");
+    
+    FileJoin fileJoin = new FileJoin();
+    fileJoin.setContent("");
+    fileJoin.setRevisionNumber(1l);
+    
+    CoOpsSession session = new CoOpsSession(new CoOps(testIO, "http", "localhost", 80, ""), fileJoin, "dmp", null, null);
+    PatchFlushScheduler scheduler = new PatchFlushScheduler(session, executor, null, 10, 200, 40, 1000);
+    
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      content.append('x');
+      assertTrue(scheduler.edit(content.toString()));
+    }
+    
+    assertTrue(scheduler.awaitFlushed(10000));
+    assertFalse(session.hasPendingChanges());
+    assertEquals(content.toString(), session.getConfirmedContent());
+    assertTrue("Expected edits to be coalesced, got " + patchRequests.get() + " requests", patchRequests.get() <= 10);
+    assertEquals(0, scheduler.getPendingEdits());
+  }
+
+  @Test
+  public void testBackpressure() {
+    FileJoin fileJoin = new FileJoin();
+    fileJoin.setContent("");
+    fileJoin.setRevisionNumber(1l);
+    
+    CoOpsSession session = new CoOpsSession(new CoOps(new TestIO(), "http", "localhost", 80, ""), fileJoin, "dmp", null, null);
+    PatchFlushScheduler scheduler = new PatchFlushScheduler(session, executor, null, 10000, 10000, 1000, 3);
+    
+    assertTrue(scheduler.edit("a"));
+    assertTrue(scheduler.edit("ab"));
+    assertTrue(scheduler.edit("abc"));
+    assertFalse(scheduler.edit("abcd"));
+    assertEquals("abc", session.getLocalContent());
+    scheduler.cancel();
+  }
+  
+  @Test
+  public void testConflictBackoff() throws InterruptedException {
+    final AtomicInteger patchRequests = new AtomicInteger();
+    TestIO testIO = createCountingIO(patchRequests);
+    testIO.addException("", ConflictException.class);
+    testIO.addMockedResult("/update?revisionNumber=1", "[]");
+    
+    CoOpsSession session = new CoOpsSession(new CoOps(testIO, "http", "localhost", 80, ""), createFileJoin(), "dmp", null, null);
+    PatchFlushScheduler scheduler = new PatchFlushScheduler(session, executor, null, 10, 50, 40, 1000);
+    
+    assertTrue(scheduler.edit("a"));
+    Thread.sleep(700);
+    scheduler.cancel();
+    
+    // Delays of 10, 20, 40, 80, 160 and 320 ms fit into the wait
+    assertTrue("Expected backoff, got " + patchRequests.get() + " requests", patchRequests.get() <= 8);
+    assertTrue(patchRequests.get() >= 3);
+  }
+
+  @Test
+  public void testStopOnUnauthorized() throws InterruptedException {
+    final AtomicInteger patchRequests = new AtomicInteger();
+    TestIO testIO = createCountingIO(patchRequests);
+    testIO.addException("", UnauthorizedException.class);
+    
+    final List<Exception> failures = new CopyOnWriteArrayList<>();
+    final CountDownLatch reported = new CountDownLatch(1);
+    CoOpsSession session = new CoOpsSession(new CoOps(testIO, "http", "localhost", 80, ""), createFileJoin(), "dmp", null, null);
+    PatchFlushScheduler scheduler = new PatchFlushScheduler(session, executor, new CoOpsCallback<Boolean>() {
+      @Override
+      public void onSuccess(Boolean result) {
+      }
+      
+      @Override
+      public void onFailure(Exception exception) {
+        failures.add(exception);
+        reported.countDown();
+      }
+    }, 10, 50, 40, 1000);
+    
+    assertTrue(scheduler.edit("a"));
+    assertFalse(scheduler.awaitFlushed(300));
+    assertTrue(reported.await(5, TimeUnit.SECONDS));
+    
+    assertTrue(scheduler.isStopped());
+    assertEquals(1, patchRequests.get());
+    assertEquals(1, failures.size());
+    assertTrue(failures.get(0) instanceof UnauthorizedException);
+    assertTrue(session.hasPendingChanges());
+    
+    testIO.clearExceptions();
+    testIO.addMockedResult("", "");
+    scheduler.resume();
+    assertTrue(scheduler.awaitFlushed(5000));
+    assertFalse(session.hasPendingChanges());
+  }
+  
+  private TestIO createCountingIO(final AtomicInteger patchRequests) {
+    return new TestIO() {
+      @Override
+      public String doPatchRequest(URI uri, String body, String contentType, Auth auth) throws IOException, ServerException {
+        patchRequests.incrementAndGet();
+        return super.doPatchRequest(uri, body, contentType, auth);
+      }
+    };
+  }
+  
+  private FileJoin createFileJoin() {
+    FileJoin fileJoin = new FileJoin();
+    fileJoin.setContent("");
+    fileJoin.setRevisionNumber(1l);
+    return fileJoin;
+  }
+  
+  private ScheduledExecutorService executor;
+}
@@ -0,0 +1,220 @@
+package fi.foyt.coops.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fi.foyt.coops.CoOps;
+import fi.foyt.coops.ConflictException;
+import fi.foyt.coops.ServerException;
+import fi.foyt.coops.TestIO;
+import fi.foyt.coops.UsageException;
+import fi.foyt.coops.journal.FsyncPolicy;
+import fi.foyt.coops.journal.JournalEntry;
+import fi.foyt.coops.journal.PatchJournal;
+import fi.foyt.coops.journal.ReplayConflictHandler;
+import fi.foyt.coops.model.Patch;
+
+public class PatchJournalTest {
+  
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+  
+  @Test
+  public void testRecovery() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    
+    try (PatchJournal journal = new PatchJournal(directory)) {
+      journal.append(createPatch(1l, "patch 1"));
+      long second = journal.append(createPatch(2l, "patch ä 2"));
+      journal.append(createPatch(3l, "patch 3"));
+      journal.acknowledge(second - 1);
+    }
+    
+    try (PatchJournal journal = new PatchJournal(directory)) {
+      List<JournalEntry> pending = journal.getPending();
+      assertEquals(2, pending.size());
+      assertEquals("patch ä 2", pending.get(0).getPatch().getPatch());
+      assertEquals(new Long(2), pending.get(0).getPatch().getRevisionNumber());
+      assertEquals("dmp", pending.get(0).getPatch().getAlgorithm());
+      assertEquals("patch 3", pending.get(1).getPatch().getPatch());
+      assertTrue(pending.get(0).getSequence() < pending.get(1).getSequence());
+      
+      long fourth = journal.append(createPatch(4l, "patch 4"));
+      assertTrue(fourth > pending.get(1).getSequence());
+    }
+  }
+  
+  @Test
+  public void testTornRecord() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    
+    try (PatchJournal journal = new PatchJournal(directory, 4096, FsyncPolicy.NEVER)) {
+      journal.append(createPatch(1l, "patch 1"));
+      journal.append(createPatch(2l, "patch 2"));
+    }
+    
+    // Corrupt the payload of the last record
+    Path segment = getSegments(directory).get(0);
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.allocate(4096);
+      channel.read(buffer, 0);
+      int firstLength = buffer.getInt(0);
+      int secondStart = 4 + firstLength;
+      channel.write(ByteBuffer.wrap(new byte[] { 'x', 'x' }), secondStart + 4 + 13 + 2);
+    }
+    
+    try (PatchJournal journal = new PatchJournal(directory, 4096, FsyncPolicy.NEVER)) {
+      List<JournalEntry> pending = journal.getPending();
+      assertEquals(1, pending.size());
+      assertEquals("patch 1", pending.get(0).getPatch().getPatch());
+      
+      journal.append(createPatch(2l, "patch 2b"));
+    }
+    
+    try (PatchJournal journal = new PatchJournal(directory, 4096, FsyncPolicy.NEVER)) {
+      assertEquals(2, journal.getPendingCount());
+      assertEquals("patch 2b", journal.getPending().get(1).getPatch().getPatch());
+    }
+  }
+  
+  @Test
+  public void testSegmentRollingAndCompaction() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    
+    try (PatchJournal journal = new PatchJournal(directory, 1024, FsyncPolicy.PERIODIC)) {
+      long last = 0;
+      for (int i = 0; i < 100; i++) {
+        last = journal.append(createPatch((long) i, "patch number " + i));
+      }
+      
+      assertTrue(journal.getSegmentCount() > 5);
+      
+      journal.acknowledge(last - 10);
+      assertTrue(journal.getSegmentCount() <= 2);
+      assertEquals(10, journal.getPendingCount());
+      
+      journal.acknowledge(last);
+      journal.compact();
+      assertEquals(1, journal.getSegmentCount());
+      assertEquals(1, getSegments(directory).size());
+    }
+    
+    try (PatchJournal journal = new PatchJournal(directory, 1024, FsyncPolicy.PERIODIC)) {
+      assertEquals(0, journal.getPendingCount());
+    }
+  }
+  
+  @Test
+  public void testReplay() throws IOException, UsageException, ServerException {
+    TestIO testIO = new TestIO();
+    CoOps coOps = new CoOps(testIO, "http", "localhost", 80, "");
+    
+    try (PatchJournal journal = new PatchJournal(folder.getRoot().toPath())) {
+      journal.append(createPatch(1l, "patch 1"));
+      journal.append(createPatch(2l, "patch 2"));
+      
+      testIO.addException("", ServerException.class);
+      try {
+        journal.replay(coOps, null);
+        fail();
+      } catch (ServerException e) {
+        assertEquals(2, journal.getPendingCount());
+      }
+      
+      testIO.clearExceptions();
+      testIO.addMockedResult("", "");
+      assertEquals(2, journal.replay(coOps, null));
+      assertEquals(0, journal.getPendingCount());
+    }
+  }
+  
+  @Test
+  public void testReplayAfterCrashBeforeAcknowledge() throws IOException, UsageException, ServerException {
+    Path directory = folder.getRoot().toPath();
+    TestIO testIO = new TestIO();
+    CoOps coOps = new CoOps(testIO, "http", "localhost", 80, "");
+    
+    try (PatchJournal journal = new PatchJournal(directory)) {
+      journal.append(createPatch(1l, "patch 1"));
+      
+      // Patch reaches the server but the process dies before acknowledging it
+      testIO.addMockedResult("", "");
+      coOps.patchFile(journal.getPending().get(0).getPatch(), null);
+    }
+    
+    testIO.clearMockedResults();
+    testIO.addException("", ConflictException.class);
+    testIO.addMockedResult("/update?revisionNumber=1", "[" + coOps.getGson().toJson(createPatch(2l, "patch 1")) + "]");
+    
+    try (PatchJournal journal = new PatchJournal(directory)) {
+      assertEquals(1, journal.replay(coOps, null));
+      assertEquals(0, journal.getPendingCount());
+    }
+  }
+  
+  @Test
+  public void testReplayConflict() throws IOException, UsageException, ServerException {
+    TestIO testIO = new TestIO();
+    CoOps coOps = new CoOps(testIO, "http", "localhost", 80, "");
+    testIO.addException("", ConflictException.class);
+    testIO.addMockedResult("/update?revisionNumber=1", "[" + coOps.getGson().toJson(createPatch(2l, "other patch")) + "]");
+    
+    try (PatchJournal journal = new PatchJournal(folder.getRoot().toPath())) {
+      journal.append(createPatch(1l, "patch 1"));
+      
+      try {
+        journal.replay(coOps, null);
+        fail();
+      } catch (ConflictException e) {
+        assertEquals(1, journal.getPendingCount());
+      }
+      
+      final List<Patch> conflicting = new ArrayList<>();
+      assertEquals(1, journal.replay(coOps, null, new ReplayConflictHandler() {
+        @Override
+        public Patch resolve(JournalEntry entry, Patch[] updates) {
+          conflicting.add(entry.getPatch());
+          assertEquals("other patch", updates[0].getPatch());
+          return null;
+        }
+      }));
+      
+      assertEquals(1, conflicting.size());
+      assertEquals(0, journal.getPendingCount());
+    }
+  }
+  
+  private List<Path> getSegments(Path directory) throws IOException {
+    List<Path> result = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.log")) {
+      for (Path path : stream) {
+        result.add(path);
+      }
+    }
+    
+    return result;
+  }
+  
+  private Patch createPatch(Long revisionNumber, String text) {
+    Patch patch = new Patch();
+    patch.setRevisionNumber(revisionNumber);
+    patch.setAlgorithm("dmp");
+    patch.setPatch(text);
+    return patch;
+  }
+}
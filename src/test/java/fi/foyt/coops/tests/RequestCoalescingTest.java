@@ -0,0 +1,216 @@
+package fi.foyt.coops.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.foyt.coops.Auth;
+import fi.foyt.coops.CoOps;
+import fi.foyt.coops.ConflictException;
+import fi.foyt.coops.ServerException;
+import fi.foyt.coops.TestIO;
+import fi.foyt.coops.model.File;
+
+public class RequestCoalescingTest {
+  
+  private static final int CALLERS = 6;
+  
+  @Before
+  public void setUp() {
+    executor = Executors.newCachedThreadPool();
+    requests = new AtomicInteger();
+    gate = new CountDownLatch(1);
+    
+    testIO = new TestIO() {
+      @Override
+      public Reader doStreamingGetRequest(URI uri, Auth auth) throws IOException, ServerException {
+        requests.incrementAndGet();
+        try {
+          gate.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        
+        return super.doStreamingGetRequest(uri, auth);
+      }
+    };
+    
+    testIO.addMockedResult("", "{\"id\":\"1\",\"content\":\"abc\",\"revisionNumber\":3}");
+    testIO.addMockedResult("?revisionNumber=2", "{\"id\":\"1\",\"content\":\"ab\",\"revisionNumber\":2}");
+    
+    coOps = new CoOps(testIO, "http", "localhost", 80, "");
+    coOps.setConditionalGetEnabled(false);
+    coOps.setRequestCoalescingEnabled(true);
+  }
+  
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testConcurrentGetFile() throws Exception {
+    List<Future<File>> results = submit(CALLERS, new Callable<File>() {
+      @Override
+      public File call() throws Exception {
+        return coOps.getFile(null);
+      }
+    });
+    
+    awaitCollapsed(CALLERS - 1);
+    gate.countDown();
+    
+    List<File> files = new ArrayList<>();
+    for (Future<File> result : results) {
+      File file = result.get(5, TimeUnit.SECONDS);
+      assertEquals("abc", file.getContent());
+      assertEquals(new Long(3), file.getRevisionNumber());
+      files.add(file);
+    }
+    
+    assertNotSame(files.get(0), files.get(1));
+    assertEquals(1, requests.get());
+    assertEquals(1, coOps.getCoalescedRequestCount());
+    assertEquals(CALLERS - 1, coOps.getCollapsedRequestCount());
+    
+    // Completed requests are not reused
+    assertEquals("abc", coOps.getFile(null).getContent());
+    assertEquals(2, requests.get());
+  }
+
+  @Test
+  public void testAuthIdentity() throws Exception {
+    submit(2, new Callable<File>() {
+      @Override
+      public File call() throws Exception {
+        return coOps.getFileRevision(2l, createAuth("a"));
+      }
+    });
+    
+    List<Future<File>> results = submit(1, new Callable<File>() {
+      @Override
+      public File call() throws Exception {
+        return coOps.getFileRevision(2l, createAuth("b"));
+      }
+    });
+    
+    awaitCollapsed(1);
+    gate.countDown();
+    
+    assertEquals("ab", results.get(0).get(5, TimeUnit.SECONDS).getContent());
+    assertEquals(2, requests.get());
+    assertEquals(1, coOps.getCollapsedRequestCount());
+  }
+
+  @Test
+  public void testSharedFailure() throws Exception {
+    testIO.clearMockedResults();
+    testIO.addException("", ConflictException.class);
+    
+    List<Future<File>> results = submit(3, new Callable<File>() {
+      @Override
+      public File call() throws Exception {
+        return coOps.getFile(null);
+      }
+    });
+    
+    awaitCollapsed(2);
+    gate.countDown();
+    
+    for (Future<File> result : results) {
+      try {
+        result.get(5, TimeUnit.SECONDS);
+        fail("Expected ConflictException");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof ConflictException);
+      }
+    }
+    
+    assertEquals(1, requests.get());
+  }
+  
+  @Test
+  public void testInterruptedLeader() throws Exception {
+    Callable<File> call = new Callable<File>() {
+      @Override
+      public File call() throws Exception {
+        return coOps.getFile(null);
+      }
+    };
+    
+    Future<File> leader = executor.submit(call);
+    long timeout = System.currentTimeMillis() + 5000;
+    while (requests.get() < 1) {
+      assertTrue(System.currentTimeMillis() < timeout);
+      Thread.sleep(5);
+    }
+    
+    Future<File> follower = executor.submit(call);
+    awaitCollapsed(1);
+    
+    // Interrupting the leader must not fail the follower, it makes the request itself
+    leader.cancel(true);
+    while (requests.get() < 2) {
+      assertTrue(System.currentTimeMillis() < timeout);
+      Thread.sleep(5);
+    }
+    
+    gate.countDown();
+    assertEquals("abc", follower.get(5, TimeUnit.SECONDS).getContent());
+    assertEquals(2, requests.get());
+    assertEquals(0, coOps.getCollapsedRequestCount());
+  }
+  
+  private <T> List<Future<T>> submit(int count, Callable<T> call) {
+    List<Future<T>> result = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      result.add(executor.submit(call));
+    }
+    
+    return result;
+  }
+  
+  private void awaitCollapsed(long count) throws InterruptedException {
+    long timeout = System.currentTimeMillis() + 5000;
+    while (coOps.getCollapsedRequestCount() < count) {
+      assertTrue(System.currentTimeMillis() < timeout);
+      Thread.sleep(5);
+    }
+  }
+  
+  private Auth createAuth(final String token) {
+    return new Auth() {
+      @Override
+      public Map<String, String> getHeaders() {
+        return Collections.singletonMap("Authorization", "Bearer " + token);
+      }
+    };
+  }
+  
+  private ExecutorService executor;
+  private AtomicInteger requests;
+  private CountDownLatch gate;
+  private TestIO testIO;
+  private CoOps coOps;
+}
@@ -0,0 +1,333 @@
+package fi.foyt.coops.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.foyt.coops.Auth;
+import fi.foyt.coops.ServerException;
+import fi.foyt.coops.UnauthorizedException;
+import fi.foyt.coops.io.StreamingIOHandler;
+import fi.foyt.coops.resilience.CircuitBreaker;
+import fi.foyt.coops.resilience.CircuitOpenException;
+import fi.foyt.coops.resilience.ResilientIOHandler;
+
+public class ResilientIOHandlerTest {
+  
+  @Before
+  public void setUp() {
+    executor = Executors.newCachedThreadPool();
+  }
+  
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testGetRetried() throws IOException, ServerException {
+    final AtomicInteger calls = new AtomicInteger();
+    ResilientIOHandler ioHandler = new ResilientIOHandler(new StubIOHandler() {
+      @Override
+      public String doGetRequest(URI uri, Auth auth) throws IOException, ServerException {
+        if (calls.incrementAndGet() < 3) {
+          throw new IOException("Connection reset");
+        }
+        
+        return "ok";
+      }
+    }, executor);
+    ioHandler.setRetryBackoff(1, 5);
+    
+    assertEquals("ok", ioHandler.doGetRequest(URI.create("http://localhost/1"), null));
+    assertEquals(3, calls.get());
+    assertEquals(2, ioHandler.getRetryCount());
+  }
+
+  @Test
+  public void testAuthorizationFailureNotRetried() throws IOException, ServerException {
+    final AtomicInteger calls = new AtomicInteger();
+    ResilientIOHandler ioHandler = new ResilientIOHandler(new StubIOHandler() {
+      @Override
+      public String doGetRequest(URI uri, Auth auth) throws IOException, ServerException {
+        calls.incrementAndGet();
+        throw new UnauthorizedException("Unauthorized");
+      }
+    }, executor);
+    
+    try {
+      ioHandler.doGetRequest(URI.create("http://localhost/1"), null);
+      fail();
+    } catch (UnauthorizedException e) {
+      assertEquals(1, calls.get());
+      assertEquals(CircuitBreaker.State.CLOSED, ioHandler.getCircuitBreaker().getState());
+    }
+  }
+  
+  @Test
+  public void testPatchNotDuplicated() throws IOException, ServerException {
+    final AtomicInteger calls = new AtomicInteger();
+    ResilientIOHandler ioHandler = new ResilientIOHandler(new StubIOHandler() {
+      @Override
+      public String doPatchRequest(URI uri, String body, String contentType, Auth auth) throws IOException, ServerException {
+        calls.incrementAndGet();
+        throw new ServerException("Internal error");
+      }
+    }, executor);
+    
+    try {
+      ioHandler.doPatchRequest(URI.create("http://localhost/1"), "{}", "application/json", null);
+      fail();
+    } catch (ServerException e) {
+      assertEquals(1, calls.get());
+    }
+  }
+  
+  @Test
+  public void testCircuitBreaker() throws IOException, ServerException, InterruptedException {
+    final AtomicInteger calls = new AtomicInteger();
+    final AtomicBoolean healthy = new AtomicBoolean(false);
+    ResilientIOHandler ioHandler = new ResilientIOHandler(new StubIOHandler() {
+      @Override
+      public String doGetRequest(URI uri, Auth auth) throws IOException, ServerException {
+        calls.incrementAndGet();
+        if (!healthy.get()) {
+          throw new IOException("Connection refused");
+        }
+        
+        return "ok";
+      }
+    }, null, new CircuitBreaker(3, 100));
+    ioHandler.setMaxRetries(0);
+    
+    for (int i = 0; i < 3; i++) {
+      try {
+        ioHandler.doGetRequest(URI.create("http://localhost/1"), null);
+        fail();
+      } catch (IOException e) {
+      }
+    }
+    
+    assertEquals(CircuitBreaker.State.OPEN, ioHandler.getCircuitBreaker().getState());
+    try {
+      ioHandler.doGetRequest(URI.create("http://localhost/1"), null);
+      fail();
+    } catch (CircuitOpenException e) {
+      assertEquals(3, calls.get());
+    }
+    
+    Thread.sleep(150);
+    healthy.set(true);
+    assertEquals(CircuitBreaker.State.HALF_OPEN, ioHandler.getCircuitBreaker().getState());
+    assertEquals("ok", ioHandler.doGetRequest(URI.create("http://localhost/1"), null));
+    assertEquals(CircuitBreaker.State.CLOSED, ioHandler.getCircuitBreaker().getState());
+  }
+  
+  @Test
+  public void testHedgedRequest() throws IOException, ServerException, InterruptedException {
+    final AtomicInteger calls = new AtomicInteger();
+    final AtomicBoolean slow = new AtomicBoolean(false);
+    final AtomicBoolean loserClosed = new AtomicBoolean(false);
+    
+    ResilientIOHandler ioHandler = new ResilientIOHandler(new StubIOHandler() {
+      @Override
+      public Reader doStreamingGetRequest(URI uri, Auth auth) throws IOException, ServerException {
+        if (calls.incrementAndGet() == 1 && slow.get()) {
+          try {
+            Thread.sleep(1000);
+          } catch (InterruptedException e) {
+          }
+          
+          return new StringReader("slow") {
+            @Override
+            public void close() {
+              loserClosed.set(true);
+              super.close();
+            }
+          };
+        }
+        
+        return new StringReader("fast");
+      }
+    }, executor);
+    
+    for (int i = 0; i < 20; i++) {
+      IOUtils.toString(ioHandler.doStreamingGetRequest(URI.create("http://localhost/1"), null));
+    }
+    
+    assertEquals(0, ioHandler.getHedgeCount());
+    
+    calls.set(0);
+    slow.set(true);
+    long startTime = System.nanoTime();
+    assertEquals("fast", IOUtils.toString(ioHandler.doStreamingGetRequest(URI.create("http://localhost/1"), null)));
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) < 900);
+    assertEquals(1, ioHandler.getHedgeCount());
+    
+    long waitUntil = System.currentTimeMillis() + 5000;
+    while (!loserClosed.get() && System.currentTimeMillis() < waitUntil) {
+      Thread.sleep(10);
+    }
+    
+    assertTrue(loserClosed.get());
+  }
+  
+  @Test
+  public void testHedgeRejected() throws IOException, ServerException {
+    final AtomicInteger calls = new AtomicInteger();
+    final AtomicBoolean slow = new AtomicBoolean(false);
+    final AtomicBoolean slowClosed = new AtomicBoolean(false);
+    
+    // Single worker without a queue rejects the hedged attempt while the primary attempt is running
+    ExecutorService hedgeExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>());
+    ResilientIOHandler ioHandler = new ResilientIOHandler(new StubIOHandler() {
+      @Override
+      public Reader doStreamingGetRequest(URI uri, Auth auth) throws IOException, ServerException {
+        calls.incrementAndGet();
+        if (slow.get()) {
+          try {
+            Thread.sleep(300);
+          } catch (InterruptedException e) {
+          }
+          
+          return new StringReader("slow") {
+            @Override
+            public void close() {
+              slowClosed.set(true);
+              super.close();
+            }
+          };
+        }
+        
+        return new StringReader("fast");
+      }
+    }, hedgeExecutor);
+    
+    for (int i = 0; i < 20; i++) {
+      IOUtils.toString(ioHandler.doStreamingGetRequest(URI.create("http://localhost/1"), null));
+    }
+    
+    calls.set(0);
+    slow.set(true);
+    assertEquals("slow", IOUtils.toString(ioHandler.doStreamingGetRequest(URI.create("http://localhost/1"), null)));
+    assertEquals(1, calls.get());
+    assertEquals(0, ioHandler.getHedgeCount());
+    assertFalse(slowClosed.get());
+    
+    hedgeExecutor.shutdown();
+    slow.set(false);
+    assertEquals("fast", IOUtils.toString(ioHandler.doStreamingGetRequest(URI.create("http://localhost/1"), null)));
+  }
+  
+  @Test
+  public void testHedgedRequestInterrupted() throws Exception {
+    final AtomicBoolean slow = new AtomicBoolean(false);
+    final AtomicInteger slowReturned = new AtomicInteger();
+    final AtomicInteger slowClosed = new AtomicInteger();
+    
+    final ResilientIOHandler ioHandler = new ResilientIOHandler(new StubIOHandler() {
+      @Override
+      public Reader doStreamingGetRequest(URI uri, Auth auth) throws IOException, ServerException {
+        if (slow.get()) {
+          try {
+            Thread.sleep(300);
+          } catch (InterruptedException e) {
+          }
+          
+          slowReturned.incrementAndGet();
+          return new StringReader("slow") {
+            @Override
+            public void close() {
+              slowClosed.incrementAndGet();
+              super.close();
+            }
+          };
+        }
+        
+        return new StringReader("fast");
+      }
+    }, executor);
+    
+    for (int i = 0; i < 20; i++) {
+      IOUtils.toString(ioHandler.doStreamingGetRequest(URI.create("http://localhost/1"), null));
+    }
+    
+    slow.set(true);
+    final AtomicBoolean interrupted = new AtomicBoolean(false);
+    Thread caller = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          ioHandler.doStreamingGetRequest(URI.create("http://localhost/1"), null);
+        } catch (InterruptedIOException e) {
+          interrupted.set(true);
+        } catch (IOException | ServerException e) {
+        }
+      }
+    });
+    
+    caller.start();
+    Thread.sleep(100);
+    caller.interrupt();
+    caller.join(5000);
+    assertTrue(interrupted.get());
+    
+    // Responses arriving after the caller gave up are released
+    long waitUntil = System.currentTimeMillis() + 5000;
+    while ((slowReturned.get() < 2 || slowClosed.get() < slowReturned.get()) && System.currentTimeMillis() < waitUntil) {
+      Thread.sleep(10);
+    }
+    
+    assertEquals(2, slowReturned.get());
+    assertEquals(2, slowClosed.get());
+  }
+  
+  private ExecutorService executor;
+  
+  private static class StubIOHandler implements StreamingIOHandler {
+    
+    @Override
+    public String doGetRequest(URI uri, Auth auth) throws IOException, ServerException {
+      throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public Reader doStreamingGetRequest(URI uri, Auth auth) throws IOException, ServerException {
+      throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public String doPostRequest(URI uri, String body, String contentType, Auth auth) throws IOException, ServerException {
+      throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public String doPutRequest(URI uri, String body, String contentType, Auth auth) throws IOException, ServerException {
+      throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public String doPatchRequest(URI uri, String body, String contentType, Auth auth) throws IOException, ServerException {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package fi.foyt.coops.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import fi.foyt.coops.document.Document;
+import fi.foyt.coops.document.Rope;
+import fi.foyt.coops.model.File;
+
+public class RopeTest {
+
+  @Test
+  public void testRandomEdits() {
+    Random random = new Random(1234);
+    StringBuilder expected = new StringBuilder(randomText(random, 50000));
+    Rope rope = Rope.valueOf(expected);
+    
+    for (int i = 0; i < 2000; i++) {
+      int start = random.nextInt(expected.length() + 1);
+      switch (random.nextInt(3)) {
+        case 0:
+          String text = randomText(random, random.nextInt(3000));
+          expected.insert(start, text);
+          rope = rope.insert(start, text);
+        break;
+        case 1:
+          int end = Math.min(expected.length(), start + random.nextInt(3000));
+          expected.delete(start, end);
+          rope = rope.delete(start, end);
+        break;
+        case 2:
+          int subEnd = Math.min(expected.length(), start + random.nextInt(100));
+          assertEquals(expected.substring(start, subEnd), rope.subSequence(start, subEnd).toString());
+        break;
+      }
+      
+      assertEquals(expected.length(), rope.length());
+    }
+    
+    assertEquals(expected.toString(), rope.toString());
+    assertEquals(expected.charAt(expected.length() / 2), rope.charAt(expected.length() / 2));
+    
+    // Tree stays height balanced
+    int leaves = (rope.length() / 1024) + 1;
+    assertTrue(rope.getDepth() <= 2 * (32 - Integer.numberOfLeadingZeros(leaves)) + 2);
+  }
+  
+  @Test
+  public void testSnapshot() {
+    Document document = new Document(Rope.valueOf("Hello world"), "text/plain", 1l);
+    Rope snapshot = document.snapshot();
+    
+    document.insert(5, ",");
+    document.replace(7, 12, "there");
+    document.delete(0, 1);
+    
+    assertEquals("Hello world", snapshot.toString());
+    assertEquals("ello, there", document.getContentAsString());
+  }
+  
+  @Test
+  public void testStreaming() throws IOException {
+    String text = randomText(new Random(5), 10000);
+    Rope rope = Rope.read(new StringReader(text));
+    assertEquals(text, rope.toString());
+    assertEquals(text, IOUtils.toString(rope.getReader()));
+    
+    StringWriter writer = new StringWriter();
+    rope.writeTo(writer);
+    assertEquals(text, writer.toString());
+  }
+  
+  @Test
+  public void testFileConversion() {
+    File file = new File();
+    file.setContent("abc");
+    file.setContentType("text/plain");
+    file.setRevisionNumber(3l);
+    
+    Document document = Document.fromFile(file);
+    document.insert(3, "def");
+    document.setRevisionNumber(4l);
+    
+    File result = new File();
+    document.toFile(result);
+    assertEquals("abcdef", result.getContent());
+    assertEquals("text/plain", result.getContentType());
+    assertEquals(new Long(4), result.getRevisionNumber());
+  }
+  
+  private String randomText(Random random, int length) {
+    StringBuilder result = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      result.append((char) ('a' + random.nextInt(26)));
+    }
+    
+    return result.toString();
+  }
+}
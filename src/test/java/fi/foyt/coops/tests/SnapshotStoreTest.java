@@ -0,0 +1,165 @@
+package fi.foyt.coops.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fi.foyt.coops.CoOps;
+import fi.foyt.coops.PatchException;
+import fi.foyt.coops.ServerException;
+import fi.foyt.coops.TestIO;
+import fi.foyt.coops.UsageException;
+import fi.foyt.coops.document.Document;
+import fi.foyt.coops.document.Rope;
+import fi.foyt.coops.model.Patch;
+import fi.foyt.coops.patch.PatchEngine;
+import fi.foyt.coops.snapshot.SnapshotLoader;
+import fi.foyt.coops.snapshot.SnapshotStore;
+
+public class SnapshotStoreTest {
+  
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testSaveAndLoad() throws IOException {
+    SnapshotStore store = new SnapshotStore(folder.getRoot().toPath());
+    URI fileUri = URI.create("http://localhost/file/1");
+    String content = StringUtils.repeat("Hyvää päivää! ", 1000);
+    
+    store.save(fileUri, "file/1", new Document(Rope.valueOf(content), "text/html", 5l));
+    store.save(fileUri, "file/1", new Document(Rope.valueOf(content + "6"), "text/html", 6l));
+    store.save(fileUri, "file/1", new Document(Rope.valueOf(content + "7"), null, 7l));
+    
+    assertEquals(Arrays.asList(6l, 7l), store.getRevisions(fileUri, "file/1"));
+    assertNull(store.load(fileUri, "file/1", 5l));
+    assertNull(store.load(fileUri, "file/2"));
+    
+    Document latest = store.load(fileUri, "file/1");
+    assertEquals(new Long(7), latest.getRevisionNumber());
+    assertEquals(content + "7", latest.getContentAsString());
+    assertNull(latest.getContentType());
+    
+    Document previous = store.load(fileUri, "file/1", 6l);
+    assertEquals("text/html", previous.getContentType());
+    assertEquals(content + "6", previous.getContentAsString());
+    
+    store.delete(fileUri, "file/1");
+    assertNull(store.load(fileUri, "file/1"));
+  }
+  
+  @Test
+  public void testCorruptedSnapshot() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    SnapshotStore store = new SnapshotStore(directory);
+    URI fileUri = URI.create("http://localhost/1");
+    store.save(fileUri, "1", new Document(Rope.valueOf("content"), "text/plain", 1l));
+    
+    Path fileDirectory;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      fileDirectory = stream.iterator().next();
+    }
+    
+    try (FileChannel channel = FileChannel.open(fileDirectory.resolve(String.format("%020d.snapshot", 1)), StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] { 'X' }), 25);
+    }
+    
+    try {
+      store.load(fileUri, "1");
+      fail();
+    } catch (IOException e) {
+    }
+  }
+  
+  @Test
+  public void testSnapshotLoader() throws IOException, UsageException, ServerException, PatchException {
+    TestIO testIO = new TestIO();
+    CoOps coOps = new CoOps(testIO, "http", "localhost", 80, "");
+    PatchEngine patchEngine = new PatchEngine();
+    SnapshotLoader loader = new SnapshotLoader(new SnapshotStore(folder.getRoot().toPath()), patchEngine);
+    String joinPath = "/join?protocolVersion=" + CoOps.PROTOCOL_VERSION + "&algorithm=dmp";
+    
+    // First open joins the file
+    testIO.addMockedResult(joinPath, "{\"fileId\":\"1\",\"revisionNumber\":2,\"content\":\"abc\",\"contentType\":\"text/plain\"}");
+    Document document = loader.open(coOps, "1", new String[] { "dmp" }, null);
+    assertEquals("abc", document.getContentAsString());
+    assertEquals(new Long(2), document.getRevisionNumber());
+    
+    // Second open catches up from the snapshot without joining
+    testIO.clearMockedResults();
+    Patch patch3 = patchEngine.createPatch("dmp", 3l, "abc", "abcd");
+    Patch patch4 = patchEngine.createPatch("dmp", 4l, "abcd", "xabcd");
+    testIO.addMockedResult("/update?revisionNumber=2", coOps.getGson().toJson(new Patch[] { patch3, patch4 }));
+    
+    document = loader.open(coOps, "1", new String[] { "dmp" }, null);
+    assertEquals("xabcd", document.getContentAsString());
+    assertEquals(new Long(4), document.getRevisionNumber());
+    assertEquals("text/plain", document.getContentType());
+    
+    // Too large gap falls back to joining
+    loader.setMaxCatchUpPatches(0);
+    testIO.addMockedResult("/update?revisionNumber=4", coOps.getGson().toJson(new Patch[] { patchEngine.createPatch("dmp", 5l, "xabcd", "xabcde") }));
+    testIO.addMockedResult(joinPath, "{\"fileId\":\"1\",\"revisionNumber\":5,\"content\":\"xabcde\",\"contentType\":\"text/plain\"}");
+    
+    document = loader.open(coOps, "1", new String[] { "dmp" }, null);
+    assertEquals("xabcde", document.getContentAsString());
+    assertEquals(new Long(5), loader.getSnapshotStore().load(coOps.getFileURI(), "1").getRevisionNumber());
+  }
+  
+  @Test
+  public void testFilesOnDifferentServers() throws IOException {
+    SnapshotStore store = new SnapshotStore(folder.getRoot().toPath());
+    URI firstUri = URI.create("http://first.example.com/1");
+    URI secondUri = URI.create("http://second.example.com/1");
+    
+    store.save(firstUri, "1", new Document(Rope.valueOf("first"), "text/plain", 3l));
+    store.save(secondUri, "1", new Document(Rope.valueOf("second"), "text/plain", 2l));
+    
+    assertEquals("first", store.load(firstUri, "1").getContentAsString());
+    assertEquals("second", store.load(secondUri, "1").getContentAsString());
+    
+    store.delete(firstUri, "1");
+    assertNull(store.load(firstUri, "1"));
+    assertEquals(Arrays.asList(2l), store.getRevisions(secondUri, "1"));
+  }
+  
+  @Test
+  public void testLocalChangesNotStored() throws IOException, PatchException {
+    SnapshotStore store = new SnapshotStore(folder.getRoot().toPath());
+    URI fileUri = URI.create("http://localhost/1");
+    PatchEngine patchEngine = new PatchEngine();
+    
+    Document document = new Document(Rope.valueOf("abc"), "text/plain", 2l);
+    document.insert(0, "local ");
+    assertTrue(document.hasLocalChanges());
+    
+    // Remote patch is applied into both local and confirmed content
+    patchEngine.applyPatch(document, patchEngine.createPatch("dmp", 3l, "abc", "abcd"));
+    assertEquals("local abcd", document.getContentAsString());
+    assertEquals("abcd", document.getConfirmedContent().toString());
+    
+    store.save(fileUri, "1", document);
+    
+    Document snapshot = store.load(fileUri, "1");
+    assertEquals(new Long(3), snapshot.getRevisionNumber());
+    assertEquals("abcd", snapshot.getContentAsString());
+    assertFalse(snapshot.hasLocalChanges());
+  }
+}